@@ -21,8 +21,17 @@ intellij {
     downloadSources.set(false)
 }
 
+// Tools run next to the plugin, such as the local cache server; they are not packaged with it
+sourceSets {
+    create("tools")
+}
+
+val toolsImplementation by configurations.getting
+
 dependencies {
     implementation("org.json:json:20231013")
+    toolsImplementation("org.json:json:20231013")
+    testImplementation(sourceSets["tools"].output)
     testImplementation("org.junit.jupiter:junit-jupiter-api:5.10.1")
     testRuntimeOnly("org.junit.jupiter:junit-jupiter-engine:5.10.1")
     testImplementation("org.mockito:mockito-core:5.8.0")
@@ -56,5 +65,12 @@ tasks {
 
     test{
         useJUnitPlatform()
+        // Lets HeapFootprint follow the fields of JDK collections in HeapFootprintTest
+        jvmArgs("--add-opens", "java.base/java.util=ALL-UNNAMED", "--add-opens", "java.base/java.lang=ALL-UNNAMED")
+    }
+
+    register<JavaExec>("runCacheServer") {
+        classpath = sourceSets["tools"].runtimeClasspath
+        mainClass.set("LocalCacheServer")
     }
 }
@@ -0,0 +1,256 @@
+import com.intellij.openapi.diagnostic.Logger;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * Sends many prompts through the Batch API instead of the chat completions endpoint. The prompts are written to a
+ * JSONL batch file, uploaded, submitted as one batch and polled until the batch is done; the answers are then
+ * downloaded and returned by prompt id. Batches are neither subject to the interactive tokens-per-minute limit nor
+ * answered right away, so this is only meant for large background jobs.
+ * <p>
+ * The id of a submitted batch is kept in a file next to the batch file until its results are collected, so an
+ * interrupted job resumes waiting for the same batch instead of submitting it again.
+ */
+public class BatchTransport {
+    private static final Logger LOG = Logger.getInstance(BatchTransport.class);
+    static final String COMPLETIONS_ENDPOINT = "/v1/chat/completions";
+    private static final String COMPLETION_WINDOW = "24h";
+
+    private final URI baseUri;
+    private final HttpClient httpClient;
+    private final Supplier<String> apiKey;
+    private final long pollIntervalMs;
+
+    /**
+     * Constructs a BatchTransport.
+     *
+     * @param baseUri        The base URI of the API, e.g. "https://api.openai.com/v1/".
+     * @param httpClient     The client used for all requests.
+     * @param apiKey         Supplies the API key when the first request is made.
+     * @param pollIntervalMs The time to wait between two checks of a batch's status.
+     */
+    public BatchTransport(URI baseUri, HttpClient httpClient, Supplier<String> apiKey, long pollIntervalMs) {
+        String base = baseUri.toString();
+        this.baseUri = URI.create(base.endsWith("/") ? base : base + "/");
+        this.httpClient = httpClient;
+        this.apiKey = apiKey;
+        this.pollIntervalMs = pollIntervalMs;
+    }
+
+    /**
+     * Answers all prompts through one batch, first collecting the results of a batch left pending by an interrupted
+     * run of the same batch file. Prompts the pending batch did not answer are submitted in a new batch.
+     *
+     * @param prompts   The prompts, keyed by an id derived from their content, since the answers of a resumed batch
+     *                  are matched to the prompts by id.
+     * @param batchFile The path the batch file is written to.
+     * @return The answers keyed by prompt id; prompts the batch failed to answer are missing.
+     * @throws IOException          If the batch cannot be submitted or its results cannot be collected.
+     * @throws InterruptedException If the job is interrupted; the batch keeps running and is resumed by the next call.
+     */
+    public Map<String, String> run(Map<String, String> prompts, Path batchFile) throws IOException, InterruptedException {
+        Map<String, String> answers = new HashMap<>();
+        Path stateFile = stateFileOf(batchFile);
+        if (Files.exists(stateFile)) {
+            String pendingBatch = Files.readString(stateFile, StandardCharsets.UTF_8).trim();
+            LOG.info("Resuming batch " + pendingBatch);
+            collect(pendingBatch, stateFile, answers);
+        }
+
+        Map<String, String> remaining = new LinkedHashMap<>(prompts);
+        remaining.keySet().removeAll(answers.keySet());
+        if (!remaining.isEmpty()) {
+            writeBatchFile(remaining, batchFile);
+            String batchId = submit(batchFile);
+            Path temporary = stateFile.resolveSibling(stateFile.getFileName() + ".tmp");
+            Files.writeString(temporary, batchId, StandardCharsets.UTF_8);
+            Files.move(temporary, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            LOG.info("Submitted batch " + batchId + " with " + remaining.size() + " requests");
+            collect(batchId, stateFile, answers);
+        }
+        answers.keySet().retainAll(prompts.keySet());
+        return answers;
+    }
+
+    /**
+     * Waits for a batch, adds its answers and forgets the batch once they are collected.
+     *
+     * @param batchId   The id of the batch.
+     * @param stateFile The file holding the id of the pending batch.
+     * @param answers   The map the answers are added to.
+     * @throws IOException          If the status or the results of the batch cannot be downloaded.
+     * @throws InterruptedException If the wait is interrupted.
+     */
+    private void collect(String batchId, Path stateFile, Map<String, String> answers) throws IOException, InterruptedException {
+        String outputFileId = awaitCompletion(batchId);
+        if (outputFileId != null) {
+            answers.putAll(download(outputFileId));
+        }
+        Files.deleteIfExists(stateFile);
+    }
+
+    /**
+     * Writes prompts as a JSONL batch file, one chat completion request per line.
+     *
+     * @param prompts   The prompts, keyed by an id unique within the batch.
+     * @param batchFile The path of the batch file.
+     * @throws IOException If the file cannot be written.
+     */
+    static void writeBatchFile(Map<String, String> prompts, Path batchFile) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(batchFile, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, String> prompt : prompts.entrySet()) {
+                JSONObject line = new JSONObject();
+                line.put("custom_id", prompt.getKey());
+                line.put("method", "POST");
+                line.put("url", COMPLETIONS_ENDPOINT);
+                line.put("body", new JSONObject(ChatGPTApiClient.createRequestBody(prompt.getValue())));
+                writer.write(line.toString());
+                writer.write('\n');
+            }
+        }
+    }
+
+    /**
+     * Uploads a batch file and creates a batch from it.
+     *
+     * @param batchFile The JSONL batch file.
+     * @return The id of the batch.
+     * @throws IOException          If the upload or the creation of the batch fails.
+     * @throws InterruptedException If a request is interrupted.
+     */
+    String submit(Path batchFile) throws IOException, InterruptedException {
+        String boundary = "----batch" + UUID.randomUUID();
+        String head = "--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"purpose\"\r\n\r\nbatch\r\n"
+                + "--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"" + batchFile.getFileName() + "\"\r\n"
+                + "Content-Type: application/jsonl\r\n\r\n";
+        String tail = "\r\n--" + boundary + "--\r\n";
+        HttpRequest upload = request("files")
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .POST(HttpRequest.BodyPublishers.concat(
+                        HttpRequest.BodyPublishers.ofString(head),
+                        HttpRequest.BodyPublishers.ofFile(batchFile),
+                        HttpRequest.BodyPublishers.ofString(tail)))
+                .build();
+        String fileId = sendForJson(upload).getString("id");
+
+        JSONObject batch = new JSONObject();
+        batch.put("input_file_id", fileId);
+        batch.put("endpoint", COMPLETIONS_ENDPOINT);
+        batch.put("completion_window", COMPLETION_WINDOW);
+        HttpRequest create = request("batches")
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(batch.toString()))
+                .build();
+        return sendForJson(create).getString("id");
+    }
+
+    /**
+     * Polls a batch until it is done. A batch that failed, expired or was cancelled is logged and still yields the
+     * answers it produced before, if any, so its remaining prompts can be retried.
+     *
+     * @param batchId The id of the batch.
+     * @return The id of the file holding the answers, or null if the batch produced none.
+     * @throws IOException          If the status of the batch cannot be read.
+     * @throws InterruptedException If the wait is interrupted.
+     */
+    String awaitCompletion(String batchId) throws IOException, InterruptedException {
+        while (true) {
+            JSONObject batch = sendForJson(request("batches/" + batchId).GET().build());
+            String status = batch.getString("status");
+            switch (status) {
+                case "failed":
+                case "expired":
+                case "cancelled":
+                    LOG.warn("Batch " + batchId + " " + status + ": " + batch.opt("errors"));
+                    // fall through
+                case "completed":
+                    return batch.optString("output_file_id", null);
+                default:
+                    Thread.sleep(pollIntervalMs);
+            }
+        }
+    }
+
+    /**
+     * Downloads the answers of a batch. Lines reporting an error or a response other than 200 are logged and left out.
+     *
+     * @param outputFileId The id of the output file.
+     * @return The answers keyed by prompt id.
+     * @throws IOException          If the file cannot be downloaded.
+     * @throws InterruptedException If the request is interrupted.
+     */
+    Map<String, String> download(String outputFileId) throws IOException, InterruptedException {
+        HttpResponse<String> response = httpClient.send(request("files/" + outputFileId + "/content").GET().build(),
+                HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+        if (response.statusCode() != 200) {
+            throw new IOException("Downloading " + outputFileId + " failed with status " + response.statusCode());
+        }
+        return parseOutput(response.body());
+    }
+
+    /**
+     * Parses the output file of a batch.
+     *
+     * @param output The JSONL content of the output file.
+     * @return The answers keyed by prompt id.
+     */
+    static Map<String, String> parseOutput(String output) {
+        Map<String, String> answers = new HashMap<>();
+        for (String line : output.split("\n")) {
+            if (line.isBlank()) {
+                continue;
+            }
+            try {
+                JSONObject result = new JSONObject(line);
+                String id = result.getString("custom_id");
+                JSONObject response = result.optJSONObject("response");
+                if (response == null || response.optInt("status_code") != 200) {
+                    LOG.warn("Batch request " + id + " failed: " + (response == null ? result.opt("error") : response.opt("body")));
+                    continue;
+                }
+                answers.put(id, ChatGPTApiClient.formatResponse(response.getJSONObject("body").toString()));
+            } catch (JSONException e) {
+                LOG.warn("Skipping malformed batch output line: " + e.getMessage());
+            }
+        }
+        return answers;
+    }
+
+    private HttpRequest.Builder request(String path) {
+        return HttpRequest.newBuilder(baseUri.resolve(path)).header("Authorization", "Bearer " + apiKey.get());
+    }
+
+    private JSONObject sendForJson(HttpRequest request) throws IOException, InterruptedException {
+        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+        if (response.statusCode() != 200) {
+            throw new IOException(request.method() + " " + request.uri() + " failed with status " + response.statusCode() + ": " + response.body());
+        }
+        try {
+            return new JSONObject(response.body());
+        } catch (JSONException e) {
+            throw new IOException("Unexpected response from " + request.uri() + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static Path stateFileOf(Path batchFile) {
+        return batchFile.resolveSibling(batchFile.getFileName() + ".pending");
+    }
+}
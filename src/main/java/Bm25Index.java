@@ -0,0 +1,294 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An in-memory BM25 index over tokenized documents, identified by String keys. Postings are kept as primitive
+ * int arrays per term, so an index of 100k functions takes a few megabytes and a query only walks the postings of its
+ * own terms. Documents are updated by replacement: the old version is tombstoned and its postings are purged in bulk
+ * once tombstones make up half of all postings. The slots of purged documents are reused by later documents, so the
+ * per-document arrays stay proportional to the number of live documents however often documents are replaced.
+ */
+public class Bm25Index {
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+    private static final int INITIAL_POSTINGS_CAPACITY = 4;
+    private static final Pattern IDENTIFIER_PATTERN = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+    private static final Pattern SUBWORD_PATTERN = Pattern.compile("[A-Z]?[a-z0-9]+|[A-Z]+(?![a-z])");
+    private static final Set<String> STOP_WORDS = Set.of("self", "cls", "def", "class", "return", "if", "elif", "else",
+            "for", "while", "in", "is", "not", "and", "or", "import", "from", "as", "with", "pass", "none", "true",
+            "false", "try", "except", "finally", "raise", "lambda", "yield", "the", "an", "of", "to", "it", "this");
+
+    private final Map<String, Integer> termIds = new HashMap<>();
+    private final Map<String, Integer> documentIds = new HashMap<>();
+    private final List<String> documentKeys = new ArrayList<>();
+    private final List<int[]> documentTerms = new ArrayList<>();
+    private final BitSet liveDocuments = new BitSet();
+    // Slots of removed documents whose postings have been purged, so no posting refers to them any more.
+    private final BitSet freeDocuments = new BitSet();
+    // Reused by every query; only the entries of matched documents are written, and they are reset afterwards.
+    private float[] scores = new float[16];
+    private final BitSet matched = new BitSet();
+    private int[] documentLengths = new int[16];
+    private int[][] postingDocuments = new int[16][];
+    private int[][] postingFrequencies = new int[16][];
+    private int[] postingSizes = new int[16];
+    private int[] documentFrequencies = new int[16];
+    private long totalLength = 0;
+    private long livePostings = 0;
+    private long deadPostings = 0;
+    long lastPostingsScanned = 0;
+
+    /**
+     * Splits text into lowercase index terms. Identifiers are indexed whole and by their snake_case and camelCase
+     * parts, so a query for "parse" finds "parse_header" and "parseHeader". Keywords and very common words are dropped.
+     *
+     * @param text The text to tokenize, e.g. a signature or a docstring.
+     * @return The terms, in order of appearance and with repetitions.
+     */
+    public static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        Matcher identifiers = IDENTIFIER_PATTERN.matcher(text);
+        while (identifiers.find()) {
+            String identifier = identifiers.group();
+            addTerm(terms, identifier.toLowerCase());
+            Matcher subwords = SUBWORD_PATTERN.matcher(identifier);
+            int parts = 0;
+            List<String> subwordTerms = new ArrayList<>();
+            while (subwords.find()) {
+                parts++;
+                subwordTerms.add(subwords.group().toLowerCase());
+            }
+            if (parts > 1) {
+                for (String subword : subwordTerms) {
+                    addTerm(terms, subword);
+                }
+            }
+        }
+        return terms;
+    }
+
+    private static void addTerm(List<String> terms, String term) {
+        if (term.length() > 1 && !STOP_WORDS.contains(term)) {
+            terms.add(term);
+        }
+    }
+
+    /**
+     * Adds a document, replacing any document with the same key.
+     *
+     * @param key   The key of the document.
+     * @param terms The terms of the document, see {@link #tokenize(String)}.
+     */
+    public synchronized void add(String key, List<String> terms) {
+        remove(key);
+
+        Map<Integer, Integer> frequencies = new LinkedHashMap<>();
+        for (String term : terms) {
+            frequencies.merge(termIds.computeIfAbsent(term, t -> termIds.size()), 1, Integer::sum);
+        }
+        ensureTermCapacity(termIds.size());
+
+        int document = freeDocuments.nextSetBit(0);
+        if (document >= 0) {
+            freeDocuments.clear(document);
+            documentKeys.set(document, key);
+        } else {
+            document = documentKeys.size();
+            documentKeys.add(key);
+            documentTerms.add(null);
+            if (document >= documentLengths.length) {
+                documentLengths = Arrays.copyOf(documentLengths, documentLengths.length * 2);
+            }
+        }
+        documentIds.put(key, document);
+        documentLengths[document] = terms.size();
+        liveDocuments.set(document);
+        totalLength += terms.size();
+
+        int[] uniqueTerms = new int[frequencies.size()];
+        int index = 0;
+        for (Map.Entry<Integer, Integer> entry : frequencies.entrySet()) {
+            int term = entry.getKey();
+            uniqueTerms[index++] = term;
+            appendPosting(term, document, entry.getValue());
+            documentFrequencies[term]++;
+        }
+        documentTerms.set(document, uniqueTerms);
+        livePostings += uniqueTerms.length;
+    }
+
+    /**
+     * Removes a document. Its postings are skipped by queries and purged later, after which its slot is reused.
+     *
+     * @param key The key of the document.
+     */
+    public synchronized void remove(String key) {
+        Integer document = documentIds.remove(key);
+        if (document == null) {
+            return;
+        }
+        liveDocuments.clear(document);
+        totalLength -= documentLengths[document];
+        int[] terms = documentTerms.get(document);
+        for (int term : terms) {
+            documentFrequencies[term]--;
+        }
+        documentTerms.set(document, null);
+        documentKeys.set(document, null);
+        livePostings -= terms.length;
+        deadPostings += terms.length;
+        if (deadPostings > livePostings) {
+            purge();
+        }
+    }
+
+    /**
+     * Checks whether a document with the given key is indexed.
+     *
+     * @param key The key of the document.
+     * @return true if the document is indexed, false otherwise.
+     */
+    public synchronized boolean contains(String key) {
+        return documentIds.containsKey(key);
+    }
+
+    /**
+     * Gets the number of indexed documents.
+     *
+     * @return The number of live documents.
+     */
+    public synchronized int size() {
+        return documentIds.size();
+    }
+
+    /**
+     * Gets the number of document slots, live or not.
+     *
+     * @return The number of slots.
+     */
+    synchronized int slotCount() {
+        return documentKeys.size();
+    }
+
+    /**
+     * Finds the documents best matching the query terms by BM25 score.
+     *
+     * @param queryTerms The terms of the query; repeated terms count once.
+     * @param limit      The maximum number of results.
+     * @param excludeKey The key of a document to leave out of the results, e.g. the query's own document, or null.
+     * @return The keys of the best matching documents, best first.
+     */
+    public synchronized List<String> search(List<String> queryTerms, int limit, String excludeKey) {
+        int liveCount = documentIds.size();
+        if (liveCount == 0 || limit <= 0) {
+            return new ArrayList<>();
+        }
+        float averageLength = Math.max(1f, (float) totalLength / liveCount);
+        Integer excluded = excludeKey == null ? null : documentIds.get(excludeKey);
+
+        if (scores.length < documentKeys.size()) {
+            scores = new float[documentLengths.length];
+        }
+        float[] scores = this.scores;
+        long postingsScanned = 0;
+        for (String queryTerm : new LinkedHashSet<>(queryTerms)) {
+            Integer term = termIds.get(queryTerm);
+            if (term == null || documentFrequencies[term] == 0) {
+                continue;
+            }
+            int documentFrequency = documentFrequencies[term];
+            float idf = (float) Math.log(1 + (liveCount - documentFrequency + 0.5) / (documentFrequency + 0.5));
+            int[] documents = postingDocuments[term];
+            int[] frequencies = postingFrequencies[term];
+            postingsScanned += postingSizes[term];
+            for (int i = 0; i < postingSizes[term]; i++) {
+                int document = documents[i];
+                if (!liveDocuments.get(document)) {
+                    continue;
+                }
+                float frequency = frequencies[i];
+                float norm = K1 * (1 - B + B * documentLengths[document] / averageLength);
+                scores[document] += idf * frequency * (K1 + 1) / (frequency + norm);
+                matched.set(document);
+            }
+        }
+
+        lastPostingsScanned = postingsScanned;
+
+        PriorityQueue<Integer> best = new PriorityQueue<>((a, b) -> Float.compare(scores[a], scores[b]));
+        for (int document = matched.nextSetBit(0); document >= 0; document = matched.nextSetBit(document + 1)) {
+            if (excluded == null || document != excluded) {
+                best.add(document);
+                if (best.size() > limit) {
+                    best.poll();
+                }
+            }
+        }
+        List<String> results = new ArrayList<>();
+        while (!best.isEmpty()) {
+            results.add(0, documentKeys.get(best.poll()));
+        }
+        for (int document = matched.nextSetBit(0); document >= 0; document = matched.nextSetBit(document + 1)) {
+            scores[document] = 0;
+        }
+        matched.clear();
+        return results;
+    }
+
+    private void appendPosting(int term, int document, int frequency) {
+        int[] documents = postingDocuments[term];
+        if (documents == null) {
+            postingDocuments[term] = new int[INITIAL_POSTINGS_CAPACITY];
+            postingFrequencies[term] = new int[INITIAL_POSTINGS_CAPACITY];
+        } else if (postingSizes[term] == documents.length) {
+            postingDocuments[term] = Arrays.copyOf(documents, documents.length * 2);
+            postingFrequencies[term] = Arrays.copyOf(postingFrequencies[term], documents.length * 2);
+        }
+        postingDocuments[term][postingSizes[term]] = document;
+        postingFrequencies[term][postingSizes[term]] = frequency;
+        postingSizes[term]++;
+    }
+
+    private void ensureTermCapacity(int termCount) {
+        if (termCount <= postingSizes.length) {
+            return;
+        }
+        int capacity = Math.max(termCount, postingSizes.length * 2);
+        postingDocuments = Arrays.copyOf(postingDocuments, capacity);
+        postingFrequencies = Arrays.copyOf(postingFrequencies, capacity);
+        postingSizes = Arrays.copyOf(postingSizes, capacity);
+        documentFrequencies = Arrays.copyOf(documentFrequencies, capacity);
+    }
+
+    /**
+     * Drops the postings of removed documents, shrinking each postings list in place, and frees their slots.
+     */
+    private void purge() {
+        for (int term = 0; term < termIds.size(); term++) {
+            int[] documents = postingDocuments[term];
+            int[] frequencies = postingFrequencies[term];
+            int kept = 0;
+            for (int i = 0; i < postingSizes[term]; i++) {
+                if (liveDocuments.get(documents[i])) {
+                    documents[kept] = documents[i];
+                    frequencies[kept] = frequencies[i];
+                    kept++;
+                }
+            }
+            postingSizes[term] = kept;
+        }
+        deadPostings = 0;
+        freeDocuments.set(0, documentKeys.size());
+        freeDocuments.andNot(liveDocuments);
+    }
+}
@@ -0,0 +1,237 @@
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.SmartPointerManager;
+import com.intellij.psi.SmartPsiElementPointer;
+import com.intellij.psi.search.FileTypeIndex;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.jetbrains.python.PythonFileType;
+import com.jetbrains.python.psi.PyFile;
+import com.jetbrains.python.psi.PyFunction;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Explains every Python function of a project and streams the results into an {@link ExplanationJournal}.
+ * Functions already present in the journal with the same code are skipped, so an interrupted run can be resumed.
+ * Small functions are packed several to a request, since the request rate rather than the token rate is what limits
+ * them.
+ */
+public class BulkExplainRunner {
+    private static final Logger LOG = Logger.getInstance(BulkExplainRunner.class);
+    private static final int CONCURRENCY = 8;
+    private static final int SMALL_FUNCTION_TOKENS = 300;
+    private static final int PACK_BATCH_SIZE = 24;
+
+    private final Project project;
+    private final ExplanationJournal journal;
+    private final AtomicInteger explained = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    /**
+     * Constructs a BulkExplainRunner.
+     *
+     * @param project The project whose functions are explained.
+     * @param journal The journal receiving the explanations.
+     */
+    public BulkExplainRunner(Project project, ExplanationJournal journal) {
+        this.project = project;
+        this.journal = journal;
+    }
+
+    /**
+     * Explains all functions of the project, running up to {@value #CONCURRENCY} requests at a time.
+     * Small functions of the same file are packed together into shared requests; larger ones are sent on their own.
+     * Each request reserves its tokens from the shared budget before it is sent, waiting instead of failing when the
+     * rate limit is reached, so the concurrent workers cannot together overshoot the limit.
+     *
+     * @return The number of functions that could not be explained.
+     * @throws InterruptedException If the run is interrupted.
+     */
+    public int run() throws InterruptedException {
+        List<List<SmartPsiElementPointer<PyFunction>>> filesFunctions = ReadAction.compute(this::collectFunctions);
+
+        ExecutorService executor = AppExecutorUtil.createBoundedApplicationPoolExecutor("Bulk Explain", CONCURRENCY);
+        for (List<SmartPsiElementPointer<PyFunction>> fileFunctions : filesFunctions) {
+            List<SmartPsiElementPointer<PyFunction>> smallFunctions = new ArrayList<>();
+            for (SmartPsiElementPointer<PyFunction> function : fileFunctions) {
+                if (ReadAction.compute(() -> isSmall(function.getElement()))) {
+                    smallFunctions.add(function);
+                } else {
+                    executor.execute(() -> explainFunction(function));
+                }
+            }
+            for (int i = 0; i < smallFunctions.size(); i += PACK_BATCH_SIZE) {
+                List<SmartPsiElementPointer<PyFunction>> batch = smallFunctions.subList(i, Math.min(i + PACK_BATCH_SIZE, smallFunctions.size()));
+                executor.execute(() -> explainPacked(batch));
+            }
+        }
+        executor.shutdown();
+        while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+            LOG.info("Bulk explain progress: " + explained.get() + " explained, " + skipped.get() + " skipped, " + failed.get() + " failed");
+        }
+
+        LOG.info("Bulk explain finished: " + explained.get() + " explained, " + skipped.get() + " skipped, " + failed.get() + " failed");
+        return failed.get();
+    }
+
+    /**
+     * Explains all functions of the project through the Batch API, then explains the functions the batch left out
+     * one by one as {@link #run()} does. Since a batch is not throttled by the token budget, this suits whole-project
+     * runs that would otherwise take hours; the batch itself may take up to a day to complete.
+     *
+     * @param batchFile The path the batch file is written to; an interrupted batch for the same path is resumed.
+     * @return The number of functions that could not be explained.
+     * @throws IOException          If the batch cannot be submitted, fails or its results cannot be journaled.
+     * @throws InterruptedException If the run is interrupted.
+     */
+    public int runBatch(Path batchFile) throws IOException, InterruptedException {
+        List<PyFunction> functions = new ArrayList<>();
+        Map<String, String> hashes = new HashMap<>();
+        for (List<SmartPsiElementPointer<PyFunction>> fileFunctions : ReadAction.compute(this::collectFunctions)) {
+            for (SmartPsiElementPointer<PyFunction> pointer : fileFunctions) {
+                PyFunction function = ReadAction.compute(pointer::getElement);
+                if (function == null) {
+                    continue;
+                }
+                String key = ReadAction.compute(() -> ExplanationCache.keyFor(function));
+                String hash = ContentHash.sha256(ReadAction.compute(function::getText));
+                if (!journal.isCompleted(key, hash)) {
+                    functions.add(function);
+                    hashes.put(key, hash);
+                }
+            }
+        }
+
+        Map<String, String> explanations = ExplanationPipeline.getInstance().explainInBatch(functions, batchFile);
+        for (Map.Entry<String, String> hash : hashes.entrySet()) {
+            String explanation = explanations.get(hash.getKey());
+            if (explanation != null) {
+                journal.append(hash.getKey(), hash.getValue(), explanation);
+            }
+        }
+        LOG.info("Batch run journaled " + explanations.size() + " of " + hashes.size() + " functions, explaining the rest one by one");
+        return run();
+    }
+
+    /**
+     * Collects pointers to every Python function in the project's source files, grouped by file.
+     *
+     * @return The function pointers of each file.
+     */
+    private List<List<SmartPsiElementPointer<PyFunction>>> collectFunctions() {
+        SmartPointerManager pointerManager = SmartPointerManager.getInstance(project);
+        PsiManager psiManager = PsiManager.getInstance(project);
+        Collection<VirtualFile> files = FileTypeIndex.getFiles(PythonFileType.INSTANCE, GlobalSearchScope.projectScope(project));
+
+        List<List<SmartPsiElementPointer<PyFunction>>> functions = new ArrayList<>();
+        int count = 0;
+        for (VirtualFile file : files) {
+            PsiFile psiFile = psiManager.findFile(file);
+            if (psiFile instanceof PyFile) {
+                List<SmartPsiElementPointer<PyFunction>> fileFunctions = new ArrayList<>();
+                for (PyFunction function : PsiTreeUtil.findChildrenOfType(psiFile, PyFunction.class)) {
+                    fileFunctions.add(pointerManager.createSmartPsiElementPointer(function));
+                }
+                functions.add(fileFunctions);
+                count += fileFunctions.size();
+            }
+        }
+        LOG.info("Explaining " + count + " functions in " + functions.size() + " files of " + project.getName());
+        return functions;
+    }
+
+    private static boolean isSmall(PyFunction function) {
+        return function != null && CodeCompressor.estimateTokenCount(function.getText()) <= SMALL_FUNCTION_TOKENS;
+    }
+
+    /**
+     * Explains a batch of small functions through packed requests, skipping those already in the journal.
+     *
+     * @param pointers The pointers to the functions.
+     */
+    private void explainPacked(List<SmartPsiElementPointer<PyFunction>> pointers) {
+        List<PyFunction> functions = new ArrayList<>();
+        Map<String, String> hashes = new HashMap<>();
+        for (SmartPsiElementPointer<PyFunction> pointer : pointers) {
+            PyFunction function = ReadAction.compute(pointer::getElement);
+            if (function == null) {
+                continue;
+            }
+            String key = ReadAction.compute(() -> ExplanationCache.keyFor(function));
+            String hash = ContentHash.sha256(ReadAction.compute(function::getText));
+            if (journal.isCompleted(key, hash)) {
+                skipped.incrementAndGet();
+            } else {
+                functions.add(function);
+                hashes.put(key, hash);
+            }
+        }
+
+        Map<String, String> explanations;
+        try {
+            explanations = ExplanationPipeline.getInstance().explainPackedInBackground(functions);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        for (Map.Entry<String, String> hash : hashes.entrySet()) {
+            String explanation = explanations.get(hash.getKey());
+            if (explanation == null) {
+                failed.incrementAndGet();
+                continue;
+            }
+            try {
+                journal.append(hash.getKey(), hash.getValue(), explanation);
+                explained.incrementAndGet();
+            } catch (IOException e) {
+                failed.incrementAndGet();
+                LOG.warn("Could not write the explanation of " + hash.getKey() + " to the journal: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Explains a single function unless the journal already holds an explanation for its current code.
+     *
+     * @param pointer The pointer to the function.
+     */
+    private void explainFunction(SmartPsiElementPointer<PyFunction> pointer) {
+        PyFunction function = ReadAction.compute(pointer::getElement);
+        if (function == null) {
+            return;
+        }
+        String key = ReadAction.compute(() -> ExplanationCache.keyFor(function));
+        String hash = ContentHash.sha256(ReadAction.compute(function::getText));
+        if (journal.isCompleted(key, hash)) {
+            skipped.incrementAndGet();
+            return;
+        }
+
+        try {
+            String explanation = ExplanationPipeline.getInstance().explainInBackground(function);
+            journal.append(key, hash, explanation);
+            explained.incrementAndGet();
+        } catch (IOException e) {
+            failed.incrementAndGet();
+            LOG.warn("Could not explain " + key + ": " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
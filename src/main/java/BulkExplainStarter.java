@@ -0,0 +1,61 @@
+import com.intellij.ide.impl.ProjectUtil;
+import com.intellij.openapi.application.ApplicationStarter;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.project.ProjectManager;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * A headless entry point explaining every function of a project into a JSONL file.
+ * <p>
+ * Usage: {@code pycharm.sh explain-bulk <project-path> <output.jsonl> [--batch]}. Running the command again with
+ * the same output file resumes an interrupted run. With {@code --batch}, the functions are submitted through the
+ * Batch API first, using {@code <output.jsonl>.batch.jsonl} as the batch file.
+ */
+public class BulkExplainStarter implements ApplicationStarter {
+    private static final String BATCH_OPTION = "--batch";
+
+    @Override
+    public String getCommandName() {
+        return "explain-bulk";
+    }
+
+    @Override
+    public int getRequiredModality() {
+        return NOT_IN_EDT;
+    }
+
+    @Override
+    public void main(@NotNull List<String> args) {
+        if (args.size() < 3) {
+            System.err.println("Usage: explain-bulk <project-path> <output.jsonl> [" + BATCH_OPTION + "]");
+            System.exit(1);
+        }
+
+        int exitCode = 0;
+        Project project = ProjectUtil.openOrImport(Path.of(args.get(1)), null, false);
+        if (project == null) {
+            System.err.println("Cannot open project at " + args.get(1));
+            System.exit(1);
+        }
+        Path journalPath = Path.of(args.get(2));
+        try (ExplanationJournal journal = new ExplanationJournal(journalPath)) {
+            DumbService.getInstance(project).waitForSmartMode();
+            BulkExplainRunner runner = new BulkExplainRunner(project, journal);
+            int failed = args.contains(BATCH_OPTION)
+                    ? runner.runBatch(journalPath.resolveSibling(journalPath.getFileName() + ".batch.jsonl"))
+                    : runner.run();
+            System.out.println("Explained " + journal.size() + " functions, " + failed + " failed.");
+            exitCode = failed == 0 ? 0 : 2;
+        } catch (Exception e) {
+            e.printStackTrace();
+            exitCode = 1;
+        } finally {
+            ProjectManager.getInstance().closeAndDispose(project);
+        }
+        System.exit(exitCode);
+    }
+}
@@ -0,0 +1,393 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A compact graph of the definitions of a project and the names they reference. Every definition is a node
+ * with the id of its short name and a sorted array of the name ids its body references. Edges are resolved through
+ * the names: the callees of a node are the definitions named like one of its references, and its callers are the
+ * nodes referencing its name. Adjacency is kept in primitive int arrays indexed by name id, so a neighbour query
+ * touches a few arrays and a file can be replaced without rebuilding anything else. A reference resolves to the
+ * definitions of that name in the file of the referencing definition, else to those in the files it imports, else to
+ * the only definition of that name in the project; a common name such as {@code get} defined in several unrelated
+ * files resolves to nothing rather than to all of them.
+ */
+public class CallGraph {
+    private static final int MAGIC = 0x43474932;
+
+    private final Map<String, Integer> nameIds = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+    private final Map<String, Integer> nodeIds = new HashMap<>();
+    private final Map<String, FileEntry> files = new HashMap<>();
+    private String[] nodeKeys = new String[64];
+    private String[] nodePaths = new String[64];
+    private int[] nodeNames = new int[64];
+    private int[][] nodeReferences = new int[64][];
+    private IntList[] definitionsByName = new IntList[64];
+    private IntList[] referencesByName = new IntList[64];
+    private final IntList freeNodes = new IntList();
+    private int nodeCount = 0;
+
+    /**
+     * Replaces the definitions of a file that imports no other file of the project.
+     *
+     * @param path        The path of the file.
+     * @param stamp       The modification stamp of the indexed version of the file.
+     * @param definitions The definitions of the file.
+     */
+    public synchronized void replaceFile(String path, long stamp, List<Definition> definitions) {
+        replaceFile(path, stamp, definitions, List.of());
+    }
+
+    /**
+     * Replaces the definitions of a file.
+     *
+     * @param path          The path of the file.
+     * @param stamp         The modification stamp of the indexed version of the file.
+     * @param definitions   The definitions of the file.
+     * @param importedPaths The paths of the project files the file imports.
+     */
+    public synchronized void replaceFile(String path, long stamp, List<Definition> definitions, List<String> importedPaths) {
+        removeFile(path);
+        int[] fileNodes = new int[definitions.size()];
+        int count = 0;
+        for (Definition definition : definitions) {
+            if (nodeIds.containsKey(definition.key)) {
+                continue;
+            }
+            fileNodes[count++] = addNode(path, definition);
+        }
+        files.put(path, new FileEntry(stamp, Arrays.copyOf(fileNodes, count), Set.copyOf(importedPaths)));
+    }
+
+    /**
+     * Removes the definitions of a file.
+     *
+     * @param path The path of the file.
+     */
+    public synchronized void removeFile(String path) {
+        FileEntry entry = files.remove(path);
+        if (entry == null) {
+            return;
+        }
+        for (int node : entry.nodes) {
+            removeNode(node);
+        }
+    }
+
+    /**
+     * Gets the modification stamp of the indexed version of a file.
+     *
+     * @param path The path of the file.
+     * @return The stamp, or -1 if the file is not indexed.
+     */
+    public synchronized long getStamp(String path) {
+        FileEntry entry = files.get(path);
+        return entry == null ? -1 : entry.stamp;
+    }
+
+    /**
+     * Gets the paths of the indexed files.
+     *
+     * @return A copy of the set of paths.
+     */
+    public synchronized Set<String> getFiles() {
+        return Set.copyOf(files.keySet());
+    }
+
+    /**
+     * Gets the definitions referenced by a definition.
+     *
+     * @param key   The key of the definition.
+     * @param limit The maximum number of keys returned.
+     * @return The keys of the referenced definitions.
+     */
+    public synchronized List<String> callees(String key, int limit) {
+        List<String> callees = new ArrayList<>();
+        Integer node = nodeIds.get(key);
+        if (node == null) {
+            return callees;
+        }
+        IntList resolved = new IntList();
+        for (int name : nodeReferences[node]) {
+            resolve(node, name, resolved);
+            for (int i = 0; i < resolved.size && callees.size() < limit; i++) {
+                callees.add(nodeKeys[resolved.values[i]]);
+            }
+        }
+        return callees;
+    }
+
+    /**
+     * Gets the definitions referencing a definition by its name.
+     *
+     * @param key   The key of the definition.
+     * @param limit The maximum number of keys returned.
+     * @return The keys of the referencing definitions.
+     */
+    public synchronized List<String> callers(String key, int limit) {
+        List<String> callers = new ArrayList<>();
+        Integer node = nodeIds.get(key);
+        if (node == null) {
+            return callers;
+        }
+        IntList referencing = referencesByName[nodeNames[node]];
+        IntList resolved = new IntList();
+        for (int i = 0; referencing != null && i < referencing.size && callers.size() < limit; i++) {
+            int caller = referencing.values[i];
+            if (caller != node) {
+                resolve(caller, nodeNames[node], resolved);
+                if (resolved.contains(node)) {
+                    callers.add(nodeKeys[caller]);
+                }
+            }
+        }
+        return callers;
+    }
+
+    /**
+     * Resolves a name referenced by a definition: to the definitions of that name in the same file, else to those in
+     * the files the file imports, else to the only definition of that name in the project.
+     *
+     * @param node     The referencing definition.
+     * @param name     The referenced name.
+     * @param resolved The list receiving the resolved definitions; it is cleared first.
+     */
+    private void resolve(int node, int name, IntList resolved) {
+        resolved.size = 0;
+        IntList definitions = definitionsByName[name];
+        String path = nodePaths[node];
+        for (int i = 0; i < definitions.size; i++) {
+            int definition = definitions.values[i];
+            if (definition != node && nodePaths[definition].equals(path)) {
+                resolved.add(definition);
+            }
+        }
+        if (resolved.size > 0) {
+            return;
+        }
+        Set<String> importedPaths = files.get(path).importedPaths;
+        for (int i = 0; i < definitions.size; i++) {
+            int definition = definitions.values[i];
+            if (importedPaths.contains(nodePaths[definition])) {
+                resolved.add(definition);
+            }
+        }
+        if (resolved.size == 0 && definitions.size == 1 && definitions.values[0] != node) {
+            resolved.add(definitions.values[0]);
+        }
+    }
+
+    /**
+     * Gets the number of definitions in the graph.
+     *
+     * @return The number of nodes.
+     */
+    public synchronized int size() {
+        return nodeIds.size();
+    }
+
+    private int addNode(String path, Definition definition) {
+        int node = freeNodes.size > 0 ? freeNodes.values[--freeNodes.size] : nodeCount++;
+        if (node >= nodeKeys.length) {
+            int capacity = nodeKeys.length * 2;
+            nodeKeys = Arrays.copyOf(nodeKeys, capacity);
+            nodePaths = Arrays.copyOf(nodePaths, capacity);
+            nodeNames = Arrays.copyOf(nodeNames, capacity);
+            nodeReferences = Arrays.copyOf(nodeReferences, capacity);
+        }
+        int name = nameId(definition.name);
+        int[] references = new int[definition.references.size()];
+        int count = 0;
+        for (String reference : definition.references) {
+            references[count++] = nameId(reference);
+        }
+        Arrays.sort(references);
+        int distinct = 0;
+        for (int i = 0; i < references.length; i++) {
+            if (i == 0 || references[i] != references[i - 1]) {
+                references[distinct++] = references[i];
+            }
+        }
+        references = Arrays.copyOf(references, distinct);
+
+        nodeKeys[node] = definition.key;
+        nodePaths[node] = path;
+        nodeNames[node] = name;
+        nodeReferences[node] = references;
+        nodeIds.put(definition.key, node);
+        definitionsByName[name].add(node);
+        for (int reference : references) {
+            referencesByName[reference].add(node);
+        }
+        return node;
+    }
+
+    private void removeNode(int node) {
+        definitionsByName[nodeNames[node]].remove(node);
+        for (int reference : nodeReferences[node]) {
+            referencesByName[reference].remove(node);
+        }
+        nodeIds.remove(nodeKeys[node]);
+        nodeKeys[node] = null;
+        nodePaths[node] = null;
+        nodeReferences[node] = null;
+        freeNodes.add(node);
+    }
+
+    private int nameId(String name) {
+        Integer id = nameIds.get(name);
+        if (id != null) {
+            return id;
+        }
+        id = names.size();
+        names.add(name);
+        nameIds.put(name, id);
+        if (id >= definitionsByName.length) {
+            definitionsByName = Arrays.copyOf(definitionsByName, definitionsByName.length * 2);
+            referencesByName = Arrays.copyOf(referencesByName, referencesByName.length * 2);
+        }
+        definitionsByName[id] = new IntList();
+        referencesByName[id] = new IntList();
+        return id;
+    }
+
+    /**
+     * Writes the graph, file by file.
+     *
+     * @param output The stream to write to.
+     * @throws IOException If the graph cannot be written.
+     */
+    public synchronized void write(DataOutputStream output) throws IOException {
+        output.writeInt(MAGIC);
+        output.writeInt(files.size());
+        for (Map.Entry<String, FileEntry> file : files.entrySet()) {
+            output.writeUTF(file.getKey());
+            output.writeLong(file.getValue().stamp);
+            output.writeInt(file.getValue().importedPaths.size());
+            for (String importedPath : file.getValue().importedPaths) {
+                output.writeUTF(importedPath);
+            }
+            output.writeInt(file.getValue().nodes.length);
+            for (int node : file.getValue().nodes) {
+                output.writeUTF(nodeKeys[node]);
+                output.writeUTF(names.get(nodeNames[node]));
+                output.writeInt(nodeReferences[node].length);
+                for (int reference : nodeReferences[node]) {
+                    output.writeUTF(names.get(reference));
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a graph written by {@link #write(DataOutputStream)}.
+     *
+     * @param input The stream to read from.
+     * @return The graph.
+     * @throws IOException If the stream does not hold a graph or cannot be read.
+     */
+    public static CallGraph read(DataInputStream input) throws IOException {
+        if (input.readInt() != MAGIC) {
+            throw new IOException("Not a call graph");
+        }
+        CallGraph graph = new CallGraph();
+        int fileCount = input.readInt();
+        for (int f = 0; f < fileCount; f++) {
+            String path = input.readUTF();
+            long stamp = input.readLong();
+            int importCount = input.readInt();
+            List<String> importedPaths = new ArrayList<>(importCount);
+            for (int i = 0; i < importCount; i++) {
+                importedPaths.add(input.readUTF());
+            }
+            int definitionCount = input.readInt();
+            List<Definition> definitions = new ArrayList<>(definitionCount);
+            for (int d = 0; d < definitionCount; d++) {
+                String key = input.readUTF();
+                String name = input.readUTF();
+                int referenceCount = input.readInt();
+                List<String> references = new ArrayList<>(referenceCount);
+                for (int r = 0; r < referenceCount; r++) {
+                    references.add(input.readUTF());
+                }
+                definitions.add(new Definition(key, name, references));
+            }
+            graph.replaceFile(path, stamp, definitions, importedPaths);
+        }
+        return graph;
+    }
+
+    /**
+     * A definition to add to the graph: a function, class or global of a file.
+     */
+    public static class Definition {
+        final String key;
+        final String name;
+        final List<String> references;
+
+        /**
+         * Constructs a Definition.
+         *
+         * @param key        The key of the definition, unique in the project.
+         * @param name       The short name under which the definition is referenced.
+         * @param references The names referenced by the definition.
+         */
+        public Definition(String key, String name, List<String> references) {
+            this.key = key;
+            this.name = name;
+            this.references = references;
+        }
+    }
+
+    private static class FileEntry {
+        final long stamp;
+        final int[] nodes;
+        final Set<String> importedPaths;
+
+        FileEntry(long stamp, int[] nodes, Set<String> importedPaths) {
+            this.stamp = stamp;
+            this.nodes = nodes;
+            this.importedPaths = importedPaths;
+        }
+    }
+
+    /**
+     * A growable list of ints with unordered removal.
+     */
+    private static class IntList {
+        int[] values = new int[2];
+        int size = 0;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        boolean contains(int value) {
+            for (int i = 0; i < size; i++) {
+                if (values[i] == value) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void remove(int value) {
+            for (int i = 0; i < size; i++) {
+                if (values[i] == value) {
+                    values[i] = values[--size];
+                    return;
+                }
+            }
+        }
+    }
+}
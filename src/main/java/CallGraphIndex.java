@@ -0,0 +1,279 @@
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.search.FileTypeIndex;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.jetbrains.python.PythonFileType;
+import com.jetbrains.python.psi.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A project-level {@link CallGraph} of the Python functions, classes and globals of a project. The graph is saved to
+ * the IDE system directory every few minutes while it changes and when the project closes, and loaded again on first
+ * use, so only files modified in the meantime are indexed again, even after the IDE was killed. Files indexed from
+ * unsaved changes are saved without a stamp, so they are always indexed again. While the project is open, the files
+ * reported by PSI change events are re-indexed one by one before the next query.
+ */
+public class CallGraphIndex implements Disposable {
+    private static final Logger LOG = Logger.getInstance(CallGraphIndex.class);
+    private static final long SAVE_INTERVAL_MINUTES = 5;
+
+    private final Project project;
+    private final Path path;
+    private volatile CallGraph graph = new CallGraph();
+    private final Set<VirtualFile> dirtyFiles = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean buildStarted = new AtomicBoolean();
+    private volatile boolean built = false;
+    private final CompletableFuture<Void> ready = new CompletableFuture<>();
+    private final AtomicBoolean unsaved = new AtomicBoolean();
+    private final ScheduledFuture<?> periodicSave;
+
+    /**
+     * Constructs a CallGraphIndex and starts listening for PSI changes.
+     *
+     * @param project The project whose definitions are indexed.
+     */
+    public CallGraphIndex(Project project) {
+        this.project = project;
+        this.path = Path.of(PathManager.getSystemPath(), "explain-method", "callgraph", project.getLocationHash() + ".bin");
+        PythonFileChangeTracker.subscribe(project, (file, event) -> dirtyFiles.add(file.getVirtualFile()), this);
+        periodicSave = AppExecutorUtil.getAppScheduledExecutorService().scheduleWithFixedDelay(
+                this::saveIfChanged, SAVE_INTERVAL_MINUTES, SAVE_INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Gets the definitions a function references, e.g. the functions it calls. Must be called within a read action.
+     * Returns nothing until the graph, loaded or built by the first call, is ready.
+     *
+     * @param function The Python function.
+     * @param limit    The maximum number of keys returned.
+     * @return The keys of the referenced definitions.
+     */
+    public List<String> callees(PyFunction function, int limit) {
+        return isReady() ? graph.callees(ExplanationCache.keyFor(function), limit) : new ArrayList<>();
+    }
+
+    /**
+     * Gets the definitions referencing a function. Must be called within a read action. Returns nothing until the
+     * graph, loaded or built by the first call, is ready.
+     *
+     * @param function The Python function.
+     * @param limit    The maximum number of keys returned.
+     * @return The keys of the referencing definitions.
+     */
+    public List<String> callers(PyFunction function, int limit) {
+        return isReady() ? graph.callers(ExplanationCache.keyFor(function), limit) : new ArrayList<>();
+    }
+
+    /**
+     * Checks whether the graph is ready, starting to load or build it if needed, and brings the files changed since
+     * the last query up to date.
+     *
+     * @return true if the graph can be queried, false otherwise.
+     */
+    private boolean isReady() {
+        if (!built) {
+            startBuild();
+            return false;
+        }
+        for (VirtualFile file : new ArrayList<>(dirtyFiles)) {
+            dirtyFiles.remove(file);
+            indexFile(file);
+        }
+        return true;
+    }
+
+    /**
+     * Starts loading the graph on a pooled thread ahead of the first query, e.g. after the project is opened.
+     *
+     * @return A future completed once the graph is ready.
+     */
+    public CompletableFuture<Void> warmUp() {
+        startBuild();
+        return ready;
+    }
+
+    /**
+     * Loads the saved graph and brings it up to date on a pooled thread: files modified on disk since the graph was
+     * saved are indexed again and files no longer in the project are removed.
+     */
+    private void startBuild() {
+        if (!buildStarted.compareAndSet(false, true)) {
+            return;
+        }
+        ApplicationManager.getApplication().executeOnPooledThread(() -> {
+            long start = System.currentTimeMillis();
+            CallGraph loaded = load();
+            if (loaded != null) {
+                graph = loaded;
+            }
+            List<VirtualFile> files = ReadAction.compute(() ->
+                    new ArrayList<>(FileTypeIndex.getFiles(PythonFileType.INSTANCE, GlobalSearchScope.projectScope(project))));
+            Set<String> stalePaths = new HashSet<>(graph.getFiles());
+            int indexed = 0;
+            for (VirtualFile file : files) {
+                if (project.isDisposed()) {
+                    return;
+                }
+                stalePaths.remove(file.getPath());
+                if (graph.getStamp(file.getPath()) != file.getTimeStamp()) {
+                    ReadAction.run(() -> indexFile(file));
+                    indexed++;
+                }
+            }
+            for (String stalePath : stalePaths) {
+                graph.removeFile(stalePath);
+            }
+            built = true;
+            unsaved.set(true);
+            ready.complete(null);
+            LOG.info("Call graph of " + project.getName() + " ready with " + graph.size() + " definitions, "
+                    + indexed + " files indexed, in " + (System.currentTimeMillis() - start) + " ms");
+        });
+    }
+
+    /**
+     * Replaces the definitions of a file in the graph with its current ones.
+     *
+     * @param file The file to index.
+     */
+    private void indexFile(VirtualFile file) {
+        PsiFile psiFile = file.isValid() ? PsiManager.getInstance(project).findFile(file) : null;
+        if (!(psiFile instanceof PyFile pyFile)) {
+            graph.removeFile(file.getPath());
+            return;
+        }
+
+        List<CallGraph.Definition> definitions = new ArrayList<>();
+        for (PyFunction function : PsiTreeUtil.findChildrenOfType(pyFile, PyFunction.class)) {
+            if (function.getName() != null) {
+                definitions.add(new CallGraph.Definition(ExplanationCache.keyFor(function), function.getName(), collectReferences(function)));
+            }
+        }
+        for (PyClass pyClass : PsiTreeUtil.findChildrenOfType(pyFile, PyClass.class)) {
+            if (pyClass.getName() != null) {
+                String name = pyClass.getQualifiedName() != null ? pyClass.getQualifiedName() : pyClass.getName();
+                definitions.add(new CallGraph.Definition(file.getPath() + "#" + name, pyClass.getName(), List.of()));
+            }
+        }
+        for (PyTargetExpression global : pyFile.getTopLevelAttributes()) {
+            if (global.getName() != null) {
+                definitions.add(new CallGraph.Definition(file.getPath() + "#" + global.getName(), global.getName(), List.of()));
+            }
+        }
+        long stamp = FileDocumentManager.getInstance().isFileModified(file) ? -1 : file.getTimeStamp();
+        graph.replaceFile(file.getPath(), stamp, definitions, collectImportedPaths(pyFile));
+        unsaved.set(true);
+    }
+
+    /**
+     * Collects the paths of the files imported by a file, so references to imported names resolve to their
+     * definitions rather than to every definition of the same name.
+     *
+     * @param pyFile The Python file.
+     * @return The paths of the imported files that could be resolved.
+     */
+    private static List<String> collectImportedPaths(PyFile pyFile) {
+        Set<String> paths = new LinkedHashSet<>();
+        for (PyFromImportStatement fromImport : pyFile.getFromImports()) {
+            addPath(fromImport.resolveImportSource(), paths);
+        }
+        for (PyImportElement importElement : pyFile.getImportTargets()) {
+            addPath(importElement.resolve(), paths);
+        }
+        return new ArrayList<>(paths);
+    }
+
+    private static void addPath(PsiElement element, Set<String> paths) {
+        if (element instanceof PyFile importedFile && importedFile.getVirtualFile() != null) {
+            paths.add(importedFile.getVirtualFile().getPath());
+        }
+    }
+
+    private static List<String> collectReferences(PyFunction function) {
+        Set<String> references = new LinkedHashSet<>();
+        for (PyReferenceExpression reference : PsiTreeUtil.findChildrenOfType(function, PyReferenceExpression.class)) {
+            String name = reference.getReferencedName();
+            if (name != null) {
+                references.add(name);
+            }
+        }
+        return new ArrayList<>(references);
+    }
+
+    /**
+     * Loads the graph saved when the project was last closed.
+     *
+     * @return The saved graph, or null if there is none or it cannot be read.
+     */
+    private CallGraph load() {
+        if (!Files.exists(path)) {
+            return null;
+        }
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            return CallGraph.read(input);
+        } catch (IOException e) {
+            LOG.warn("Could not load the saved call graph, rebuilding it: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Saves the graph if it changed since it was last saved.
+     */
+    private void saveIfChanged() {
+        if (built && unsaved.getAndSet(false)) {
+            save();
+        }
+    }
+
+    /**
+     * Saves the graph, replacing the previously saved one atomically.
+     */
+    private synchronized void save() {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(path.getParent());
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                graph.write(output);
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.warn("Could not save the call graph: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void dispose() {
+        periodicSave.cancel(false);
+        saveIfChanged();
+    }
+}
@@ -3,20 +3,39 @@ import com.intellij.ide.passwordSafe.PasswordSafe;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import com.intellij.openapi.diagnostic.Logger;
 import javax.swing.JOptionPane;
+import java.awt.GraphicsEnvironment;
 
 
 public class ChatGPTApiClient {
     private static final String API_URL = "https://api.openai.com/v1/chat/completions";
     private static final Logger LOG = Logger.getInstance(ChatGPTApiClient.class);
     private static final String SERVICE_NAME = "ChatGPTApiClientService";
+    static final String RECORD_PROPERTY = "explain.traffic.record";
+    static final String REPLAY_PROPERTY = "explain.traffic.replay";
+    static final String REPLAY_REALTIME_PROPERTY = "explain.traffic.replay.realtime";
+    private static final String MODEL = "gpt-4";
+    private static final String FALLBACK_MODEL = "gpt-3.5-turbo";
+    private static final long REQUEST_DEADLINE_MS = 90_000;
+    private static final int BREAKER_WINDOW = 20;
+    private static final int BREAKER_FAILURE_THRESHOLD = 5;
+    private static final long BREAKER_OPEN_MS = 30_000;
+    private static final String BATCH_API_URL = "https://api.openai.com/v1/";
+    static final String BATCH_URL_PROPERTY = "explain.batch.url";
+    private static final long BATCH_POLL_INTERVAL_MS = 60_000;
     private static HttpClient httpClient;
     private static PasswordSafe passwordSafe;
+    private static LlmTransport transport;
+    private static Predicate<String> hedgeBudget = requestBody -> false;
 
     /**
      * Sets the PasswordSafe instance to be used for storing and retrieving API keys.
@@ -60,6 +79,106 @@ public class ChatGPTApiClient {
         return httpClient;
     }
 
+    /**
+     * Sets the transport carrying requests to the API, e.g. a {@link ReplayTransport} for tests.
+     *
+     * @param llmTransport The transport, or null to use the default one.
+     */
+    public static void setTransport(LlmTransport llmTransport) {
+        transport = llmTransport;
+    }
+
+    /**
+     * Sets the budget deciding whether a slow request may be duplicated. The predicate is given the request body
+     * and must reserve the tokens of the duplicate if it allows it. Without a budget, requests are never duplicated.
+     *
+     * @param budget The hedging budget.
+     */
+    public static void setHedgeBudget(Predicate<String> budget) {
+        hedgeBudget = budget;
+    }
+
+    /**
+     * Gets the transport carrying requests to the API. If none is set, it is created from the system properties:
+     * {@value #REPLAY_PROPERTY} replays a traffic archive, at full speed unless {@value #REPLAY_REALTIME_PROPERTY}
+     * is true, and {@value #RECORD_PROPERTY} records real traffic to an archive. Otherwise requests go over HTTP.
+     * Real traffic is hedged and guarded by a circuit breaker, falling back to {@value #FALLBACK_MODEL} while
+     * the primary model is failing. Requests to either model, streamed or not, are abandoned after
+     * {@value #REQUEST_DEADLINE_MS} ms.
+     *
+     * @return The transport.
+     * @throws IOException If the archive to replay cannot be read.
+     */
+    private static LlmTransport getTransport() throws IOException {
+        if (transport == null) {
+            LlmTransport http = new HttpClientTransport(URI.create(API_URL), ChatGPTApiClient::getHttpClient);
+            String replay = System.getProperty(REPLAY_PROPERTY);
+            String record = System.getProperty(RECORD_PROPERTY);
+            if (replay != null) {
+                transport = new ReplayTransport(Path.of(replay), Boolean.getBoolean(REPLAY_REALTIME_PROPERTY));
+            } else if (record != null) {
+                transport = new RecordingTransport(createResilientTransport(http), Path.of(record));
+            } else {
+                transport = createResilientTransport(http);
+            }
+        }
+        return transport;
+    }
+
+    /**
+     * Wraps a transport with hedging of slow requests and a circuit breaker switching to a cheaper model on the same
+     * endpoint while the primary model is failing. The fallback is not hedged, but has the same deadline.
+     *
+     * @param http The transport sending requests over HTTP.
+     * @return The composed transport.
+     */
+    private static LlmTransport createResilientTransport(LlmTransport http) {
+        LlmTransport hedged = new HedgingTransport(http, AppExecutorUtil.getAppExecutorService(),
+                requestBody -> hedgeBudget.test(requestBody), REQUEST_DEADLINE_MS);
+        LlmTransport fallbackModel = (requestBody, apiKey, stream) -> http.send(withModel(requestBody, FALLBACK_MODEL), apiKey, stream);
+        LlmTransport fallback = new HedgingTransport(fallbackModel, AppExecutorUtil.getAppExecutorService(),
+                requestBody -> false, REQUEST_DEADLINE_MS);
+        return new CircuitBreakerTransport(hedged, fallback,
+                new CircuitBreaker(BREAKER_WINDOW, BREAKER_FAILURE_THRESHOLD, BREAKER_OPEN_MS));
+    }
+
+    /**
+     * Creates a transport answering prompts through the Batch API rather than one request at a time. The base URL
+     * can be overridden with the {@value #BATCH_URL_PROPERTY} system property, e.g. to use a local stand-in.
+     *
+     * @return The batch transport.
+     */
+    public static BatchTransport createBatchTransport() {
+        URI baseUri = URI.create(System.getProperty(BATCH_URL_PROPERTY, BATCH_API_URL));
+        return new BatchTransport(baseUri, getHttpClient(), ChatGPTApiClient::requireApiKey, BATCH_POLL_INTERVAL_MS);
+    }
+
+    /**
+     * Replaces the model of a request body.
+     *
+     * @param requestBody The JSON request body.
+     * @param model       The model to use instead.
+     * @return The modified request body.
+     */
+    static String withModel(String requestBody, String model) {
+        return new JSONObject(requestBody).put("model", model).toString();
+    }
+
+    /**
+     * Sends a request body through the transport, supplying the API key if the transport needs one.
+     *
+     * @param requestBody The JSON request body.
+     * @param stream      Whether the response is streamed.
+     * @return The response.
+     * @throws IOException          If an I/O error occurs during the request.
+     * @throws InterruptedException If the request is interrupted.
+     */
+    private static LlmTransport.Response send(String requestBody, boolean stream) throws IOException, InterruptedException {
+        LlmTransport llmTransport = getTransport();
+        String apiKey = llmTransport.requiresApiKey() ? requireApiKey() : "";
+        return llmTransport.send(requestBody, apiKey, stream);
+    }
+
     /**
      * Gets an explanation from the Language Model for the given prompt using the ChatGPT API.
      *
@@ -70,6 +189,164 @@ public class ChatGPTApiClient {
      * @throws InterruptedException If the HTTP request is interrupted.
      */
     public static String getExplanationFromLLM(String prompt, TokenTracker tokenTracker) throws IOException, InterruptedException {
+        return getExplanationFromLLM(prompt, (UsageListener) tokenTracker::recordTokenUsage);
+    }
+
+    /**
+     * Gets an explanation from the Language Model for the given prompt using the ChatGPT API, reporting the tokens
+     * the request used and the model that answered it to the given listener.
+     *
+     * @param prompt  The prompt for which an explanation is requested.
+     * @param onUsage The listener receiving the usage of the request.
+     * @return The explanation as a String.
+     * @throws IOException          If an I/O error occurs during the HTTP request.
+     * @throws InterruptedException If the HTTP request is interrupted.
+     */
+    public static String getExplanationFromLLM(String prompt, UsageListener onUsage) throws IOException, InterruptedException {
+        String requestBody = createRequestBody(prompt);
+
+        try (LlmTransport.Response response = send(requestBody, false)) {
+            String body = response.body();
+            if (response.statusCode() == 200) {
+                LOG.warn(response.statusCode() + " " + body);
+                updateTokenUsage(body, onUsage);
+                return formatResponse(body);
+            } else {
+                String errorMessage = "Received non-200 response from ChatGPT API: " + body;
+                LOG.error(errorMessage);
+                throw new IOException(errorMessage);
+            }
+        }
+    }
+
+    /**
+     * Gets an explanation from the Language Model as a stream, passing each piece of the answer to the given
+     * consumer as soon as it arrives.
+     *
+     * @param prompt       The prompt for which an explanation is requested.
+     * @param tokenTracker A TokenTracker instance to record token usage.
+     * @param onDelta      The consumer receiving the pieces of the answer, in order.
+     * @return The complete explanation as a String.
+     * @throws IOException          If an I/O error occurs during the HTTP request.
+     * @throws InterruptedException If the HTTP request is interrupted.
+     */
+    public static String streamExplanationFromLLM(String prompt, TokenTracker tokenTracker, Consumer<String> onDelta) throws IOException, InterruptedException {
+        return streamExplanationFromLLM(prompt, (UsageListener) tokenTracker::recordTokenUsage, onDelta);
+    }
+
+    /**
+     * Gets an explanation from the Language Model as a stream, reporting the tokens the request used and the model
+     * that answered it to the given listener.
+     *
+     * @param prompt  The prompt for which an explanation is requested.
+     * @param onUsage The listener receiving the usage of the request.
+     * @param onDelta The consumer receiving the pieces of the answer, in order.
+     * @return The complete explanation as a String.
+     * @throws IOException          If an I/O error occurs during the HTTP request.
+     * @throws InterruptedException If the HTTP request is interrupted.
+     */
+    public static String streamExplanationFromLLM(String prompt, UsageListener onUsage, Consumer<String> onDelta) throws IOException, InterruptedException {
+        String requestBody = createRequestBody(prompt, true);
+
+        StringBuilder content = new StringBuilder();
+        boolean usageRecorded = false;
+        boolean modelReported = false;
+        try (LlmTransport.Response response = send(requestBody, true)) {
+            if (response.statusCode() != 200) {
+                String errorMessage = "Received non-200 response from ChatGPT API: " + response.body();
+                LOG.error(errorMessage);
+                throw new IOException(errorMessage);
+            }
+
+            Iterator<String> iterator = response.lines();
+            while (hasNextLine(iterator)) {
+                String line = iterator.next();
+                if (!line.startsWith("data:")) {
+                    continue;
+                }
+                String data = line.substring("data:".length()).trim();
+                if (data.equals("[DONE]")) {
+                    break;
+                }
+                JSONObject chunk = new JSONObject(data);
+                if (!modelReported && chunk.has("model")) {
+                    onUsage.answeredBy(chunk.getString("model"));
+                    modelReported = true;
+                }
+                JSONObject usage = chunk.optJSONObject("usage");
+                if (usage != null) {
+                    onUsage.tokensUsed(usage.getInt("total_tokens"));
+                    usageRecorded = true;
+                }
+                String delta = parseStreamDelta(chunk).replace("\\n", "\n");
+                if (!delta.isEmpty()) {
+                    content.append(delta);
+                    onDelta.accept(delta);
+                }
+            }
+        }
+        if (!usageRecorded) {
+            onUsage.tokensUsed(CodeCompressor.estimateTokenCount(prompt) + CodeCompressor.estimateTokenCount(content.toString()));
+        }
+        return content.toString();
+    }
+
+    /**
+     * Checks whether a streamed response has another line, reporting a failure to read it, e.g. because the answer
+     * did not complete within the deadline, as the IOException it wraps.
+     *
+     * @param lines The lines of the response.
+     * @return true if there is another line, false otherwise.
+     * @throws IOException If the next line cannot be read.
+     */
+    private static boolean hasNextLine(Iterator<String> lines) throws IOException {
+        try {
+            return lines.hasNext();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Extracts the piece of the answer carried by a single chunk of a streamed response.
+     *
+     * @param chunk The parsed "data:" payload of the chunk.
+     * @return The content of the chunk, or an empty String if it carries none.
+     */
+    static String parseStreamDelta(JSONObject chunk) {
+        JSONArray choices = chunk.optJSONArray("choices");
+        if (choices == null || choices.isEmpty()) {
+            return "";
+        }
+        JSONObject delta = choices.getJSONObject(0).optJSONObject("delta");
+        return delta == null ? "" : delta.optString("content", "");
+    }
+
+    /**
+     * Checks whether a request can be sent without asking the user for an API key, i.e. whether the transport needs
+     * none or one is already stored. Requests the user did not ask for must check this first, since asking for a key
+     * opens a dialog.
+     *
+     * @return true if a request can be sent without prompting, false otherwise or if the transport cannot be created.
+     */
+    public static boolean canSendWithoutPrompt() {
+        try {
+            if (!getTransport().requiresApiKey()) {
+                return true;
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        String apiKey = getApiKey();
+        return apiKey != null && !apiKey.isEmpty();
+    }
+
+    /**
+     * Gets the stored API key, prompting the user for one if none is stored yet.
+     *
+     * @return The API key.
+     */
+    private static String requireApiKey() {
         String apiKey = getApiKey();
         if (apiKey == null || apiKey.isEmpty()) {
             apiKey = promptUserForApiKey();
@@ -78,26 +355,7 @@ public class ChatGPTApiClient {
             }
             saveApiKey(apiKey);
         }
-
-        String requestBody = createRequestBody(prompt);
-        HttpClient client = getHttpClient();
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(API_URL))
-                .header("Content-Type", "application/json")
-                .header("Authorization", "Bearer " + apiKey)
-                .POST(HttpRequest.BodyPublishers.ofString(requestBody))
-                .build();
-
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-        if (response.statusCode() == 200) {
-            LOG.warn(response.statusCode() + " " + response.body());
-            updateTokenUsage(response.body(), tokenTracker);
-            return formatResponse(response.body());
-        } else {
-            String errorMessage = "Received non-200 response from ChatGPT API: " + response.body();
-            LOG.error(errorMessage);
-            throw new IOException(errorMessage);
-        }
+        return apiKey;
     }
 
      /**
@@ -107,11 +365,57 @@ public class ChatGPTApiClient {
      * @param tokenTracker   A TokenTracker instance to record token usage.
      */
     static void updateTokenUsage(String jsonResponse, TokenTracker tokenTracker) {
+        updateTokenUsage(jsonResponse, (UsageListener) tokenTracker::recordTokenUsage);
+    }
+
+    /**
+     * Reports the token usage of a JSON response from the ChatGPT API and the model that answered, if the response
+     * carries them.
+     *
+     * @param jsonResponse The JSON response from the ChatGPT API.
+     * @param onUsage      The listener receiving the usage of the request.
+     */
+    static void updateTokenUsage(String jsonResponse, UsageListener onUsage) {
         JSONObject responseObject = new JSONObject(jsonResponse);
+        if (responseObject.has("model")) {
+            onUsage.answeredBy(responseObject.getString("model"));
+        }
         if (responseObject.has("usage")) {
             JSONObject usage = responseObject.getJSONObject("usage");
             int totalTokens = usage.getInt("total_tokens");
-            tokenTracker.recordTokenUsage(totalTokens);
+            onUsage.tokensUsed(totalTokens);
+        }
+    }
+
+    /**
+     * Checks whether a response was answered by the model requests are addressed to, rather than by the fallback
+     * model used while that one is failing. Responses naming no model are taken to come from the requested one.
+     *
+     * @param answeringModel The model named by the response, e.g. "gpt-4-0613", or null if it names none.
+     * @return true if the primary model answered, false otherwise.
+     */
+    public static boolean isPrimaryModel(String answeringModel) {
+        return answeringModel == null || answeringModel.equals(MODEL) || answeringModel.startsWith(MODEL + "-");
+    }
+
+    /**
+     * Receives the usage of a request once its response has been read.
+     */
+    @FunctionalInterface
+    public interface UsageListener {
+        /**
+         * Receives the number of tokens the request used, as reported by the API or estimated if it reports none.
+         *
+         * @param tokenCount The number of tokens.
+         */
+        void tokensUsed(int tokenCount);
+
+        /**
+         * Receives the model that answered the request, if the response names it.
+         *
+         * @param model The name of the model, e.g. "gpt-4-0613".
+         */
+        default void answeredBy(String model) {
         }
     }
 
@@ -145,11 +449,14 @@ public class ChatGPTApiClient {
     }
 
     /**
-     * Prompts the user to enter their OpenAI API key.
+     * Prompts the user to enter their OpenAI API key. No prompt is shown when running headless.
      *
-     * @return The user-entered API key as a String.
+     * @return The user-entered API key as a String, or null if running headless.
      */
     private static String promptUserForApiKey() {
+        if (GraphicsEnvironment.isHeadless()) {
+            return null;
+        }
         return JOptionPane.showInputDialog("Enter OpenAI API Key:");
     }
 
@@ -181,6 +488,18 @@ public class ChatGPTApiClient {
      * @return The JSON request body as a String.
      */
     static String createRequestBody(String prompt) {
+        return createRequestBody(prompt, false);
+    }
+
+    /**
+     * Creates a JSON request body for sending a prompt to the ChatGPT API, optionally as a streamed request.
+     * Streamed requests ask for the token usage to be reported in the last chunk.
+     *
+     * @param prompt The prompt to be sent to the API.
+     * @param stream Whether the answer should be streamed.
+     * @return The JSON request body as a String.
+     */
+    static String createRequestBody(String prompt, boolean stream) {
         JSONObject userMessage = new JSONObject();
         userMessage.put("role", "user");
         userMessage.put("content", prompt);
@@ -189,15 +508,18 @@ public class ChatGPTApiClient {
         messages.put(userMessage);
 
         JSONObject data = new JSONObject();
-        data.put("model", "gpt-4");
+        data.put("model", MODEL);
         data.put("messages", messages);
         data.put("temperature", 1);
         data.put("top_p", 1);
         data.put("n", 1);
-        data.put("stream", false);
+        data.put("stream", stream);
         data.put("max_tokens", 1000);
         data.put("presence_penalty", 0);
         data.put("frequency_penalty", 0);
+        if (stream) {
+            data.put("stream_options", new JSONObject().put("include_usage", true));
+        }
 
         return data.toString();
     }
@@ -0,0 +1,125 @@
+import java.util.Arrays;
+import java.util.function.LongSupplier;
+
+/**
+ * Tracks the outcomes of recent requests to an endpoint and stops sending requests to it once too many of them fail.
+ * After a cool-down period a single trial request is let through; if it succeeds the endpoint is used again, otherwise
+ * the breaker stays open for another period.
+ */
+public class CircuitBreaker {
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final boolean[] outcomes;
+    private final int failureThreshold;
+    private final long openMs;
+    private final LongSupplier clock;
+    private State state = State.CLOSED;
+    private int recorded = 0;
+    private int next = 0;
+    private int failures = 0;
+    private long openedAt = 0;
+
+    /**
+     * Constructs a CircuitBreaker.
+     *
+     * @param windowSize       The number of most recent requests considered.
+     * @param failureThreshold The number of failures among them that opens the breaker.
+     * @param openMs           How long the breaker stays open before a trial request, in milliseconds.
+     */
+    public CircuitBreaker(int windowSize, int failureThreshold, long openMs) {
+        this(windowSize, failureThreshold, openMs, System::currentTimeMillis);
+    }
+
+    CircuitBreaker(int windowSize, int failureThreshold, long openMs, LongSupplier clock) {
+        this.outcomes = new boolean[windowSize];
+        this.failureThreshold = failureThreshold;
+        this.openMs = openMs;
+        this.clock = clock;
+    }
+
+    /**
+     * Checks whether a request may be sent to the endpoint. Once the cool-down has passed, the first caller is let
+     * through as the trial request and must report its outcome.
+     *
+     * @return true if the request may be sent, false if it should fail fast or use a fallback.
+     */
+    public synchronized boolean allowRequest() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        if (state == State.OPEN && clock.getAsLong() - openedAt >= openMs) {
+            state = State.HALF_OPEN;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records a successful request.
+     */
+    public synchronized void recordSuccess() {
+        if (state == State.HALF_OPEN) {
+            reset(State.CLOSED);
+            return;
+        }
+        recordOutcome(false);
+    }
+
+    /**
+     * Records a failed request, opening the breaker if the failure threshold is reached.
+     */
+    public synchronized void recordFailure() {
+        if (state == State.HALF_OPEN) {
+            reset(State.OPEN);
+            return;
+        }
+        recordOutcome(true);
+        if (state == State.CLOSED && failures >= failureThreshold) {
+            reset(State.OPEN);
+        }
+    }
+
+    /**
+     * Records a request that ended without an outcome, e.g. because it was interrupted. A trial request ending this
+     * way tells nothing about the endpoint, so the breaker opens again and lets the next request through as the trial.
+     */
+    public synchronized void recordAbandoned() {
+        if (state == State.HALF_OPEN) {
+            state = State.OPEN;
+        }
+    }
+
+    /**
+     * Gets the time until a trial request will be let through.
+     *
+     * @return The remaining cool-down in milliseconds, or 0 if requests are allowed.
+     */
+    public synchronized long getRetryAfterMs() {
+        return state == State.OPEN ? Math.max(0, openedAt + openMs - clock.getAsLong()) : 0;
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    private void recordOutcome(boolean failed) {
+        if (recorded == outcomes.length && outcomes[next]) {
+            failures--;
+        }
+        outcomes[next] = failed;
+        if (failed) {
+            failures++;
+        }
+        next = (next + 1) % outcomes.length;
+        recorded = Math.min(recorded + 1, outcomes.length);
+    }
+
+    private void reset(State newState) {
+        state = newState;
+        openedAt = clock.getAsLong();
+        recorded = 0;
+        next = 0;
+        failures = 0;
+        Arrays.fill(outcomes, false);
+    }
+}
@@ -0,0 +1,75 @@
+import com.intellij.openapi.diagnostic.Logger;
+
+import java.io.IOException;
+
+/**
+ * Guards a transport with a {@link CircuitBreaker}. Failed requests, server errors and rate limiting count as
+ * failures. Requests ending otherwise, e.g. interrupted ones, are recorded as abandoned, so a trial request always
+ * reports back to the breaker. While the breaker is open, requests go to the fallback transport if there is one,
+ * and otherwise fail immediately instead of waiting on a degraded endpoint.
+ */
+public class CircuitBreakerTransport implements LlmTransport {
+    private static final Logger LOG = Logger.getInstance(CircuitBreakerTransport.class);
+    private static final int STATUS_TOO_MANY_REQUESTS = 429;
+    private static final int STATUS_SERVER_ERROR = 500;
+
+    private final LlmTransport primary;
+    private final LlmTransport fallback;
+    private final CircuitBreaker breaker;
+
+    /**
+     * Constructs a CircuitBreakerTransport.
+     *
+     * @param primary  The transport normally used.
+     * @param fallback The transport used while the primary one is failing, or null to fail fast instead.
+     * @param breaker  The circuit breaker tracking the primary transport.
+     */
+    public CircuitBreakerTransport(LlmTransport primary, LlmTransport fallback, CircuitBreaker breaker) {
+        this.primary = primary;
+        this.fallback = fallback;
+        this.breaker = breaker;
+    }
+
+    @Override
+    public Response send(String requestBody, String apiKey, boolean stream) throws IOException, InterruptedException {
+        if (!breaker.allowRequest()) {
+            return sendToFallback(requestBody, apiKey, stream,
+                    new IOException("The API is failing; requests are paused for " + (breaker.getRetryAfterMs() + 999) / 1000 + " seconds."));
+        }
+
+        Response response;
+        try {
+            response = primary.send(requestBody, apiKey, stream);
+        } catch (IOException e) {
+            breaker.recordFailure();
+            return sendToFallback(requestBody, apiKey, stream, e);
+        } catch (InterruptedException | RuntimeException | Error e) {
+            breaker.recordAbandoned();
+            throw e;
+        }
+
+        if (response.statusCode() >= STATUS_SERVER_ERROR || response.statusCode() == STATUS_TOO_MANY_REQUESTS) {
+            breaker.recordFailure();
+            if (fallback != null) {
+                response.close();
+                return fallback.send(requestBody, apiKey, stream);
+            }
+        } else {
+            breaker.recordSuccess();
+        }
+        return response;
+    }
+
+    private Response sendToFallback(String requestBody, String apiKey, boolean stream, IOException failure) throws IOException, InterruptedException {
+        if (fallback == null) {
+            throw failure;
+        }
+        LOG.warn("Using the fallback backend: " + failure.getMessage());
+        return fallback.send(requestBody, apiKey, stream);
+    }
+
+    @Override
+    public boolean requiresApiKey() {
+        return primary.requiresApiKey();
+    }
+}
@@ -0,0 +1,240 @@
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.jetbrains.python.psi.*;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Plans the class context sent along with a method. Instead of the whole class, it includes the target method in
+ * full and fills the remaining token budget with the members most relevant to it, falling back to signatures for
+ * the others.
+ */
+public class ClassContextPlanner {
+    private static final int CALLEE_SCORE = 4;
+    private static final int CALLER_SCORE = 3;
+    private static final int SHARED_FIELD_SCORE = 1;
+    private static final String INDENT = "    ";
+
+    /**
+     * Builds the class context for a method within the given token budget.
+     *
+     * @param containingClass The class containing the method.
+     * @param target          The method to be explained.
+     * @param tokenBudget     The maximum number of tokens the class context may use.
+     * @return The planned class context.
+     */
+    public static String planClassContext(PyClass containingClass, PyFunction target, int tokenBudget) {
+        return planClassContext(containingClass, target, tokenBudget, true);
+    }
+
+    /**
+     * Builds the class context for a method within the given token budget, optionally reducing the method itself to
+     * its signature, e.g. when its body is sent separately in chunks.
+     *
+     * @param containingClass The class containing the method.
+     * @param target          The method to be explained.
+     * @param tokenBudget     The maximum number of tokens the class context may use.
+     * @param includeTarget   Whether the method is included in full.
+     * @return The planned class context.
+     */
+    public static String planClassContext(PyClass containingClass, PyFunction target, int tokenBudget, boolean includeTarget) {
+        String header = CodeParsingHelper.getHeader(containingClass, containingClass.getStatementList());
+        List<Member> members = new ArrayList<>();
+        for (PyStatement statement : containingClass.getStatementList().getStatements()) {
+            Member member = describeMember(statement, PsiTreeUtil.isAncestor(statement, target, false));
+            if (member.isTarget && !includeTarget) {
+                member = new Member(member.name, member.signature, member.signature, member.selfReferences, true);
+            }
+            members.add(member);
+        }
+        return plan(header, members, tokenBudget);
+    }
+
+    /**
+     * Describes a class member by its text, signature and the attributes it references through self or cls.
+     * The text of the member is a view of the file contents, copied only if the member is included in full.
+     *
+     * @param statement The class-level statement.
+     * @param isTarget  Whether the statement is, or encloses, the method to be explained.
+     * @return The member description.
+     */
+    private static Member describeMember(PyStatement statement, boolean isTarget) {
+        String name = null;
+        String signature;
+        if (statement instanceof PyFunction function) {
+            name = function.getName();
+            signature = CodeParsingHelper.getHeader(function, function.getStatementList()) + " ...";
+        } else if (statement instanceof PyClass nestedClass) {
+            name = nestedClass.getName();
+            signature = CodeParsingHelper.getHeader(nestedClass, nestedClass.getStatementList()) + " ...";
+        } else {
+            if (statement instanceof PyAssignmentStatement assignment && assignment.getTargets().length > 0) {
+                name = assignment.getTargets()[0].getName();
+            }
+            signature = firstLine(CodeParsingHelper.textOf(statement));
+        }
+        return new Member(name, CodeParsingHelper.textOf(statement), signature, collectSelfReferences(statement), isTarget);
+    }
+
+    /**
+     * Abbreviates a statement to its first line.
+     *
+     * @param text The text of the statement.
+     * @return The first line, followed by " ..." if the statement spans several lines.
+     */
+    private static String firstLine(CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                return text.subSequence(0, i) + " ...";
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Collects the names of attributes accessed through self or cls within an element, both read and assigned.
+     *
+     * @param element The element to search.
+     * @return The set of referenced attribute names.
+     */
+    private static Set<String> collectSelfReferences(PsiElement element) {
+        Set<String> references = new HashSet<>();
+        for (PyQualifiedExpression expression : PsiTreeUtil.findChildrenOfType(element, PyQualifiedExpression.class)) {
+            PyExpression qualifier = expression.getQualifier();
+            if (qualifier instanceof PyReferenceExpression reference && !reference.isQualified()) {
+                String qualifierName = reference.getReferencedName();
+                if ("self".equals(qualifierName) || "cls".equals(qualifierName)) {
+                    references.add(expression.getReferencedName());
+                }
+            }
+        }
+        return references;
+    }
+
+    /**
+     * Selects which members are included in full and which only as signatures.
+     * The target is always included in full. The remaining members are taken in order of relevance while they fit
+     * the budget; members that do not fit, or are not related to the target at all, are reduced to signatures.
+     *
+     * @param header      The class header, e.g. "class Foo(Base):".
+     * @param members     The class members in source order.
+     * @param tokenBudget The maximum number of tokens the class context may use.
+     * @return The planned class context.
+     */
+    static String plan(String header, List<Member> members, int tokenBudget) {
+        Member target = null;
+        for (Member member : members) {
+            if (member.isTarget) {
+                target = member;
+            }
+        }
+
+        int used = CodeCompressor.estimateTokenCount(header);
+        for (Member member : members) {
+            used += member.isTarget ? member.getTextTokens() : member.getSignatureTokens();
+        }
+
+        List<Member> ranked = new ArrayList<>();
+        for (Member member : members) {
+            if (!member.isTarget) {
+                member.score = target == null ? 0 : score(member, target);
+                if (member.score > 0) {
+                    ranked.add(member);
+                }
+            }
+        }
+        ranked.sort(Comparator.comparingInt((Member member) -> -member.score).thenComparingInt(Member::getTextTokens));
+
+        Set<Member> full = new HashSet<>();
+        if (target != null) {
+            full.add(target);
+        }
+        for (Member member : ranked) {
+            int extra = member.getTextTokens() - member.getSignatureTokens();
+            if (used + extra <= tokenBudget) {
+                full.add(member);
+                used += extra;
+            }
+        }
+
+        StringBuilder builder = new StringBuilder(header).append("\n");
+        for (Member member : members) {
+            builder.append(INDENT).append(full.contains(member) ? member.text : member.signature).append("\n");
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Scores how relevant a member is to the target method.
+     * Members the target calls or reads rank highest, then members calling the target, then members touching the
+     * same fields.
+     *
+     * @param member The member to score.
+     * @param target The method to be explained.
+     * @return The relevance score, 0 if the member is unrelated.
+     */
+    static int score(Member member, Member target) {
+        int score = 0;
+        if (member.name != null && target.selfReferences.contains(member.name)) {
+            score += CALLEE_SCORE;
+        }
+        if (target.name != null && member.selfReferences.contains(target.name)) {
+            score += CALLER_SCORE;
+        }
+        for (String field : member.selfReferences) {
+            if (target.selfReferences.contains(field)) {
+                score += SHARED_FIELD_SCORE;
+            }
+        }
+        return score;
+    }
+
+    /**
+     * A class member as seen by the planner.
+     */
+    static class Member {
+        final String name;
+        final CharSequence text;
+        final String signature;
+        final Set<String> selfReferences;
+        final boolean isTarget;
+        int score;
+        private int textTokens = -1;
+        private int signatureTokens = -1;
+
+        /**
+         * Constructs a Member.
+         *
+         * @param name           The name the member defines, or null if it defines none.
+         * @param text           The full text of the member.
+         * @param signature      The abbreviated form of the member.
+         * @param selfReferences The attributes the member accesses through self or cls.
+         * @param isTarget       Whether the member is the method to be explained.
+         */
+        Member(String name, CharSequence text, String signature, Set<String> selfReferences, boolean isTarget) {
+            this.name = name;
+            this.text = text;
+            this.signature = signature;
+            this.selfReferences = selfReferences;
+            this.isTarget = isTarget;
+        }
+
+        int getTextTokens() {
+            if (textTokens < 0) {
+                textTokens = CodeCompressor.estimateTokenCount(text, 0, text.length());
+            }
+            return textTokens;
+        }
+
+        int getSignatureTokens() {
+            if (signatureTokens < 0) {
+                signatureTokens = CodeCompressor.estimateTokenCount(signature);
+            }
+            return signatureTokens;
+        }
+    }
+}
@@ -1,15 +1,21 @@
 import com.intellij.openapi.editor.Editor;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.TextRange;
 import com.intellij.psi.PsiDocumentManager;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.util.PsiTreeUtil;
 import com.jetbrains.python.psi.*;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 public class CodeParsingHelper {
+    private static final int CLASS_CONTEXT_TOKEN_BUDGET = 4000;
+    private static final int RELATED_CONTEXT_TOKEN_BUDGET = 600;
+
     /**
      * Retrieves the Python function under the caret in the given editor.
      * It uses the project's document manager to find the PsiFile and then locates
@@ -37,56 +43,249 @@ public class CodeParsingHelper {
     /**
      * Prepares a contextual string representation of a given Python function.
      * This includes the class context (if any) and the text of the function itself.
-     * It also includes any global references used by the function.
+     * For methods, the class context is planned by {@link ClassContextPlanner} so only the members relevant
+     * to the method are included in full.
+     * It also includes any global references used by the function, and the signatures of the definitions elsewhere
+     * in the project most related to it, as found by the {@link ProjectFunctionIndex}.
      *
      * @param function The Python function to generate context for.
      * @return String representation of the function's context.
      */
     public static String prepareFunctionContext(PyFunction function) {
-        StringBuilder contextBuilder = new StringBuilder();
+        return buildFunctionContext(function, new ArrayList<>(), Integer.MAX_VALUE).toString();
+    }
+
+    /**
+     * Builds the context of a Python function like {@link #prepareFunctionContext(PyFunction)} within a token budget,
+     * collecting the PSI elements the context was built from: the function or its containing class, the used imports
+     * and globals and the related definitions. The function and globals are referenced in the file contents rather
+     * than copied, and global references and related definitions are only taken while they fit the budget.
+     *
+     * @param function     The Python function to generate context for.
+     * @param dependencies The list to which the elements the context depends on are added.
+     * @param tokenBudget  The maximum number of tokens of the context.
+     * @return The context, or null if the class context and the function alone do not fit the budget.
+     */
+    public static ContextRope buildFunctionContext(PyFunction function, List<PsiElement> dependencies, int tokenBudget) {
+        ContextRope rope = new ContextRope(tokenBudget);
         PyClass containingClass = PsiTreeUtil.getParentOfType(function, PyClass.class);
+        dependencies.add(containingClass != null ? containingClass : function);
 
-        String functionText;
+        boolean fits;
         if (containingClass != null) {
-            contextBuilder.append("Class Context:\n").append(containingClass.getText()).append("\n\n");
-            functionText = function.getName();
+            String classContext = ClassContextPlanner.planClassContext(containingClass, function, CLASS_CONTEXT_TOKEN_BUDGET);
+            fits = rope.append("Class Context:\n" + classContext + "\n\n")
+                    && rope.append("Function to Explain:\n" + function.getName());
         } else {
-            functionText = function.getText();
+            fits = rope.append("Function to Explain:\n") && appendElement(rope, function);
+        }
+        if (!fits || !rope.append("\n\n")) {
+            return null;
+        }
+
+        PsiFile containingFile = function.getContainingFile();
+        if (containingFile instanceof PyFile) {
+            addUsedGlobalReferences((PyFile) containingFile, function, rope, dependencies);
         }
 
-        contextBuilder.append("Function to Explain:\n").append(functionText).append("\n\n");
+        addRelatedDefinitions(function, rope, dependencies);
+
+        return rope;
+    }
 
+    /**
+     * Prepares the context of a Python function as units for chunking, in the order of
+     * {@link #prepareFunctionContext(PyFunction)}. The class context, the global references and the related
+     * definitions form one unit each; the function itself is split along PSI boundaries by {@link ContextChunker}.
+     *
+     * @param function      The Python function to generate context for.
+     * @param maxUnitTokens The maximum number of tokens of a unit of the function.
+     * @return The units of the context.
+     */
+    public static List<String> prepareContextUnits(PyFunction function, int maxUnitTokens) {
+        List<String> units = new ArrayList<>();
+        PyClass containingClass = PsiTreeUtil.getParentOfType(function, PyClass.class);
+        if (containingClass != null) {
+            String classContext = ClassContextPlanner.planClassContext(containingClass, function, CLASS_CONTEXT_TOKEN_BUDGET, false);
+            units.add("Class Context:\n" + classContext);
+        }
+
+        units.add("Function to Explain:");
+        units.addAll(ContextChunker.collectUnits(function, maxUnitTokens));
+
+        ContextRope references = new ContextRope(Integer.MAX_VALUE);
+        references.append("\n");
         PsiFile containingFile = function.getContainingFile();
         if (containingFile instanceof PyFile) {
-            addUsedGlobalReferences((PyFile) containingFile, function, contextBuilder);
+            addUsedGlobalReferences((PyFile) containingFile, function, references, new ArrayList<>());
+        }
+        addRelatedDefinitions(function, references, new ArrayList<>());
+        String referencesText = references.toString();
+        if (!referencesText.isBlank()) {
+            units.add(referencesText);
         }
+        return units;
+    }
 
-        return contextBuilder.toString();
+    /**
+     * Splits a Python function into statement units for diffing against a previously explained version.
+     * The first unit is the function header up to its body. Compound statements contribute their headers
+     * (e.g. "for x in y:" or "else:") as separate units and are descended into, so an edit inside a long loop
+     * only changes the statements that were actually touched.
+     *
+     * @param function The Python function to split.
+     * @return The ordered list of statement units.
+     */
+    public static List<String> getStatementUnits(PyFunction function) {
+        List<String> units = new ArrayList<>();
+        units.add(getHeader(function, function.getStatementList()));
+        collectStatementUnits(function.getStatementList(), 1, units);
+        return units;
     }
 
     /**
-     * Adds global references used in the Python file to the context builder.
+     * Returns the header of a function or class definition, i.e. its text up to the start of its body.
+     * This includes decorators and the full signature.
+     *
+     * @param definition The function or class definition.
+     * @param body       The statement list forming the body of the definition.
+     * @return The trimmed header text.
+     */
+    public static String getHeader(PsiElement definition, PyStatementList body) {
+        int bodyStart = body.getTextRange().getStartOffset() - definition.getTextRange().getStartOffset();
+        return textOf(definition).subSequence(0, Math.max(bodyStart, 0)).toString().trim();
+    }
+
+    /**
+     * Gets the text of an element as a view of the contents of its file, so that measuring or cutting the text of a
+     * large element does not copy it. Falls back to {@link PsiElement#getText()} if the element has no file.
+     *
+     * @param element The element.
+     * @return The text of the element.
+     */
+    public static CharSequence textOf(PsiElement element) {
+        PsiFile file = element.getContainingFile();
+        TextRange range = element.getTextRange();
+        if (file != null && range != null) {
+            CharSequence contents = file.getViewProvider().getContents();
+            if (range.getEndOffset() <= contents.length()) {
+                return contents.subSequence(range.getStartOffset(), range.getEndOffset());
+            }
+        }
+        return element.getText();
+    }
+
+    /**
+     * Appends the text of an element to a context as a range of its file contents.
+     *
+     * @param rope    The context to append to.
+     * @param element The element.
+     * @return true if the element fit the budget of the context, false otherwise.
+     */
+    private static boolean appendElement(ContextRope rope, PsiElement element) {
+        PsiFile file = element.getContainingFile();
+        TextRange range = element.getTextRange();
+        if (file != null && range != null) {
+            CharSequence contents = file.getViewProvider().getContents();
+            if (range.getEndOffset() <= contents.length()) {
+                return rope.append(contents, range.getStartOffset(), range.getEndOffset());
+            }
+        }
+        return rope.append(element.getText());
+    }
+
+    /**
+     * Appends the statement units of a statement list, indenting each unit according to its nesting depth.
+     *
+     * @param statementList The statement list to split.
+     * @param depth         The nesting depth of the statement list.
+     * @param units         The list to which the units are added.
+     */
+    private static void collectStatementUnits(PyStatementList statementList, int depth, List<String> units) {
+        String indent = "    ".repeat(depth);
+        for (PyStatement statement : statementList.getStatements()) {
+            List<PyStatementList> nestedLists = new ArrayList<>();
+            for (PyStatementList nested : PsiTreeUtil.findChildrenOfType(statement, PyStatementList.class)) {
+                if (PsiTreeUtil.getParentOfType(nested, PyStatementList.class) == statementList) {
+                    nestedLists.add(nested);
+                }
+            }
+
+            if (nestedLists.isEmpty()) {
+                units.add(indent + statement.getText());
+                continue;
+            }
+
+            String statementText = statement.getText();
+            int statementStart = statement.getTextRange().getStartOffset();
+            int cursor = 0;
+            for (PyStatementList nested : nestedLists) {
+                int nestedStart = nested.getTextRange().getStartOffset() - statementStart;
+                units.add(indent + statementText.substring(cursor, nestedStart).trim());
+                collectStatementUnits(nested, depth + 1, units);
+                cursor = nested.getTextRange().getEndOffset() - statementStart;
+            }
+        }
+    }
+
+    /**
+     * Adds global references used in the Python file to the context.
      * This includes imports and other elements like assignments and functions
-     * that are used within the specified Python function.
+     * that are used within the specified Python function. References are taken until the budget of the context
+     * is exhausted.
      *
-     * @param pyFile         The Python file to search for global references.
-     * @param function       The Python function for which the references are collected.
-     * @param contextBuilder The StringBuilder to append the found references.
+     * @param pyFile       The Python file to search for global references.
+     * @param function     The Python function for which the references are collected.
+     * @param rope         The context to append the found references.
+     * @param dependencies The list to which the appended imports and elements are added.
      */
-    private static void addUsedGlobalReferences(PyFile pyFile, PyFunction function, StringBuilder contextBuilder) {
+    private static void addUsedGlobalReferences(PyFile pyFile, PyFunction function, ContextRope rope, List<PsiElement> dependencies) {
         Set<String> usedReferences = new HashSet<>();
         collectUsedReferences(function, usedReferences);
 
         for (PyImportStatementBase importStatement : pyFile.getImportBlock()) {
             if (isImportUsed(importStatement, usedReferences)) {
-                contextBuilder.append(importStatement.getText()).append("\n");
+                if (!appendElement(rope, importStatement) || !rope.append("\n")) {
+                    return;
+                }
+                dependencies.add(importStatement);
             }
         }
 
         for (PsiElement element : pyFile.getChildren()) {
             if ((element instanceof PyAssignmentStatement || element instanceof PyFunction) && isElementUsed(element, usedReferences)) {
-                contextBuilder.append(element.getText()).append("\n");
+                if (!appendElement(rope, element) || !rope.append("\n")) {
+                    return;
+                }
+                dependencies.add(element);
+            }
+        }
+    }
+
+    /**
+     * Adds the signatures and docstrings of the project definitions most related to the function, within
+     * {@value #RELATED_CONTEXT_TOKEN_BUDGET} tokens.
+     *
+     * @param function     The Python function for which the definitions are retrieved.
+     * @param rope         The context to append the definitions.
+     * @param dependencies The list to which the appended definitions are added.
+     */
+    private static void addRelatedDefinitions(PyFunction function, ContextRope rope, List<PsiElement> dependencies) {
+        Project project = function.getProject();
+        ProjectFunctionIndex functionIndex = project == null ? null : project.getService(ProjectFunctionIndex.class);
+        if (functionIndex == null) {
+            return;
+        }
+        List<PsiElement> sources = new ArrayList<>();
+        List<String> related = functionIndex.retrieveRelated(function, RELATED_CONTEXT_TOKEN_BUDGET, sources);
+        if (related.isEmpty() || !rope.append("\nRelated Definitions:\n")) {
+            return;
+        }
+        for (int i = 0; i < related.size(); i++) {
+            if (!rope.append(related.get(i) + "\n")) {
+                return;
             }
+            dependencies.add(sources.get(i));
         }
     }
 
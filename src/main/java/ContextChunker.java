@@ -0,0 +1,165 @@
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.jetbrains.python.psi.PyStatement;
+import com.jetbrains.python.psi.PyStatementList;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits oversized contexts into chunks along PSI boundaries. A definition that does not fit a chunk is broken into
+ * its header and the statements of its body, descending into nested blocks only as far as needed, so a chunk never
+ * ends in the middle of a statement that could have been kept whole. The units are then packed in reading order,
+ * cutting chunks after units chosen by their content, so an edit that adds or removes a few tokens only changes the
+ * chunk it falls into, and the {@link SummaryTree} reuses the summaries of all other chunks.
+ */
+public class ContextChunker {
+    private static final String INDENT = "    ";
+
+    /**
+     * Splits a PSI element into units of at most the given size. The element is kept whole if it fits; otherwise each
+     * of its blocks contributes its header (e.g. "def f(x):" or "else:") and the units of its statements.
+     * Only a single statement that does not fit on its own is split by lines.
+     *
+     * @param element       The element to split, e.g. a function.
+     * @param maxUnitTokens The maximum number of tokens of a unit.
+     * @return The units in reading order.
+     */
+    public static List<String> collectUnits(PsiElement element, int maxUnitTokens) {
+        List<String> units = new ArrayList<>();
+        collectUnits(element, 0, maxUnitTokens, units);
+        return units;
+    }
+
+    private static void collectUnits(PsiElement element, int depth, int maxUnitTokens, List<String> units) {
+        String indent = INDENT.repeat(depth);
+        CharSequence text = CodeParsingHelper.textOf(element);
+        if (CodeCompressor.estimateTokenCount(text, 0, text.length()) <= maxUnitTokens) {
+            units.add(indent + text);
+            return;
+        }
+
+        PyStatementList enclosingList = PsiTreeUtil.getParentOfType(element, PyStatementList.class);
+        List<PyStatementList> blocks = new ArrayList<>();
+        for (PyStatementList nested : PsiTreeUtil.findChildrenOfType(element, PyStatementList.class)) {
+            if (PsiTreeUtil.getParentOfType(nested, PyStatementList.class) == enclosingList) {
+                blocks.add(nested);
+            }
+        }
+        if (blocks.isEmpty()) {
+            for (String line : splitByLines(text.toString(), maxUnitTokens)) {
+                units.add(indent + line);
+            }
+            return;
+        }
+
+        int elementStart = element.getTextRange().getStartOffset();
+        int cursor = 0;
+        for (PyStatementList block : blocks) {
+            int blockStart = block.getTextRange().getStartOffset() - elementStart;
+            String header = text.subSequence(cursor, blockStart).toString().trim();
+            if (!header.isEmpty()) {
+                units.add(indent + header);
+            }
+            for (PyStatement statement : block.getStatements()) {
+                collectUnits(statement, depth + 1, maxUnitTokens, units);
+            }
+            cursor = block.getTextRange().getEndOffset() - elementStart;
+        }
+        String trailer = text.subSequence(cursor, text.length()).toString().trim();
+        if (!trailer.isEmpty()) {
+            units.add(indent + trailer);
+        }
+    }
+
+    /**
+     * Packs units into chunks of at most the given size, keeping their order. A chunk ends after every unit that is a
+     * cut point, and whether a unit is one depends only on its own text, with a chance growing with its size so the
+     * units between two cut points hold about three quarters of the budget on average. Units between two cut points
+     * that do not fit one chunk are packed greedily. An edit therefore only changes the chunks between the cut points
+     * around it, usually the single chunk holding it, and two if the edit turns its unit into a cut point or stops it
+     * from being one. Units larger than a chunk are split by lines first.
+     *
+     * @param units       The units in reading order.
+     * @param chunkTokens The maximum number of tokens of a chunk.
+     * @return The chunks.
+     */
+    public static List<String> pack(List<String> units, int chunkTokens) {
+        int targetTokens = Math.max(1, chunkTokens * 3 / 4);
+        List<String> chunks = new ArrayList<>();
+        StringBuilder chunk = new StringBuilder();
+        int used = 0;
+        for (String unit : units) {
+            List<String> pieces = CodeCompressor.estimateTokenCount(unit) > chunkTokens ? splitByLines(unit, chunkTokens) : List.of(unit);
+            for (String piece : pieces) {
+                int tokens = CodeCompressor.estimateTokenCount(piece);
+                if (used > 0 && used + tokens > chunkTokens) {
+                    chunks.add(chunk.toString());
+                    chunk = new StringBuilder();
+                    used = 0;
+                }
+                chunk.append(piece).append("\n");
+                used += tokens;
+                if (isCutPoint(piece, tokens, targetTokens)) {
+                    chunks.add(chunk.toString());
+                    chunk = new StringBuilder();
+                    used = 0;
+                }
+            }
+        }
+        if (used > 0) {
+            chunks.add(chunk.toString());
+        }
+        return chunks;
+    }
+
+    /**
+     * Decides from the text of a unit alone whether a chunk may end after it. The chance is the share of the target
+     * chunk size the unit takes up, so the expected size of a chunk does not depend on how finely it was split.
+     *
+     * @param unit         The unit.
+     * @param tokens       The number of tokens of the unit.
+     * @param targetTokens The number of tokens between two cut points on average.
+     * @return true if a chunk may end after the unit, false otherwise.
+     */
+    static boolean isCutPoint(String unit, int tokens, int targetTokens) {
+        int hash = unit.hashCode();
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return Integer.toUnsignedLong(hash) % targetTokens < tokens;
+    }
+
+    /**
+     * Splits text into groups of whole lines of at most the given size. A single line exceeding the size forms a
+     * group of its own.
+     *
+     * @param text      The text to split.
+     * @param maxTokens The maximum number of tokens of a group.
+     * @return The groups of lines.
+     */
+    static List<String> splitByLines(String text, int maxTokens) {
+        List<String> groups = new ArrayList<>();
+        StringBuilder group = new StringBuilder();
+        int used = 0;
+        for (String line : text.split("\n")) {
+            int tokens = CodeCompressor.estimateTokenCount(line);
+            if (used > 0 && used + tokens > maxTokens) {
+                groups.add(group.toString());
+                group = new StringBuilder();
+                used = 0;
+            }
+            if (group.length() > 0) {
+                group.append("\n");
+            }
+            group.append(line);
+            used += tokens;
+        }
+        if (group.length() > 0) {
+            groups.add(group.toString());
+        }
+        return groups;
+    }
+}
@@ -0,0 +1,106 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A context assembled from segments within a token budget. A segment references a range of a larger text, such as
+ * the contents of a file, and is measured in place; its characters are only copied when the context is finally
+ * rendered. Once a segment does not fit the remaining budget, the rope is exhausted and takes no further segments,
+ * so the memory needed to build a context is bounded by the budget rather than by the size of the files it is
+ * taken from.
+ */
+public class ContextRope {
+    private final int tokenBudget;
+    private final List<Segment> segments = new ArrayList<>();
+    private int tokens = 0;
+    private int length = 0;
+    private boolean exhausted = false;
+
+    /**
+     * Constructs an empty ContextRope.
+     *
+     * @param tokenBudget The maximum number of tokens of the context.
+     */
+    public ContextRope(int tokenBudget) {
+        this.tokenBudget = tokenBudget;
+    }
+
+    /**
+     * Appends a whole text, e.g. a heading.
+     *
+     * @param text The text to append.
+     * @return true if the text was taken, false if it did not fit.
+     */
+    public boolean append(CharSequence text) {
+        return append(text, 0, text.length());
+    }
+
+    /**
+     * Appends a range of a text without copying it.
+     *
+     * @param source The text the range belongs to.
+     * @param start  The start of the range, inclusive.
+     * @param end    The end of the range, exclusive.
+     * @return true if the range was taken, false if it did not fit or the rope is exhausted.
+     */
+    public boolean append(CharSequence source, int start, int end) {
+        if (exhausted) {
+            return false;
+        }
+        int segmentTokens = CodeCompressor.estimateTokenCount(source, start, end);
+        if (tokens + segmentTokens > tokenBudget) {
+            exhausted = true;
+            return false;
+        }
+        segments.add(new Segment(source, start, end));
+        tokens += segmentTokens;
+        length += end - start;
+        return true;
+    }
+
+    /**
+     * Checks whether a segment was turned away for lack of budget.
+     *
+     * @return true if the rope takes no further segments, false otherwise.
+     */
+    public boolean isExhausted() {
+        return exhausted;
+    }
+
+    /**
+     * Gets the estimated token count of the segments taken so far.
+     *
+     * @return The number of tokens.
+     */
+    public int getTokens() {
+        return tokens;
+    }
+
+    /**
+     * Renders the context, copying each segment exactly once.
+     *
+     * @return The text of the context.
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(length);
+        for (Segment segment : segments) {
+            builder.append(segment.source, segment.start, segment.end);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * A range of a source text.
+     */
+    private static class Segment {
+        final CharSequence source;
+        final int start;
+        final int end;
+
+        Segment(CharSequence source, int start, int end) {
+            this.source = source;
+            this.start = start;
+            this.end = end;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The state of a follow-up conversation about an explained function. Every follow-up prompt carries the prepared
+ * context and the explanation once, a rolling summary of older turns and the most recent turns verbatim. Once the
+ * verbatim turns exceed {@value #HISTORY_TOKEN_THRESHOLD} tokens, all but the last {@value #KEEP_RECENT_TURNS} are
+ * folded into the summary, so the size of a prompt, and with it the latency and cost of a turn, stays bounded no
+ * matter how long the conversation runs.
+ */
+public class ConversationState {
+    static final int HISTORY_TOKEN_THRESHOLD = 1500;
+    static final int KEEP_RECENT_TURNS = 2;
+    static final String FOLLOW_UP_PROMPT = "You explained the Python function below. Answer the user's follow-up question about it concisely, in at most 150 words.\n\n";
+    static final String COMPACT_PROMPT = "Summarize the following conversation about a Python function in at most 100 words. Keep every fact the user asked about and every conclusion reached; they may be referred to later. Previous summary, if any, comes first:\n\n";
+
+    private final String context;
+    private final String explanation;
+    private final List<Turn> recentTurns = new ArrayList<>();
+    private String summary = "";
+
+    /**
+     * Constructs a ConversationState.
+     *
+     * @param context     The prepared context of the function, or null if it is too large to repeat in every turn.
+     * @param explanation The explanation the conversation follows up on.
+     */
+    public ConversationState(String context, String explanation) {
+        this.context = context;
+        this.explanation = explanation;
+    }
+
+    /**
+     * Builds the prompt asking the given question.
+     *
+     * @param question The follow-up question.
+     * @return The prompt.
+     */
+    public synchronized String buildPrompt(String question) {
+        StringBuilder prompt = new StringBuilder(FOLLOW_UP_PROMPT);
+        if (context != null) {
+            prompt.append("Function Context:\n").append(context).append("\n\n");
+        }
+        prompt.append("Explanation:\n").append(explanation).append("\n\n");
+        if (!summary.isEmpty()) {
+            prompt.append("Summary of the Earlier Conversation:\n").append(summary).append("\n\n");
+        }
+        for (Turn turn : recentTurns) {
+            turn.appendTo(prompt);
+        }
+        prompt.append("Question: ").append(question).append("\n");
+        return prompt.toString();
+    }
+
+    /**
+     * Records an answered question and compacts older turns into the summary if the history grew past the threshold.
+     *
+     * @param question The question.
+     * @param answer   The answer of the Language Model.
+     * @param sender   The sender used to request the summary.
+     * @throws IOException          If the summary request fails. The turn is recorded regardless.
+     * @throws InterruptedException If the summary request is interrupted.
+     */
+    public void recordTurn(String question, String answer, LlmRequestSender sender) throws IOException, InterruptedException {
+        List<Turn> compacted;
+        String previousSummary;
+        synchronized (this) {
+            recentTurns.add(new Turn(question, answer));
+            if (getHistoryTokens() <= HISTORY_TOKEN_THRESHOLD || recentTurns.size() <= KEEP_RECENT_TURNS) {
+                return;
+            }
+            compacted = new ArrayList<>(recentTurns.subList(0, recentTurns.size() - KEEP_RECENT_TURNS));
+            previousSummary = summary;
+        }
+
+        StringBuilder request = new StringBuilder(COMPACT_PROMPT);
+        if (!previousSummary.isEmpty()) {
+            request.append("Previous Summary:\n").append(previousSummary).append("\n\n");
+        }
+        for (Turn turn : compacted) {
+            turn.appendTo(request);
+        }
+        String newSummary = sender.send(request.toString());
+
+        synchronized (this) {
+            recentTurns.removeAll(compacted);
+            summary = newSummary;
+        }
+    }
+
+    /**
+     * Gets the number of tokens of the turns kept verbatim.
+     *
+     * @return The token count.
+     */
+    synchronized int getHistoryTokens() {
+        int tokens = 0;
+        for (Turn turn : recentTurns) {
+            tokens += turn.tokens;
+        }
+        return tokens;
+    }
+
+    synchronized int getRecentTurnCount() {
+        return recentTurns.size();
+    }
+
+    synchronized String getSummary() {
+        return summary;
+    }
+
+    /**
+     * A question and its answer.
+     */
+    private static class Turn {
+        final String question;
+        final String answer;
+        final int tokens;
+
+        Turn(String question, String answer) {
+            this.question = question;
+            this.answer = answer;
+            this.tokens = CodeCompressor.estimateTokenCount(question) + CodeCompressor.estimateTokenCount(answer);
+        }
+
+        void appendTo(StringBuilder builder) {
+            builder.append("Question: ").append(question).append("\n")
+                    .append("Answer: ").append(answer).append("\n\n");
+        }
+    }
+}
@@ -2,7 +2,7 @@ import com.intellij.lang.Language;
 import com.intellij.openapi.actionSystem.AnAction;
 import com.intellij.openapi.actionSystem.AnActionEvent;
 import com.intellij.openapi.actionSystem.CommonDataKeys;
-import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ReadAction;
 import com.intellij.openapi.editor.Editor;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.wm.ToolWindow;
@@ -11,15 +11,12 @@ import com.jetbrains.python.psi.*;
 import org.jetbrains.annotations.NotNull;
 
 import javax.swing.*;
-import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
 
 public class ExplainCodeAction extends AnAction {
-    private static final int MAX_TOKEN_LIMIT = 7000;
-    private static final String CONTEXT_BATCH_PROMPT = "compress the following text in a way that fits in a tweet (ideally) and such that you (GPT-4) can reconstruct the intention of the human who wrote text as close as possible to the original intention. This is for yourself. It does not need to be human readable or understandable. Abuse of language mixing, abbreviations, symbols (unicode and emoji), or any other encodings or internal representations is all permissible, as long as it, if pasted in a new inference cycle, will yield near-identical results as the original text: ";
-    private static final String SUMMARY_PROMPT = "decode the following summaries that you encoded and create an overall summary of them: ";
-    private static final Integer MAX_TOKENS_PER_MINUTE = 9500;
-    private final TokenTracker tokenTracker = new TokenTracker();
-    private static final int MAX_WAIT_TIME_SECONDS = 10;
+    private static final long REQUEST_DEADLINE_MS = 120_000;
+    private static final int MAX_PREFETCHED_CALLEES = 3;
 
     public ExplainCodeAction() {
     }
@@ -42,129 +39,125 @@ public class ExplainCodeAction extends AnAction {
         }
 
         ToolWindowManager toolWindowManager = ToolWindowManager.getInstance(project);
-        ToolWindow toolWindow = toolWindowManager.getToolWindow("Explain Method ChatGPT");
+        ToolWindow toolWindow = toolWindowManager.getToolWindow(ExplainCodeToolWindowContentFactory.TOOL_WINDOW_ID);
         if (toolWindow != null) {
             toolWindow.show(() -> {});
             ExplainCodeToolWindowContentFactory contentFactory = project.getService(ExplainCodeToolWindowContentFactory.class);
             if (contentFactory == null) return;
 
-            contentFactory.updateCode(selectedFunction.getText(), Language.findLanguageByID("Python"));
+            String key = ExplanationCache.keyFor(selectedFunction);
+            ExplanationPanel panel = contentFactory.openTab(key, selectedFunction.getName());
+            if (panel == null) return;
 
-            fetchExplanationAsync(selectedFunction, contentFactory);
+            panel.updateCode(selectedFunction.getText(), Language.findLanguageByID("Python"));
+
+            fetchExplanationAsync(selectedFunction, key, panel);
         }
     }
 
     /**
-     * Fetches the explanation asynchronously for the given Python function and updates the tool window content.
+     * Schedules the explanation of the given Python function as a foreground request and streams it into the panel.
+     * The request is cancelled if the panel's tab is closed or replaced before it completes. Once the explanation is
+     * complete, its final text is set before the panel accepts follow-up questions, so that it never replaces a
+     * question asked in the meantime. The panel then lists the earlier explanations of the function, and the
+     * functions it calls are prefetched, since they are likely to be explained next.
      *
      * @param selectedFunction The selected Python function.
-     * @param contentFactory   The ExplainCodeToolWindowContentFactory for updating the content.
+     * @param key              The key of the selected function.
+     * @param panel            The ExplanationPanel displaying the explanation.
      */
-    private void fetchExplanationAsync(PyFunction selectedFunction, ExplainCodeToolWindowContentFactory contentFactory) {
-        SwingUtilities.invokeLater(() -> contentFactory.updateExplanation("Loading"));
-
-        Timer loadingTimer = getLoadingTimer(contentFactory);
-
-        ApplicationManager.getApplication().executeOnPooledThread(() -> {
-            String explanation = getResponseFromLLM(selectedFunction);
-
-            SwingUtilities.invokeLater(() -> {
-                loadingTimer.stop();
-                contentFactory.updateExplanation(explanation);
-            });
-        });
+    private void fetchExplanationAsync(PyFunction selectedFunction, String key, ExplanationPanel panel) {
+        panel.updateExplanation("");
+
+        Timer loadingTimer = getLoadingTimer(panel);
+
+        ExplanationScheduler.Task request = ExplanationScheduler.getInstance().submit(ExplanationPriority.FOREGROUND,
+                REQUEST_DEADLINE_MS, () -> {
+                    ExplanationPipeline pipeline = ExplanationPipeline.getInstance();
+                    String explanation = pipeline.explain(selectedFunction, panel::appendExplanation);
+                    ConversationState conversation = pipeline.startConversation(selectedFunction, explanation);
+                    SwingUtilities.invokeLater(() -> {
+                        if (!panel.isDisposed()) {
+                            panel.updateExplanation(explanation);
+                            panel.startConversation(conversation);
+                        }
+                    });
+                    ReadAction.run(() -> prefetchCallees(selectedFunction));
+                    return explanation;
+                });
+        panel.setRequest(request);
+
+        request.getFuture().whenComplete((result, error) -> SwingUtilities.invokeLater(() -> {
+            loadingTimer.stop();
+            if (panel.isDisposed()) {
+                return;
+            }
+            panel.updateStatus("");
+            if (error != null) {
+                panel.updateExplanation("Error: " + getErrorMessage(error));
+            }
+            panel.showHistory(key);
+        }));
     }
 
     /**
-     * Retrieves the response from the ChatGPT Language Model for the given Python function.
+     * Queues prefetch requests for up to {@value #MAX_PREFETCHED_CALLEES} functions called by the given function that
+     * have no up-to-date explanation. Must be called within a read action.
      *
-     * @param function The Python function for which an explanation is requested.
-     * @return The explanation as a String.
+     * @param function The explained Python function.
      */
-    private String getResponseFromLLM(PyFunction function) {
-        String context = CodeParsingHelper.prepareFunctionContext(function);
-        context = CodeCompressor.compressCode(context);
-        if (CodeCompressor.estimateTokenCount(context) > MAX_TOKEN_LIMIT) {
-            String[] contextLines = context.split("\n");
-            StringBuilder contextBuilder = new StringBuilder();
-            contextBuilder.append(CONTEXT_BATCH_PROMPT);
-            StringBuilder summaryBuilder = new StringBuilder();
-            summaryBuilder.append(SUMMARY_PROMPT);
-
-            for (String line : contextLines) {
-                contextBuilder.append(line).append("\n");
-                if (CodeCompressor.estimateTokenCount(contextBuilder.toString()) >= MAX_TOKEN_LIMIT) {
-                int tokens = tokenTracker.getCurrentTokenCount();
-                    try {
-                        summaryBuilder.append(sendRequestToOpenAI(contextBuilder.toString()));
-                    } catch (IOException | InterruptedException e) {
-                        return "Error: " + e.getMessage();
-                    }
-                    contextBuilder = new StringBuilder();
-                    contextBuilder.append(CONTEXT_BATCH_PROMPT);
-                }
-            }
-            int tokens = tokenTracker.getCurrentTokenCount();
-            try {
-                summaryBuilder.append(sendRequestToOpenAI(contextBuilder.toString()));
-                return sendRequestToOpenAI(summaryBuilder.toString());
-            } catch (IOException | InterruptedException e) {
-                return "Error: " + e.getMessage();
+    private static void prefetchCallees(PyFunction function) {
+        Project project = function.getProject();
+        CallGraphIndex callGraph = project.getService(CallGraphIndex.class);
+        ProjectFunctionIndex functionIndex = project.getService(ProjectFunctionIndex.class);
+        ExplanationCache cache = project.getService(ExplanationCache.class);
+        if (callGraph == null || functionIndex == null || cache == null) {
+            return;
+        }
+        int queued = 0;
+        for (String key : callGraph.callees(function, MAX_PREFETCHED_CALLEES * 4)) {
+            if (queued >= MAX_PREFETCHED_CALLEES) {
+                break;
             }
-        } else {
-            try {
-                return sendRequestToOpenAI(context);
-            } catch (IOException | InterruptedException e) {
-                return "Error: " + e.getMessage();
+            ExplanationCache.Entry entry = cache.get(key);
+            if (functionIndex.findDefinition(key) instanceof PyFunction callee
+                    && (entry == null || !entry.getCode().equals(callee.getText()))) {
+                ExplanationDocumentationProvider.prefetch(key, callee);
+                queued++;
             }
         }
     }
 
     /**
-     * Sends a request to the OpenAI API to get an explanation for the given code.
+     * Gets the message to display for a failed request.
      *
-     * @param request The code for which an explanation is requested.
-     * @return The explanation as a String.
-     * @throws IOException          If an I/O error occurs during the HTTP request.
-     * @throws InterruptedException If the HTTP request is interrupted.
+     * @param error The error the request completed with.
+     * @return The error message.
      */
-    private String sendRequestToOpenAI(String request) throws IOException, InterruptedException {
-        int estimatedTokens = CodeCompressor.estimateTokenCount(request);
-        int waitTime = tokenTracker.getRemainingWaitTime();
-
-        if (tokenTracker.getCurrentTokenCount() + estimatedTokens > MAX_TOKENS_PER_MINUTE) {
-            if (waitTime > MAX_WAIT_TIME_SECONDS) {
-                throw new IOException("Token limit exceeded, and wait time is too long: " + waitTime + " seconds.");
-            }
-            try {
-                Thread.sleep(waitTime * 1000L);
-            } catch (InterruptedException ex) {
-                Thread.currentThread().interrupt();
-                throw new RuntimeException("Thread interrupted while waiting for token availability", ex);
-            }
+    private static String getErrorMessage(Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
         }
-
-        return ChatGPTApiClient.getExplanationFromLLM(request, tokenTracker);
+        if (error instanceof CancellationException) {
+            return "Request cancelled.";
+        }
+        return error.getMessage();
     }
 
     /**
-     * Retrieves a loading timer for updating the tool window content while loading.
+     * Retrieves a loading timer animating the status line of the panel while loading.
+     * Only the status line is updated, so the explanation being streamed is not re-laid out.
      *
-     * @param contentFactory The ExplainCodeToolWindowContentFactory for updating the content.
+     * @param panel The ExplanationPanel for updating the content.
      * @return A Timer instance for updating the loading indicator.
      */
     @NotNull
-    private static Timer getLoadingTimer(ExplainCodeToolWindowContentFactory contentFactory) {
+    private static Timer getLoadingTimer(ExplanationPanel panel) {
+        int[] dots = {0};
         Timer loadingTimer = new Timer(300, null);
         loadingTimer.addActionListener(e -> {
-            SwingUtilities.invokeLater(() -> {
-                String currentText = contentFactory.getExplanationText();
-                if (currentText.endsWith("...")) {
-                    contentFactory.updateExplanation("Loading");
-                } else {
-                    contentFactory.updateExplanation(currentText + ".");
-                }
-            });
+            dots[0] = (dots[0] + 1) % 4;
+            panel.updateStatus("Loading" + ".".repeat(dots[0]));
         });
         loadingTimer.setRepeats(true);
         loadingTimer.start();
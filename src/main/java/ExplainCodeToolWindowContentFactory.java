@@ -1,31 +1,29 @@
 import com.intellij.credentialStore.CredentialAttributes;
 import com.intellij.ide.passwordSafe.PasswordSafe;
-import com.intellij.lang.Language;
-import com.intellij.openapi.command.WriteCommandAction;
-import com.intellij.openapi.editor.*;
-import com.intellij.openapi.editor.ex.EditorEx;
-import com.intellij.openapi.editor.highlighter.EditorHighlighter;
-import com.intellij.openapi.editor.highlighter.EditorHighlighterFactory;
-import com.intellij.openapi.fileTypes.FileType;
+import com.intellij.openapi.Disposable;
 import com.intellij.openapi.project.Project;
-import com.intellij.ui.Gray;
-import com.intellij.ui.JBColor;
-import com.intellij.ui.JBSplitter;
-import com.intellij.ui.components.JBScrollPane;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.wm.ToolWindow;
+import com.intellij.openapi.wm.ToolWindowManager;
 import com.intellij.ui.content.Content;
 import com.intellij.ui.content.ContentFactory;
-import com.intellij.openapi.editor.colors.EditorColorsManager;
-import com.intellij.openapi.editor.colors.EditorColorsScheme;
-import org.jetbrains.annotations.NotNull;
+import com.intellij.ui.content.ContentManager;
 
 import javax.swing.*;
-import java.awt.*;
-
-public class ExplainCodeToolWindowContentFactory {
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Creates and tracks the tabs of the ExplainCode tool window. Every panel is disposed with its tab, or with this
+ * service when the project is closed, which releases the panel's editor.
+ */
+public class ExplainCodeToolWindowContentFactory implements Disposable {
+    static final String TOOL_WINDOW_ID = "Explain Method ChatGPT";
+    private static final int MAX_TABS = 5;
     private final Project project;
-    private final EditorEx codeEditor;
-    private final JTextArea explanationArea;
-    private JButton apiKeyButton;
+    private final Map<String, Content> tabs = new LinkedHashMap<>();
+    private Content welcomeContent;
 
     /**
      * Constructs an instance of ExplainCodeToolWindowContentFactory.
@@ -34,38 +32,12 @@ public class ExplainCodeToolWindowContentFactory {
      */
     public ExplainCodeToolWindowContentFactory(Project project) {
         this.project = project;
-        this.explanationArea = new JTextArea();
-        this.codeEditor = createCodeEditor();
-        this.explanationArea.setText("Explanation will appear here...");
-        initializeComponents();
-        initializeApiKeyButton();
-    }
-
-    /**
-     * Initializes the components for the explanation area and code editor.
-     */
-    private void initializeComponents() {
-        explanationArea.setEditable(false);
-        explanationArea.setLineWrap(true);
-        explanationArea.setWrapStyleWord(true);
-        explanationArea.setFont(new Font("Arial", Font.PLAIN, 16));
-        explanationArea.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
-        explanationArea.setBackground(Gray._43);
-        explanationArea.setForeground(new Color(169, 183, 198));
-    }
-
-    /**
-     * Initializes the API key update button.
-     */
-    private void initializeApiKeyButton() {
-        apiKeyButton = new JButton("Update API Key");
-        apiKeyButton.addActionListener(e -> promptAndUpdateApiKey());
     }
 
     /**
      * Prompts the user to enter and save a new API key.
      */
-    private void promptAndUpdateApiKey() {
+    static void promptAndUpdateApiKey() {
         String newApiKey = JOptionPane.showInputDialog("Enter new OpenAI API Key:");
         if (newApiKey != null && !newApiKey.trim().isEmpty()) {
             saveApiKey(newApiKey);
@@ -78,98 +50,69 @@ public class ExplainCodeToolWindowContentFactory {
      *
      * @param apiKey The new API key to be saved.
      */
-    private void saveApiKey(String apiKey) {
+    private static void saveApiKey(String apiKey) {
         CredentialAttributes attributes = new CredentialAttributes(ChatGPTApiClient.getServiceName());
         PasswordSafe.getInstance().setPassword(attributes, apiKey);
     }
 
     /**
-     * Creates a code editor for displaying and editing code.
-     *
-     * @return The created code editor.
-     */
-    private EditorEx createCodeEditor() {
-        EditorFactory editorFactory = EditorFactory.getInstance();
-        Document document = editorFactory.createDocument("");
-        EditorEx editor = (EditorEx) editorFactory.createViewer(document, project);
-        editor.setEmbeddedIntoDialogWrapper(true);
-
-        editor.getComponent().setBorder(BorderFactory.createLineBorder(JBColor.GRAY, 1));
-
-        EditorSettings settings = editor.getSettings();
-        settings.setLineNumbersShown(true);
-
-        EditorColorsScheme scheme = EditorColorsManager.getInstance().getGlobalScheme();
-        editor.setColorsScheme(scheme);
-        editor.setBackgroundColor(scheme.getDefaultBackground());
-
-        return editor;
-    }
-
-    /**
-     * Creates the content for the ExplainCode tool window.
+     * Creates the initial content for the ExplainCode tool window, shown until the first explanation is requested.
      *
      * @return The created content for the tool window.
      */
     public Content createContent() {
-        JBSplitter splitter = getJbSplitter();
-
-        JPanel buttonPanel = new JPanel(new BorderLayout());
-        buttonPanel.add(apiKeyButton, BorderLayout.EAST);
-
-        // Main container panel
-        JPanel mainPanel = new JPanel(new BorderLayout());
-        mainPanel.add(splitter, BorderLayout.CENTER);
-        mainPanel.add(buttonPanel, BorderLayout.SOUTH);
-
-        ContentFactory contentFactory = ContentFactory.getInstance();
-        return contentFactory.createContent(mainPanel, "", false);
-    }
-
-
-    @NotNull
-    private JBSplitter getJbSplitter() {
-        JBSplitter splitter = new JBSplitter(true, 0.5f);
-
-        JScrollPane codeScrollPane = new JBScrollPane(codeEditor.getComponent());
-        splitter.setFirstComponent(codeScrollPane);
-
-        JScrollPane explanationScrollPane = new JBScrollPane(explanationArea);
-        splitter.setSecondComponent(explanationScrollPane);
-        return splitter;
+        ExplanationPanel panel = new ExplanationPanel(project);
+        welcomeContent = ContentFactory.getInstance().createContent(panel.getComponent(), "", false);
+        welcomeContent.setDisposer(panel);
+        Disposer.register(this, panel);
+        return welcomeContent;
     }
 
     /**
-     * Updates the code editor with the provided code and sets the syntax highlighter based on the language.
+     * Opens a new tab for an explanation and selects it. An existing tab for the same function is closed, cancelling
+     * its request, and the oldest tabs are closed once more than {@value #MAX_TABS} are open.
      *
-     * @param code     The code to be displayed in the editor.
-     * @param language The language associated with the code.
+     * @param key   The key identifying the explained function.
+     * @param title The title of the tab.
+     * @return The panel of the new tab, or null if the tool window is not available.
      */
-    public void updateCode(String code, Language language) {
-        FileType fileType = language.getAssociatedFileType();
-        Document document = codeEditor.getDocument();
-
-        WriteCommandAction.runWriteCommandAction(project, () -> document.replaceString(0, document.getTextLength(), code));
+    public ExplanationPanel openTab(String key, String title) {
+        ToolWindow toolWindow = ToolWindowManager.getInstance(project).getToolWindow(TOOL_WINDOW_ID);
+        if (toolWindow == null) {
+            return null;
+        }
+        ContentManager contentManager = toolWindow.getContentManager();
+        if (welcomeContent != null) {
+            contentManager.removeContent(welcomeContent, true);
+            welcomeContent = null;
+        }
 
-        EditorHighlighter highlighter = EditorHighlighterFactory.getInstance().createEditorHighlighter(project, fileType);
-        codeEditor.setHighlighter(highlighter);
-    }
+        tabs.values().removeIf(content -> content.getManager() == null);
+        Content previous = tabs.remove(key);
+        if (previous != null) {
+            contentManager.removeContent(previous, true);
+        }
+        Iterator<Content> oldest = tabs.values().iterator();
+        while (tabs.size() >= MAX_TABS && oldest.hasNext()) {
+            Content stale = oldest.next();
+            oldest.remove();
+            contentManager.removeContent(stale, true);
+        }
 
-    /**
-     * Updates the explanation text displayed in the explanation area.
-     *
-     * @param explanation The explanation to be displayed.
-     */
-    public void updateExplanation(String explanation) {
-        explanationArea.setText(explanation);
+        ExplanationPanel panel = new ExplanationPanel(project);
+        Content content = ContentFactory.getInstance().createContent(panel.getComponent(), title, false);
+        content.setDisposer(panel);
+        content.setCloseable(true);
+        Disposer.register(this, panel);
+        contentManager.addContent(content);
+        contentManager.setSelectedContent(content);
+        tabs.put(key, content);
+        return panel;
     }
 
-    /**
-     * Gets the text content of the explanation area.
-     *
-     * @return The text content of the explanation area.
-     */
-    public String getExplanationText() {
-        return explanationArea.getText();
+    @Override
+    public void dispose() {
+        tabs.clear();
+        welcomeContent = null;
     }
 }
@@ -0,0 +1,113 @@
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import com.jetbrains.python.psi.PyFunction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A project-level cache of the last explanation produced for each function, together with the version of the
+ * function it was produced for.
+ */
+public class ExplanationCache {
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Builds the key under which the explanation of a function is stored.
+     * The key combines the path of the containing file with the qualified name of the function.
+     *
+     * @param function The Python function.
+     * @return The cache key.
+     */
+    public static String keyFor(PyFunction function) {
+        PsiFile file = function.getContainingFile();
+        VirtualFile virtualFile = file == null ? null : file.getVirtualFile();
+        String location = virtualFile != null ? virtualFile.getPath() : file != null ? file.getName() : "";
+        String name = function.getQualifiedName() != null ? function.getQualifiedName() : function.getName();
+        return location + "#" + name;
+    }
+
+    /**
+     * Retrieves the last explained version of a function.
+     *
+     * @param key The cache key of the function.
+     * @return The cached entry, or null if the function was never explained.
+     */
+    public Entry get(String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Stores the explanation of a function, replacing any previous version.
+     *
+     * @param key         The cache key of the function.
+     * @param code        The text of the explained function.
+     * @param units       The statement units of the explained function.
+     * @param explanation The explanation received from the Language Model.
+     */
+    public void put(String key, String code, List<String> units, String explanation) {
+        entries.put(key, new Entry(code, List.copyOf(units), explanation));
+    }
+
+    /**
+     * Lists the keys of the cached explanations of the functions in a file.
+     *
+     * @param path The path of the file.
+     * @return The cache keys.
+     */
+    public List<String> keysInFile(String path) {
+        String prefix = path + "#";
+        List<String> keys = new ArrayList<>();
+        for (String key : entries.keySet()) {
+            if (key.startsWith(prefix)) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Removes the cached explanation of a function.
+     *
+     * @param key The cache key of the function.
+     */
+    public void invalidate(String key) {
+        entries.remove(key);
+    }
+
+    /**
+     * A previously explained version of a function and its explanation.
+     */
+    public static class Entry {
+        private final String code;
+        private final List<String> units;
+        private final String explanation;
+
+        /**
+         * Constructs an Entry.
+         *
+         * @param code        The text of the explained function.
+         * @param units       The statement units of the explained function.
+         * @param explanation The explanation of the function.
+         */
+        Entry(String code, List<String> units, String explanation) {
+            this.code = code;
+            this.units = units;
+            this.explanation = explanation;
+        }
+
+        public String getCode() {
+            return code;
+        }
+
+        public List<String> getUnits() {
+            return units;
+        }
+
+        public String getExplanation() {
+            return explanation;
+        }
+    }
+}
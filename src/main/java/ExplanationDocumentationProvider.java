@@ -0,0 +1,97 @@
+import com.intellij.lang.documentation.AbstractDocumentationProvider;
+import com.intellij.lang.documentation.DocumentationMarkup;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.SmartPointerManager;
+import com.jetbrains.python.documentation.PythonDocumentationProvider;
+import com.jetbrains.python.psi.PyFunction;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Adds the cached explanation of a Python function to its Quick Documentation and hover popup, below the regular
+ * Python documentation. Only the in-memory {@link ExplanationCache} is consulted, so the popup is as fast as a
+ * docstring and never waits for the network. Projects where the plugin has not been used have no cache, and hovering
+ * in them neither creates one nor sends any request.
+ * <p>
+ * With {@code -D}{@value #HOVER_PREFETCH_PROPERTY}{@code =true}, showing the documentation of a function that has no
+ * explanation yet, or whose code changed since it was explained, also queues a prefetch request, so the explanation
+ * is ready the next time. Prefetching spends tokens the user did not ask for, so it is off by default.
+ */
+public class ExplanationDocumentationProvider extends AbstractDocumentationProvider {
+    static final String HOVER_PREFETCH_PROPERTY = "explain.prefetch.hover";
+    private static final long PREFETCH_DEADLINE_MS = 10 * 60_000;
+    static final int MAX_PENDING_PREFETCHES = 16;
+    private final PythonDocumentationProvider pythonDocumentation = new PythonDocumentationProvider();
+
+    @Override
+    public @Nullable String generateDoc(PsiElement element, @Nullable PsiElement originalElement) {
+        if (!(element instanceof PyFunction function)) {
+            return null;
+        }
+        ExplanationCache cache = function.getProject().getServiceIfCreated(ExplanationCache.class);
+        if (cache == null) {
+            return null;
+        }
+
+        String key = ExplanationCache.keyFor(function);
+        ExplanationCache.Entry entry = cache.get(key);
+        boolean upToDate = entry != null && entry.getCode().equals(function.getText());
+        if (!upToDate && Boolean.getBoolean(HOVER_PREFETCH_PROPERTY)) {
+            prefetch(key, function);
+        }
+        if (entry == null) {
+            return null;
+        }
+        String standardDoc = pythonDocumentation.generateDoc(element, originalElement);
+        return renderHtml(function.getName(), entry.getExplanation(), upToDate, standardDoc);
+    }
+
+    /**
+     * Renders an explanation as a documentation popup, below the regular documentation if there is one.
+     *
+     * @param name        The name of the function, shown as the definition when there is no regular documentation.
+     * @param explanation The explanation.
+     * @param upToDate    Whether the explanation matches the current code of the function.
+     * @param standardDoc The regular documentation of the function, or null if there is none.
+     * @return The HTML of the popup.
+     */
+    static String renderHtml(String name, String explanation, boolean upToDate, @Nullable String standardDoc) {
+        StringBuilder html = new StringBuilder();
+        if (standardDoc != null) {
+            html.append(standardDoc);
+        } else {
+            html.append(DocumentationMarkup.DEFINITION_START).append(StringUtil.escapeXmlEntities(String.valueOf(name)))
+                    .append(DocumentationMarkup.DEFINITION_END);
+        }
+        html.append(DocumentationMarkup.CONTENT_START);
+        for (String paragraph : explanation.trim().split("\n\\s*\n")) {
+            html.append("<p>").append(StringUtil.escapeXmlEntities(paragraph.trim()).replace("\n", "<br>")).append("</p>");
+        }
+        html.append(DocumentationMarkup.CONTENT_END);
+        if (!upToDate) {
+            html.append(DocumentationMarkup.SECTIONS_START)
+                    .append(DocumentationMarkup.SECTION_HEADER_START).append("Note:").append(DocumentationMarkup.SECTION_SEPARATOR)
+                    .append("Explains an earlier version of this function; an update has been requested.")
+                    .append(DocumentationMarkup.SECTION_END)
+                    .append(DocumentationMarkup.SECTIONS_END);
+        }
+        return html.toString();
+    }
+
+    /**
+     * Queues a prefetch request explaining the function, unless a request the user did not ask for is already pending
+     * for it, see {@link PendingExplanations}. No prefetch is queued while {@value #MAX_PENDING_PREFETCHES} such
+     * requests are pending, so browsing through many functions does not use up the token budget. Nothing is queued
+     * when the request would have to ask the user for an API key, since the user did not ask for the explanation.
+     *
+     * @param key      The cache key of the function.
+     * @param function The Python function.
+     */
+    static void prefetch(String key, PyFunction function) {
+        if (!ChatGPTApiClient.canSendWithoutPrompt() || !PendingExplanations.tryAdd(key, MAX_PENDING_PREFETCHES)) {
+            return;
+        }
+        PendingExplanations.submit(key, SmartPointerManager.getInstance(function.getProject()).createSmartPsiElementPointer(function),
+                ExplanationPriority.PREFETCH, PREFETCH_DEADLINE_MS);
+    }
+}
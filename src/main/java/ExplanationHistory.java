@@ -0,0 +1,435 @@
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A project-level history of every explanation produced, per function and version. Explanations are deflated and
+ * appended to a file in the IDE system directory; the heap only holds a small index entry per explanation and a cache
+ * of recently viewed explanations limited to {@value #DEFAULT_HEAP_CAP_CHARS} characters. Thousands of entries
+ * therefore cost little memory, and revisiting a recent explanation costs a map lookup. Once the file grows beyond
+ * {@value #DEFAULT_MAX_FILE_BYTES} bytes, it is compacted to half that size by dropping the oldest explanations,
+ * except the latest explanation of each function.
+ */
+public class ExplanationHistory implements Disposable {
+    private static final Logger LOG = Logger.getInstance(ExplanationHistory.class);
+    static final int DEFAULT_HEAP_CAP_CHARS = 256 * 1024;
+    static final long DEFAULT_MAX_FILE_BYTES = 32L * 1024 * 1024;
+    private static final int RECORD_HEADER_BYTES = Integer.BYTES;
+
+    private final Path path;
+    private FileChannel channel;
+    private final Map<String, List<Entry>> entriesByKey = new HashMap<>();
+    private final LinkedHashMap<Entry, String> recentlyViewed = new LinkedHashMap<>(16, 0.75f, true);
+    private final int heapCapChars;
+    private final long maxFileBytes;
+    private int cachedChars = 0;
+
+    /**
+     * Constructs the history of the given project. The history file is opened on first use.
+     *
+     * @param project The project whose explanations are recorded.
+     */
+    public ExplanationHistory(Project project) {
+        this(pathOf(project), DEFAULT_HEAP_CAP_CHARS);
+    }
+
+    /**
+     * Checks whether the plugin was ever used in a project, i.e. whether the project has a history file, without
+     * creating the history service.
+     *
+     * @param project The project.
+     * @return true if the project has a history file, false otherwise.
+     */
+    public static boolean existsFor(Project project) {
+        return Files.exists(pathOf(project));
+    }
+
+    private static Path pathOf(Project project) {
+        return Path.of(PathManager.getSystemPath(), "explain-method", "history", project.getLocationHash() + ".bin");
+    }
+
+    /**
+     * Constructs the history stored at the given path. The file is created on first use if needed.
+     *
+     * @param path         The path of the history file.
+     * @param heapCapChars The maximum number of characters of decompressed explanations kept on the heap.
+     */
+    ExplanationHistory(Path path, int heapCapChars) {
+        this(path, heapCapChars, DEFAULT_MAX_FILE_BYTES);
+    }
+
+    /**
+     * Constructs the history stored at the given path, compacting the file beyond the given size.
+     *
+     * @param path         The path of the history file.
+     * @param heapCapChars The maximum number of characters of decompressed explanations kept on the heap.
+     * @param maxFileBytes The size of the history file beyond which it is compacted.
+     */
+    ExplanationHistory(Path path, int heapCapChars, long maxFileBytes) {
+        this.path = path;
+        this.heapCapChars = heapCapChars;
+        this.maxFileBytes = maxFileBytes;
+    }
+
+    /**
+     * Opens the history file and loads its index, unless already done. A partially written last record left behind
+     * by a crash is discarded.
+     *
+     * @throws IOException If the history file cannot be opened or read.
+     */
+    private void ensureOpen() throws IOException {
+        if (channel != null) {
+            return;
+        }
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long validLength = loadIndex();
+        channel.truncate(validLength);
+        channel.position(validLength);
+        compactIfNeeded();
+    }
+
+    /**
+     * Reads the headers of all records into the index, without decompressing any explanation.
+     *
+     * @return The length in bytes of the well-formed prefix of the file.
+     * @throws IOException If the file cannot be read.
+     */
+    private long loadIndex() throws IOException {
+        long position = 0;
+        long size = channel.size();
+        ByteBuffer lengthBuffer = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+        while (position + RECORD_HEADER_BYTES <= size) {
+            lengthBuffer.clear();
+            channel.read(lengthBuffer, position);
+            int recordLength = lengthBuffer.flip().getInt();
+            if (recordLength <= 0 || position + RECORD_HEADER_BYTES + recordLength > size) {
+                break;
+            }
+            ByteBuffer record = ByteBuffer.allocate(recordLength);
+            channel.read(record, position + RECORD_HEADER_BYTES);
+            record.flip();
+            try {
+                String key = readString(record);
+                String codeHash = readString(record);
+                long timestamp = record.getLong();
+                int explanationLength = record.getInt();
+                long compressedOffset = position + RECORD_HEADER_BYTES + record.position();
+                addToIndex(new Entry(key, codeHash, timestamp, compressedOffset, (int) (compressedOffset - position), record.remaining(), explanationLength));
+            } catch (RuntimeException e) {
+                break;
+            }
+            position += RECORD_HEADER_BYTES + recordLength;
+        }
+        return position;
+    }
+
+    /**
+     * Records an explanation of a function version. Recording the same explanation for the same version again
+     * does nothing.
+     *
+     * @param key         The key of the function, see {@link ExplanationCache#keyFor}.
+     * @param codeHash    The hash of the explained code.
+     * @param explanation The explanation.
+     * @return The new history entry, or the existing one if the explanation was already recorded.
+     * @throws IOException If the entry cannot be written.
+     */
+    public synchronized Entry record(String key, String codeHash, String explanation) throws IOException {
+        ensureOpen();
+        List<Entry> versions = entriesByKey.get(key);
+        if (versions != null && !versions.isEmpty()) {
+            Entry latest = versions.get(versions.size() - 1);
+            if (latest.codeHash.equals(codeHash) && explanation.equals(load(latest))) {
+                return latest;
+            }
+        }
+
+        byte[] compressed = deflate(explanation);
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        long timestamp = System.currentTimeMillis();
+        try (DataOutputStream header = new DataOutputStream(headerBytes)) {
+            writeString(header, key);
+            writeString(header, codeHash);
+            header.writeLong(timestamp);
+            header.writeInt(explanation.length());
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + headerBytes.size() + compressed.length);
+        record.putInt(headerBytes.size() + compressed.length).put(headerBytes.toByteArray()).put(compressed).flip();
+        long recordStart = channel.position();
+        while (record.hasRemaining()) {
+            channel.write(record);
+        }
+
+        int prefixLength = RECORD_HEADER_BYTES + headerBytes.size();
+        Entry entry = new Entry(key, codeHash, timestamp, recordStart + prefixLength, prefixLength, compressed.length, explanation.length());
+        addToIndex(entry);
+        cache(entry, explanation);
+        compactIfNeeded();
+        return entry;
+    }
+
+    /**
+     * Compacts the history file if it grew beyond the maximum size: the oldest explanations are dropped until the
+     * rest fit in half the maximum size, keeping the latest explanation of every function, and the remaining records
+     * are copied to a new file that replaces the old one. Entries that were dropped can no longer be loaded.
+     *
+     * @throws IOException If the file cannot be compacted.
+     */
+    private void compactIfNeeded() throws IOException {
+        if (channel.size() <= maxFileBytes) {
+            return;
+        }
+        List<Entry> entries = new ArrayList<>();
+        Set<Entry> latest = Collections.newSetFromMap(new IdentityHashMap<>());
+        long retainedBytes = 0;
+        for (List<Entry> versions : entriesByKey.values()) {
+            entries.addAll(versions);
+            latest.add(versions.get(versions.size() - 1));
+            for (Entry entry : versions) {
+                retainedBytes += entry.prefixLength + entry.compressedLength;
+            }
+        }
+        entries.sort(Comparator.comparingLong(entry -> entry.offset));
+
+        Set<Entry> dropped = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Entry entry : entries) {
+            if (retainedBytes <= maxFileBytes / 2) {
+                break;
+            }
+            if (!latest.contains(entry)) {
+                dropped.add(entry);
+                retainedBytes -= entry.prefixLength + entry.compressedLength;
+            }
+        }
+
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel output = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (Entry entry : entries) {
+                if (dropped.contains(entry)) {
+                    continue;
+                }
+                long recordStart = entry.offset - entry.prefixLength;
+                long recordLength = entry.prefixLength + entry.compressedLength;
+                long newRecordStart = output.position();
+                for (long copied = 0; copied < recordLength; ) {
+                    copied += channel.transferTo(recordStart + copied, recordLength - copied, output);
+                }
+                entry.offset = newRecordStart + entry.prefixLength;
+            }
+        }
+        channel.close();
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+
+        for (Entry entry : dropped) {
+            entriesByKey.get(entry.key).remove(entry);
+            String cached = recentlyViewed.remove(entry);
+            if (cached != null) {
+                cachedChars -= cached.length();
+            }
+            entry.offset = -1;
+        }
+        LOG.info("Compacted the explanation history, dropping " + dropped.size() + " old explanations");
+    }
+
+    /**
+     * Gets the recorded versions of a function's explanation.
+     *
+     * @param key The key of the function.
+     * @return The entries, newest first.
+     * @throws IOException If the history file cannot be opened.
+     */
+    public synchronized List<Entry> getEntries(String key) throws IOException {
+        ensureOpen();
+        List<Entry> versions = new ArrayList<>(entriesByKey.getOrDefault(key, Collections.emptyList()));
+        Collections.reverse(versions);
+        return versions;
+    }
+
+    /**
+     * Loads the explanation of an entry, from the cache of recently viewed explanations or else from disk.
+     *
+     * @param entry The history entry.
+     * @return The explanation.
+     * @throws IOException If the entry cannot be read.
+     */
+    public synchronized String load(Entry entry) throws IOException {
+        String cached = recentlyViewed.get(entry);
+        if (cached != null) {
+            return cached;
+        }
+        ensureOpen();
+        if (entry.offset < 0) {
+            throw new IOException("History entry was dropped to keep the history small.");
+        }
+        ByteBuffer compressed = ByteBuffer.allocate(entry.compressedLength);
+        while (compressed.hasRemaining()) {
+            if (channel.read(compressed, entry.offset + compressed.position()) < 0) {
+                throw new IOException("History entry is truncated.");
+            }
+        }
+        String explanation = inflate(compressed.array(), entry.explanationLength);
+        cache(entry, explanation);
+        return explanation;
+    }
+
+    /**
+     * Gets the number of recorded explanations.
+     *
+     * @return The number of entries.
+     * @throws IOException If the history file cannot be opened.
+     */
+    public synchronized int size() throws IOException {
+        ensureOpen();
+        int size = 0;
+        for (List<Entry> versions : entriesByKey.values()) {
+            size += versions.size();
+        }
+        return size;
+    }
+
+    synchronized int getCachedChars() {
+        return cachedChars;
+    }
+
+    private void addToIndex(Entry entry) {
+        entriesByKey.computeIfAbsent(entry.key, key -> new ArrayList<>(1)).add(entry);
+    }
+
+    /**
+     * Keeps a decompressed explanation on the heap, evicting the least recently viewed ones beyond the heap cap.
+     */
+    private void cache(Entry entry, String explanation) {
+        if (explanation.length() > heapCapChars) {
+            return;
+        }
+        if (recentlyViewed.put(entry, explanation) == null) {
+            cachedChars += explanation.length();
+        }
+        Iterator<Map.Entry<Entry, String>> eldest = recentlyViewed.entrySet().iterator();
+        while (cachedChars > heapCapChars && eldest.hasNext()) {
+            cachedChars -= eldest.next().getValue().length();
+            eldest.remove();
+        }
+    }
+
+    private static byte[] deflate(String text) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setInput(text.getBytes(StandardCharsets.UTF_8));
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static String inflate(byte[] compressed, int expectedChars) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(expectedChars);
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                int inflated = inflater.inflate(buffer);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("History entry is corrupted.");
+                }
+                out.write(buffer, 0, inflated);
+            }
+            return out.toString(StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            throw new IOException("History entry is corrupted.", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public synchronized void dispose() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOG.warn("Could not close the explanation history: " + e.getMessage());
+        }
+    }
+
+    /**
+     * A recorded explanation: the function version it belongs to and where its compressed text is stored. The offset
+     * moves when the file is compacted, and is negative once the entry was dropped.
+     */
+    public static class Entry {
+        final String key;
+        final String codeHash;
+        final long timestamp;
+        long offset;
+        final int prefixLength;
+        final int compressedLength;
+        final int explanationLength;
+
+        Entry(String key, String codeHash, long timestamp, long offset, int prefixLength, int compressedLength, int explanationLength) {
+            this.key = key;
+            this.codeHash = codeHash;
+            this.timestamp = timestamp;
+            this.offset = offset;
+            this.prefixLength = prefixLength;
+            this.compressedLength = compressedLength;
+            this.explanationLength = explanationLength;
+        }
+
+        public String getCodeHash() {
+            return codeHash;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+import com.intellij.openapi.diagnostic.Logger;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * An append-only JSONL file of explanations produced by a bulk run. Each line holds the key of a function, the hash of
+ * the code that was explained and the explanation. The journal is forced to disk and a checkpoint file is written
+ * every {@value #CHECKPOINT_INTERVAL} entries, so an interrupted run can resume without explaining anything twice.
+ */
+public class ExplanationJournal implements AutoCloseable {
+    private static final Logger LOG = Logger.getInstance(ExplanationJournal.class);
+    static final int CHECKPOINT_INTERVAL = 25;
+
+    private final Path journalPath;
+    private final Path checkpointPath;
+    private final FileChannel channel;
+    private final Set<String> completed = new HashSet<>();
+    private int entriesSinceCheckpoint = 0;
+
+    /**
+     * Opens the journal at the given path, creating it if needed. Existing entries are loaded so they can be skipped;
+     * a partially written tail left behind by an interrupted run is discarded. Lines within the length recorded by
+     * the last checkpoint were forced to disk, so a malformed one there is corruption rather than a torn write; it is
+     * skipped without discarding the entries after it.
+     *
+     * @param journalPath The path of the JSONL file.
+     * @throws IOException If the journal cannot be read or opened for writing.
+     */
+    public ExplanationJournal(Path journalPath) throws IOException {
+        this.journalPath = journalPath;
+        this.checkpointPath = journalPath.resolveSibling(journalPath.getFileName() + ".checkpoint");
+        long validLength = loadExistingEntries();
+        this.channel = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.truncate(validLength);
+        channel.position(validLength);
+    }
+
+    /**
+     * Reads the entries already in the journal.
+     *
+     * @return The length in bytes of the well-formed prefix of the journal.
+     * @throws IOException If the journal cannot be read.
+     */
+    private long loadExistingEntries() throws IOException {
+        if (!Files.exists(journalPath)) {
+            return 0;
+        }
+        byte[] content = Files.readAllBytes(journalPath);
+        long durableLength = readCheckpointedLength();
+        if (content.length < durableLength) {
+            LOG.warn(journalPath + " is shorter than its last checkpoint; the missing functions will be explained again");
+        }
+        long validLength = 0;
+        int lineStart = 0;
+        for (int i = 0; i < content.length; i++) {
+            if (content[i] != '\n') {
+                continue;
+            }
+            String line = new String(content, lineStart, i - lineStart, StandardCharsets.UTF_8);
+            try {
+                JSONObject entry = new JSONObject(line);
+                completed.add(completionKey(entry.getString("key"), entry.getString("hash")));
+            } catch (JSONException e) {
+                if (i >= durableLength) {
+                    break;
+                }
+                LOG.warn("Skipping corrupt line at byte " + lineStart + " of " + journalPath);
+            }
+            lineStart = i + 1;
+            validLength = lineStart;
+        }
+        return validLength;
+    }
+
+    /**
+     * Reads the length of the journal recorded by the last checkpoint.
+     *
+     * @return The durable length in bytes, or 0 if there is no readable checkpoint.
+     */
+    private long readCheckpointedLength() {
+        try {
+            return new JSONObject(Files.readString(checkpointPath)).optLong("bytes", 0);
+        } catch (IOException | JSONException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Checks whether the given version of a function has already been explained.
+     *
+     * @param key  The key of the function.
+     * @param hash The hash of the function's code.
+     * @return true if the journal already holds an explanation for this version, false otherwise.
+     */
+    public synchronized boolean isCompleted(String key, String hash) {
+        return completed.contains(completionKey(key, hash));
+    }
+
+    /**
+     * Appends an explanation to the journal and writes a checkpoint if one is due.
+     *
+     * @param key         The key of the function.
+     * @param hash        The hash of the function's code.
+     * @param explanation The explanation of the function.
+     * @throws IOException If the entry cannot be written.
+     */
+    public synchronized void append(String key, String hash, String explanation) throws IOException {
+        JSONObject entry = new JSONObject();
+        entry.put("key", key);
+        entry.put("hash", hash);
+        entry.put("explanation", explanation);
+        ByteBuffer line = ByteBuffer.wrap((entry + "\n").getBytes(StandardCharsets.UTF_8));
+        while (line.hasRemaining()) {
+            channel.write(line);
+        }
+        completed.add(completionKey(key, hash));
+
+        if (++entriesSinceCheckpoint >= CHECKPOINT_INTERVAL) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * Forces the journal to disk and records the number of entries and the durable length in the checkpoint file.
+     *
+     * @throws IOException If the journal cannot be forced or the checkpoint cannot be written.
+     */
+    public synchronized void checkpoint() throws IOException {
+        channel.force(false);
+        JSONObject checkpoint = new JSONObject();
+        checkpoint.put("entries", completed.size());
+        checkpoint.put("bytes", channel.position());
+        checkpoint.put("timestamp", System.currentTimeMillis());
+
+        Path temporary = checkpointPath.resolveSibling(checkpointPath.getFileName() + ".tmp");
+        Files.writeString(temporary, checkpoint.toString());
+        Files.move(temporary, checkpointPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        entriesSinceCheckpoint = 0;
+    }
+
+    /**
+     * Gets the number of functions explained in the journal, including those from previous runs.
+     *
+     * @return The number of entries.
+     */
+    public synchronized int size() {
+        return completed.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        checkpoint();
+        channel.close();
+    }
+
+    private static String completionKey(String key, String hash) {
+        return key + "@" + hash;
+    }
+}
@@ -0,0 +1,395 @@
+import com.intellij.lang.Language;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.EditorFactory;
+import com.intellij.openapi.editor.EditorSettings;
+import com.intellij.openapi.editor.colors.EditorColorsManager;
+import com.intellij.openapi.editor.colors.EditorColorsScheme;
+import com.intellij.openapi.editor.ex.EditorEx;
+import com.intellij.openapi.editor.highlighter.EditorHighlighter;
+import com.intellij.openapi.editor.highlighter.EditorHighlighterFactory;
+import com.intellij.openapi.fileTypes.FileType;
+import com.intellij.openapi.project.Project;
+import com.intellij.ui.JBColor;
+import com.intellij.ui.JBSplitter;
+import com.intellij.ui.components.JBScrollPane;
+import org.jetbrains.annotations.NotNull;
+
+import javax.swing.*;
+import java.awt.*;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The content of a single tab of the ExplainCode tool window: the explained code, its explanation, a status line and a
+ * field for follow-up questions. The code editor is only created when the first code is shown, so the welcome tab
+ * costs no editor. Disposing the panel cancels its request and releases its editor.
+ */
+public class ExplanationPanel implements Disposable {
+    private static final long FOLLOW_UP_DEADLINE_MS = 60_000;
+    private final Project project;
+    private final JPanel codePanel = new JPanel(new BorderLayout());
+    private EditorEx codeEditor;
+    private final ExplanationRenderer explanationRenderer;
+    private final JLabel statusLabel;
+    private final JComboBox<HistoryItem> historyBox;
+    private final JTextField questionField;
+    private final JButton askButton;
+    private final JPanel mainPanel;
+    private FileType highlightedFileType;
+    private ExplanationScheduler.Task request;
+    private ConversationState conversation;
+    private boolean disposed = false;
+    private boolean updatingHistory = false;
+
+    /**
+     * Constructs an ExplanationPanel.
+     *
+     * @param project The Project associated with the panel.
+     */
+    public ExplanationPanel(Project project) {
+        this.project = project;
+        this.explanationRenderer = new ExplanationRenderer();
+        this.statusLabel = new JLabel(" ");
+        this.historyBox = new JComboBox<>();
+        this.questionField = new JTextField();
+        this.askButton = new JButton("Ask");
+        this.explanationRenderer.setText("Explanation will appear here...");
+        this.mainPanel = createMainPanel();
+    }
+
+    /**
+     * Gets the code editor, creating it in place of the placeholder on first use. Must be called on the EDT.
+     *
+     * @return The code editor.
+     */
+    private EditorEx getCodeEditor() {
+        if (codeEditor == null) {
+            codeEditor = createCodeEditor();
+            codePanel.removeAll();
+            codePanel.add(new JBScrollPane(codeEditor.getComponent()), BorderLayout.CENTER);
+            codePanel.revalidate();
+        }
+        return codeEditor;
+    }
+
+    /**
+     * Creates a code editor for displaying and editing code.
+     *
+     * @return The created code editor.
+     */
+    private EditorEx createCodeEditor() {
+        EditorFactory editorFactory = EditorFactory.getInstance();
+        Document document = editorFactory.createDocument("");
+        EditorEx editor = (EditorEx) editorFactory.createViewer(document, project);
+        editor.setEmbeddedIntoDialogWrapper(true);
+
+        editor.getComponent().setBorder(BorderFactory.createLineBorder(JBColor.GRAY, 1));
+
+        EditorSettings settings = editor.getSettings();
+        settings.setLineNumbersShown(true);
+
+        EditorColorsScheme scheme = EditorColorsManager.getInstance().getGlobalScheme();
+        editor.setColorsScheme(scheme);
+        editor.setBackgroundColor(scheme.getDefaultBackground());
+
+        return editor;
+    }
+
+    /**
+     * Creates the panel holding the code editor, the explanation and the API key button.
+     *
+     * @return The created panel.
+     */
+    private JPanel createMainPanel() {
+        JBSplitter splitter = getJbSplitter();
+
+        JButton apiKeyButton = new JButton("Update API Key");
+        apiKeyButton.addActionListener(e -> ExplainCodeToolWindowContentFactory.promptAndUpdateApiKey());
+        JPanel buttonPanel = new JPanel(new BorderLayout());
+        buttonPanel.add(createQuestionPanel(), BorderLayout.CENTER);
+        buttonPanel.add(apiKeyButton, BorderLayout.EAST);
+
+        JPanel panel = new JPanel(new BorderLayout());
+        panel.add(splitter, BorderLayout.CENTER);
+        panel.add(buttonPanel, BorderLayout.SOUTH);
+        return panel;
+    }
+
+    /**
+     * Creates the header above the explanation: the status line and the selector of earlier explanations.
+     *
+     * @return The created panel.
+     */
+    private JPanel createHeaderPanel() {
+        historyBox.setVisible(false);
+        historyBox.setToolTipText("Earlier explanations of this function");
+        historyBox.addActionListener(e -> {
+            HistoryItem item = (HistoryItem) historyBox.getSelectedItem();
+            if (item != null && !updatingHistory) {
+                showHistoryEntry(item.entry);
+            }
+        });
+
+        JPanel headerPanel = new JPanel(new BorderLayout());
+        headerPanel.add(statusLabel, BorderLayout.CENTER);
+        headerPanel.add(historyBox, BorderLayout.EAST);
+        return headerPanel;
+    }
+
+    /**
+     * Lists the recorded explanations of a function in the history selector. The selector is only shown if there is
+     * more than one. The history is read on a pooled thread.
+     *
+     * @param key The key of the function.
+     */
+    public void showHistory(String key) {
+        ExplanationHistory history = project.getService(ExplanationHistory.class);
+        if (history == null) {
+            return;
+        }
+        ApplicationManager.getApplication().executeOnPooledThread(() -> {
+            List<ExplanationHistory.Entry> entries;
+            try {
+                entries = history.getEntries(key);
+            } catch (IOException e) {
+                return;
+            }
+            SwingUtilities.invokeLater(() -> {
+                updatingHistory = true;
+                try {
+                    historyBox.removeAllItems();
+                    for (int i = 0; i < entries.size(); i++) {
+                        historyBox.addItem(new HistoryItem(entries.get(i), i == 0));
+                    }
+                } finally {
+                    updatingHistory = false;
+                }
+                historyBox.setVisible(entries.size() > 1);
+            });
+        });
+    }
+
+    /**
+     * Displays a recorded explanation. It is loaded on a pooled thread, which costs nothing for recently viewed ones.
+     *
+     * @param entry The history entry.
+     */
+    private void showHistoryEntry(ExplanationHistory.Entry entry) {
+        ExplanationHistory history = project.getService(ExplanationHistory.class);
+        ApplicationManager.getApplication().executeOnPooledThread(() -> {
+            try {
+                String explanation = history.load(entry);
+                SwingUtilities.invokeLater(() -> {
+                    if (!disposed) {
+                        explanationRenderer.setText(explanation);
+                    }
+                });
+            } catch (IOException e) {
+                SwingUtilities.invokeLater(() -> updateStatus("Could not load explanation: " + e.getMessage()));
+            }
+        });
+    }
+
+    /**
+     * Creates the field for follow-up questions. It is enabled once an explanation is available.
+     *
+     * @return The created panel.
+     */
+    private JPanel createQuestionPanel() {
+        questionField.setToolTipText("Ask a follow-up question about this function");
+        questionField.addActionListener(e -> askFollowUp());
+        askButton.addActionListener(e -> askFollowUp());
+        setQuestionEnabled(false);
+
+        JPanel questionPanel = new JPanel(new BorderLayout());
+        questionPanel.add(questionField, BorderLayout.CENTER);
+        questionPanel.add(askButton, BorderLayout.EAST);
+        return questionPanel;
+    }
+
+    @NotNull
+    private JBSplitter getJbSplitter() {
+        JBSplitter splitter = new JBSplitter(true, 0.5f);
+
+        JLabel placeholder = new JLabel("Select a Python function and choose \"Explain Method\".", SwingConstants.CENTER);
+        codePanel.add(placeholder, BorderLayout.CENTER);
+        splitter.setFirstComponent(codePanel);
+
+        JPanel explanationPanel = new JPanel(new BorderLayout());
+        explanationPanel.add(createHeaderPanel(), BorderLayout.NORTH);
+        explanationPanel.add(new JBScrollPane(explanationRenderer.getComponent()), BorderLayout.CENTER);
+        splitter.setSecondComponent(explanationPanel);
+        return splitter;
+    }
+
+    /**
+     * Gets the root component of the panel.
+     *
+     * @return The root component.
+     */
+    public JComponent getComponent() {
+        return mainPanel;
+    }
+
+    /**
+     * Attaches the request producing this panel's explanation, so that it is cancelled when the panel is closed.
+     *
+     * @param request The scheduled request.
+     */
+    public void setRequest(ExplanationScheduler.Task request) {
+        this.request = request;
+        if (disposed) {
+            request.cancel();
+        }
+    }
+
+    /**
+     * Enables follow-up questions about the explanation shown in the panel. Must be called on the EDT.
+     *
+     * @param conversation The conversation the questions are added to.
+     */
+    public void startConversation(ConversationState conversation) {
+        this.conversation = conversation;
+        setQuestionEnabled(true);
+    }
+
+    /**
+     * Asks the question in the question field as a foreground request. The question and its answer are appended
+     * below the explanation; the field is disabled until the answer is complete.
+     */
+    private void askFollowUp() {
+        String question = questionField.getText().trim();
+        if (conversation == null || question.isEmpty() || disposed) {
+            return;
+        }
+        questionField.setText("");
+        setQuestionEnabled(false);
+        appendExplanation("\n\n**Q: " + question + "**\n\n");
+
+        ConversationState current = conversation;
+        ExplanationScheduler.Task task = ExplanationScheduler.getInstance().submit(ExplanationPriority.FOREGROUND,
+                FOLLOW_UP_DEADLINE_MS, () -> ExplanationPipeline.getInstance().askFollowUp(current, question, this::appendExplanation));
+        setRequest(task);
+        task.getFuture().whenComplete((answer, error) -> SwingUtilities.invokeLater(() -> {
+            if (disposed) {
+                return;
+            }
+            if (error != null) {
+                appendExplanation("\nError: " + error.getMessage());
+            }
+            setQuestionEnabled(true);
+        }));
+    }
+
+    private void setQuestionEnabled(boolean enabled) {
+        questionField.setEnabled(enabled);
+        askButton.setEnabled(enabled);
+    }
+
+    /**
+     * Checks whether the panel was closed.
+     *
+     * @return true if the panel was disposed, false otherwise.
+     */
+    public boolean isDisposed() {
+        return disposed;
+    }
+
+    /**
+     * Updates the code editor with the provided code and sets the syntax highlighter based on the language.
+     * The editor is created by the first call, the highlighter is only created when the file type changes, and the
+     * document is only written when the code differs.
+     *
+     * @param code     The code to be displayed in the editor.
+     * @param language The language associated with the code.
+     */
+    public void updateCode(String code, Language language) {
+        if (disposed) {
+            return;
+        }
+        EditorEx editor = getCodeEditor();
+        FileType fileType = language.getAssociatedFileType();
+        if (fileType != null && !fileType.equals(highlightedFileType)) {
+            EditorHighlighter highlighter = EditorHighlighterFactory.getInstance().createEditorHighlighter(project, fileType);
+            editor.setHighlighter(highlighter);
+            highlightedFileType = fileType;
+        }
+
+        Document document = editor.getDocument();
+        if (!document.getCharsSequence().toString().equals(code)) {
+            ApplicationManager.getApplication().runWriteAction(() -> document.setText(code));
+        }
+    }
+
+    /**
+     * Replaces the explanation displayed in the explanation area.
+     *
+     * @param explanation The explanation to be displayed.
+     */
+    public void updateExplanation(String explanation) {
+        explanationRenderer.setText(explanation);
+    }
+
+    /**
+     * Appends a piece of a streamed explanation to the explanation area. May be called from any thread.
+     *
+     * @param delta The text to append.
+     */
+    public void appendExplanation(String delta) {
+        explanationRenderer.append(delta);
+    }
+
+    /**
+     * Updates the status line shown above the explanation, e.g. the loading indicator.
+     *
+     * @param status The status to display, or an empty String to clear it.
+     */
+    public void updateStatus(String status) {
+        statusLabel.setText(status.isEmpty() ? " " : status);
+    }
+
+    /**
+     * Gets the text content of the explanation area.
+     *
+     * @return The text content of the explanation area.
+     */
+    public String getExplanationText() {
+        return explanationRenderer.getText();
+    }
+
+    /**
+     * An entry of the history selector, labelled with the time the explanation was produced.
+     */
+    private static class HistoryItem {
+        private static final SimpleDateFormat FORMAT = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+        final ExplanationHistory.Entry entry;
+        final boolean latest;
+
+        HistoryItem(ExplanationHistory.Entry entry, boolean latest) {
+            this.entry = entry;
+            this.latest = latest;
+        }
+
+        @Override
+        public String toString() {
+            String time = FORMAT.format(new Date(entry.getTimestamp()));
+            return latest ? time + " (latest)" : time;
+        }
+    }
+
+    @Override
+    public void dispose() {
+        disposed = true;
+        if (request != null) {
+            request.cancel();
+        }
+        if (codeEditor != null) {
+            EditorFactory.getInstance().releaseEditor(codeEditor);
+            codeEditor = null;
+        }
+    }
+}
@@ -0,0 +1,564 @@
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.diagnostic.Logger;
+import com.jetbrains.python.psi.PyFunction;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * An application-level service turning Python functions into explanations. It owns the token budget shared by all
+ * requests, so the editor action and background jobs draw from the same rate limit. The budget is also shared with
+ * other IDE processes on the machine through {@link SharedTokenTracker}.
+ */
+public class ExplanationPipeline implements Disposable {
+    private static final int MAX_TOKEN_LIMIT = 7000;
+    private static final String INCREMENTAL_PROMPT = "The following Python function was explained before and has since been edited. Below are the previous explanation and a statement-level diff of the edit (lines starting with '-' were removed, lines starting with '+' were added). Reply with the updated explanation of the whole function, keeping what the edit does not affect:\n";
+    private static final double MAX_INCREMENTAL_RATIO = 0.5;
+    private static final Integer MAX_TOKENS_PER_MINUTE = 9500;
+    private static final int MAX_WAIT_TIME_SECONDS = 10;
+    private static final int FOREGROUND_RESERVE_TOKENS = 2000;
+    private static final int MAX_CONVERSATION_CONTEXT_TOKENS = 3000;
+    private static final Logger LOG = Logger.getInstance(ExplanationPipeline.class);
+    private final TokenTracker tokenTracker = createTokenTracker();
+    private final SummaryTree summaryTree = new SummaryTree(MAX_TOKEN_LIMIT);
+    private final RequestPacker requestPacker = new RequestPacker(MAX_TOKEN_LIMIT);
+    private final RemoteExplanationCache remoteCache = RemoteExplanationCache.fromSystemProperty();
+
+    /**
+     * Constructs the pipeline and lets the API client duplicate slow requests while the token budget allows it.
+     */
+    public ExplanationPipeline() {
+        ChatGPTApiClient.setHedgeBudget(this::reserveHedgeTokens);
+    }
+
+    /**
+     * Creates the token tracker shared by all IDE processes on the machine, falling back to a tracker local to this
+     * process if the shared state file cannot be opened.
+     *
+     * @return The token tracker.
+     */
+    private static TokenTracker createTokenTracker() {
+        Path statePath = Path.of(PathManager.getSystemPath(), "explain-method", "token-window.bin");
+        try {
+            return new SharedTokenTracker(statePath);
+        } catch (IOException e) {
+            LOG.warn("Could not open the shared token window, limiting this process only: " + e.getMessage());
+            return new TokenTracker();
+        }
+    }
+
+    /**
+     * Reserves the tokens of a duplicate request if the budget leaves room for it beyond the
+     * {@value #FOREGROUND_RESERVE_TOKENS} tokens reserved for the foreground. The tokens are recorded right away,
+     * since the duplicate that loses is cancelled before its usage is reported.
+     *
+     * @param requestBody The JSON body of the request to duplicate.
+     * @return true if the duplicate may be sent, false otherwise.
+     */
+    private boolean reserveHedgeTokens(String requestBody) {
+        int estimatedTokens = CodeCompressor.estimateTokenCount(requestBody);
+        return tokenTracker.tryReserve(estimatedTokens, MAX_TOKENS_PER_MINUTE - FOREGROUND_RESERVE_TOKENS) != null;
+    }
+
+    @Override
+    public void dispose() {
+        if (tokenTracker instanceof SharedTokenTracker shared) {
+            try {
+                shared.close();
+            } catch (IOException e) {
+                LOG.warn("Could not close the shared token window: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Gets the application-wide instance of the pipeline.
+     *
+     * @return The ExplanationPipeline service.
+     */
+    public static ExplanationPipeline getInstance() {
+        return ApplicationManager.getApplication().getService(ExplanationPipeline.class);
+    }
+
+    /**
+     * Explains the given Python function for a user waiting on the result, streaming the answer as it arrives.
+     * Fails fast if the token budget would not allow the request within {@value #MAX_WAIT_TIME_SECONDS} seconds.
+     *
+     * @param function The Python function for which an explanation is requested.
+     * @param onDelta  The consumer receiving the pieces of the final answer as they arrive. Intermediate requests,
+     *                 such as chunk summaries, are not streamed.
+     * @return The explanation as a String.
+     * @throws IOException          If an I/O error occurs during the HTTP request or the token budget is exhausted.
+     * @throws InterruptedException If the HTTP request is interrupted.
+     */
+    public String explain(PyFunction function, Consumer<String> onDelta) throws IOException, InterruptedException {
+        AtomicBoolean fallbackUsed = new AtomicBoolean();
+        return explainWith(function, new LlmRequestSender() {
+            @Override
+            public String send(String request) throws IOException, InterruptedException {
+                return sendRequestToOpenAI(request, MAX_WAIT_TIME_SECONDS, fallbackUsed);
+            }
+
+            @Override
+            public String sendFinal(String request) throws IOException, InterruptedException {
+                TokenTracker.Reservation reservation = awaitTokenBudget(request, MAX_WAIT_TIME_SECONDS);
+                return ChatGPTApiClient.streamExplanationFromLLM(request, usageListener(reservation, fallbackUsed), onDelta);
+            }
+        }, fallbackUsed);
+    }
+
+    /**
+     * Starts a follow-up conversation about an explained function. The prepared context is kept for the follow-up
+     * prompts unless it would take more than {@value #MAX_CONVERSATION_CONTEXT_TOKENS} tokens, in which case the
+     * explanation alone stands in for it.
+     *
+     * @param function    The explained Python function.
+     * @param explanation The explanation of the function.
+     * @return The conversation state.
+     */
+    public ConversationState startConversation(PyFunction function, String explanation) {
+        PreparedContextCache.Prepared prepared = ReadAction.compute(() -> prepareContext(function));
+        String context = prepared.isOversized() || prepared.getTokens() > MAX_CONVERSATION_CONTEXT_TOKENS ? null : prepared.getContext();
+        return new ConversationState(context, explanation);
+    }
+
+    /**
+     * Answers a follow-up question, streaming the answer as it arrives, and records the turn in the conversation.
+     *
+     * @param conversation The conversation the question belongs to.
+     * @param question     The follow-up question.
+     * @param onDelta      The consumer receiving the pieces of the answer as they arrive.
+     * @return The answer as a String.
+     * @throws IOException          If an I/O error occurs during the HTTP request or the token budget is exhausted.
+     * @throws InterruptedException If the HTTP request is interrupted.
+     */
+    public String askFollowUp(ConversationState conversation, String question, Consumer<String> onDelta) throws IOException, InterruptedException {
+        String request = conversation.buildPrompt(question);
+        TokenTracker.Reservation reservation = awaitTokenBudget(request, MAX_WAIT_TIME_SECONDS);
+        AtomicBoolean fallbackUsed = new AtomicBoolean();
+        String answer = ChatGPTApiClient.streamExplanationFromLLM(request, usageListener(reservation, fallbackUsed), onDelta);
+        try {
+            conversation.recordTurn(question, answer, summaryRequest -> sendRequestToOpenAI(summaryRequest, MAX_WAIT_TIME_SECONDS, fallbackUsed));
+        } catch (IOException e) {
+            LOG.warn("Could not compact the conversation, keeping older turns verbatim: " + e.getMessage());
+        }
+        return answer;
+    }
+
+    /**
+     * Explains the given Python function for a background job, waiting as long as needed for the token budget.
+     *
+     * @param function The Python function for which an explanation is requested.
+     * @return The explanation as a String.
+     * @throws IOException          If an I/O error occurs during the HTTP request.
+     * @throws InterruptedException If the HTTP request or the wait for the token budget is interrupted.
+     */
+    public String explainInBackground(PyFunction function) throws IOException, InterruptedException {
+        AtomicBoolean fallbackUsed = new AtomicBoolean();
+        return explainWith(function, request -> sendRequestToOpenAI(request, Integer.MAX_VALUE, fallbackUsed), fallbackUsed);
+    }
+
+    /**
+     * Explains several small Python functions for a background job, packing their contexts into as few requests
+     * as the token budget allows. Functions whose cached explanation matches their current code are not sent, and
+     * the others are looked up in one batch in the team's {@link RemoteExplanationCache}, if one is configured. New
+     * explanations are shared through it unless some of them came from the fallback model.
+     *
+     * @param functions The Python functions to explain, all belonging to the same project.
+     * @return The explanations keyed by {@link ExplanationCache#keyFor}; functions that could not be explained are
+     *         missing.
+     * @throws InterruptedException If a request or the wait for the token budget is interrupted.
+     */
+    public Map<String, String> explainPackedInBackground(List<PyFunction> functions) throws InterruptedException {
+        Map<String, String> explanations = new HashMap<>();
+        if (functions.isEmpty()) {
+            return explanations;
+        }
+        ExplanationCache cache = functions.get(0).getProject().getService(ExplanationCache.class);
+        ExplanationHistory history = functions.get(0).getProject().getService(ExplanationHistory.class);
+
+        Map<String, FunctionVersion> pending = new HashMap<>();
+        List<RequestPacker.Item> items = collectPending(functions, cache, pending, explanations);
+        Map<String, String> remoteKeys = lookupRemote(items, pending, cache, history, explanations);
+
+        AtomicBoolean fallbackUsed = new AtomicBoolean();
+        Map<String, String> packed = requestPacker.explainAll(items, request -> sendRequestToOpenAI(request, Integer.MAX_VALUE, fallbackUsed));
+        if (remoteCache != null && !fallbackUsed.get()) {
+            for (Map.Entry<String, String> explanation : packed.entrySet()) {
+                remoteCache.store(remoteKeys.get(explanation.getKey()), explanation.getValue());
+            }
+        }
+        recordExplanations(packed, pending, cache, history, explanations);
+        return explanations;
+    }
+
+    /**
+     * Explains many Python functions for a bulk job through the Batch API. Their contexts are packed as for
+     * {@link #explainPackedInBackground}, written to a batch file and submitted as a single batch, so they are not
+     * throttled by the interactive token budget; the call returns once the batch is done, which may take hours.
+     * The answers are stored in the explanation cache and the history like any other explanation.
+     *
+     * @param functions The Python functions to explain, all belonging to the same project.
+     * @param batchFile The path the batch file is written to; an interrupted batch for the same path is resumed.
+     * @return The explanations keyed by {@link ExplanationCache#keyFor}; functions the batch did not explain, including
+     *         those too large to be packed, are missing and can be explained one by one.
+     * @throws IOException          If the batch cannot be submitted or its results cannot be collected.
+     * @throws InterruptedException If the wait for the batch is interrupted.
+     */
+    public Map<String, String> explainInBatch(List<PyFunction> functions, Path batchFile) throws IOException, InterruptedException {
+        Map<String, String> explanations = new HashMap<>();
+        if (functions.isEmpty()) {
+            return explanations;
+        }
+        ExplanationCache cache = functions.get(0).getProject().getService(ExplanationCache.class);
+        ExplanationHistory history = functions.get(0).getProject().getService(ExplanationHistory.class);
+
+        Map<String, FunctionVersion> pending = new HashMap<>();
+        List<RequestPacker.Item> items = collectPending(functions, cache, pending, explanations);
+        Map<String, String> remoteKeys = lookupRemote(items, pending, cache, history, explanations);
+
+        Map<String, List<RequestPacker.Item>> packs = new HashMap<>();
+        Map<String, String> prompts = new HashMap<>();
+        for (List<RequestPacker.Item> pack : requestPacker.pack(items)) {
+            String prompt = pack.size() > 1 ? RequestPacker.buildPrompt(pack) : pack.get(0).context;
+            String id = ContentHash.sha256(prompt);
+            packs.put(id, pack);
+            prompts.put(id, prompt);
+        }
+
+        Map<String, String> batched = new HashMap<>();
+        for (Map.Entry<String, String> answer : ChatGPTApiClient.createBatchTransport().run(prompts, batchFile).entrySet()) {
+            List<RequestPacker.Item> pack = packs.get(answer.getKey());
+            if (pack.size() > 1) {
+                batched.putAll(RequestPacker.unpack(pack, answer.getValue()));
+            } else {
+                batched.put(pack.get(0).id, answer.getValue());
+            }
+        }
+        if (remoteCache != null) {
+            for (Map.Entry<String, String> explanation : batched.entrySet()) {
+                remoteCache.store(remoteKeys.get(explanation.getKey()), explanation.getValue());
+            }
+        }
+        recordExplanations(batched, pending, cache, history, explanations);
+        LOG.info("Batch explained " + batched.size() + " of " + items.size() + " functions");
+        return explanations;
+    }
+
+    /**
+     * Prepares the packable contexts of the functions whose cached explanation does not match their current code.
+     * Functions with a matching cached explanation are added to the result instead, and functions too large to be
+     * packed are skipped.
+     *
+     * @param functions    The Python functions to explain.
+     * @param cache        The explanation cache of the project, or null if it is not available.
+     * @param pending      The map the versions of the functions to explain are added to, keyed by function key.
+     * @param explanations The result map cached explanations are added to.
+     * @return The items to explain.
+     */
+    private static List<RequestPacker.Item> collectPending(List<PyFunction> functions, ExplanationCache cache,
+                                                           Map<String, FunctionVersion> pending, Map<String, String> explanations) {
+        List<RequestPacker.Item> items = new ArrayList<>();
+        for (PyFunction function : functions) {
+            String key = ReadAction.compute(() -> ExplanationCache.keyFor(function));
+            String code = ReadAction.compute(function::getText);
+            ExplanationCache.Entry previous = cache == null ? null : cache.get(key);
+            if (previous != null && previous.getCode().equals(code)) {
+                explanations.put(key, previous.getExplanation());
+                continue;
+            }
+            List<String> units = ReadAction.compute(() -> CodeParsingHelper.getStatementUnits(function));
+            PreparedContextCache.Prepared prepared = ReadAction.compute(() -> prepareContext(function));
+            if (prepared.isOversized()) {
+                LOG.warn("Skipping " + key + ": too large to be packed with other functions");
+                continue;
+            }
+            pending.put(key, new FunctionVersion(code, units));
+            items.add(new RequestPacker.Item(key, prepared.getContext(), prepared.getTokens()));
+        }
+        return items;
+    }
+
+    /**
+     * Looks the items up in one batch in the team's {@link RemoteExplanationCache}, if one is configured, recording
+     * and removing the items found. Items are addressed as packed explanations, which are shorter than those of
+     * single-function requests and shared separately from them, even for items that end up sent alone.
+     *
+     * @param items        The items to explain; items found are removed.
+     * @param pending      The versions of the functions to explain, keyed by function key.
+     * @param cache        The explanation cache of the project, or null if it is not available.
+     * @param history      The history of the project, or null if it is not available.
+     * @param explanations The result map the shared explanations are added to.
+     * @return The content addresses of the items, keyed by function key; empty if no remote cache is configured.
+     * @throws InterruptedException If the lookup is interrupted.
+     */
+    private Map<String, String> lookupRemote(List<RequestPacker.Item> items, Map<String, FunctionVersion> pending, ExplanationCache cache,
+                                             ExplanationHistory history, Map<String, String> explanations) throws InterruptedException {
+        Map<String, String> remoteKeys = new HashMap<>();
+        if (remoteCache == null) {
+            return remoteKeys;
+        }
+        for (RequestPacker.Item item : items) {
+            remoteKeys.put(item.id, RemoteExplanationCache.keyFor(item.context, RequestPacker.PACKED_PROMPT));
+        }
+        Map<String, String> shared = remoteCache.lookupAll(remoteKeys.values());
+        Map<String, String> sharedByItem = new HashMap<>();
+        items.removeIf(item -> {
+            String explanation = shared.get(remoteKeys.get(item.id));
+            if (explanation != null) {
+                sharedByItem.put(item.id, explanation);
+            }
+            return explanation != null;
+        });
+        recordExplanations(sharedByItem, pending, cache, history, explanations);
+        return remoteKeys;
+    }
+
+    /**
+     * Records the explanations of a packed run in the caches and the history.
+     *
+     * @param produced     The new explanations, keyed by function key.
+     * @param pending      The explained versions of the functions, keyed by function key.
+     * @param cache        The explanation cache of the project, or null if it is not available.
+     * @param history      The history of the project, or null if it is not available.
+     * @param explanations The result map the explanations are added to.
+     */
+    private static void recordExplanations(Map<String, String> produced, Map<String, FunctionVersion> pending, ExplanationCache cache,
+                                           ExplanationHistory history, Map<String, String> explanations) {
+        for (Map.Entry<String, String> explanation : produced.entrySet()) {
+            FunctionVersion version = pending.get(explanation.getKey());
+            if (cache != null) {
+                cache.put(explanation.getKey(), version.code, version.units, explanation.getValue());
+            }
+            recordHistory(history, explanation.getKey(), version.code, explanation.getValue());
+            explanations.put(explanation.getKey(), explanation.getValue());
+        }
+    }
+
+    /**
+     * Retrieves the explanation for the given Python function.
+     * If the function was explained before, the cached explanation is reused when the code is unchanged, and only
+     * the statement-level diff is sent along with the previous explanation when the edit is small.
+     *
+     * @param function     The Python function for which an explanation is requested.
+     * @param sender       The sender used to query the Language Model.
+     * @param fallbackUsed Set by the sender once a request is answered by the fallback model.
+     * @return The explanation as a String.
+     * @throws IOException          If an I/O error occurs during the HTTP request.
+     * @throws InterruptedException If the HTTP request is interrupted.
+     */
+    private String explainWith(PyFunction function, LlmRequestSender sender, AtomicBoolean fallbackUsed) throws IOException, InterruptedException {
+        ExplanationCache cache = function.getProject().getService(ExplanationCache.class);
+        String key = ReadAction.compute(() -> ExplanationCache.keyFor(function));
+        String code = ReadAction.compute(function::getText);
+        List<String> units = ReadAction.compute(() -> CodeParsingHelper.getStatementUnits(function));
+
+        ExplanationCache.Entry previous = cache == null ? null : cache.get(key);
+        if (previous != null && previous.getCode().equals(code)) {
+            return previous.getExplanation();
+        }
+        String explanation = null;
+        if (previous != null) {
+            explanation = getIncrementalResponse(previous, units, code, sender);
+        }
+        if (explanation == null) {
+            PreparedContextCache.Prepared prepared = ReadAction.compute(() -> prepareContext(function));
+            explanation = getFullResponse(function, prepared, sender, fallbackUsed);
+        }
+        if (cache != null) {
+            cache.put(key, code, units, explanation);
+        }
+        recordHistory(function.getProject().getService(ExplanationHistory.class), key, code, explanation);
+        return explanation;
+    }
+
+    /**
+     * Gets the prepared context of a function from the project's {@link PreparedContextCache}, which only prepares it
+     * again if something the context depends on has changed. Must be called within a read action.
+     *
+     * @param function The Python function.
+     * @return The prepared, compressed context.
+     */
+    private static PreparedContextCache.Prepared prepareContext(PyFunction function) {
+        PreparedContextCache contextCache = function.getProject().getService(PreparedContextCache.class);
+        if (contextCache == null) {
+            return PreparedContextCache.Prepared.of(CodeParsingHelper.prepareFunctionContext(function));
+        }
+        return contextCache.getContext(function);
+    }
+
+    /**
+     * Records a new explanation in the project's history. Failing to record is logged and otherwise ignored, since
+     * the explanation itself is still delivered.
+     *
+     * @param history     The history of the project, or null if it is not available.
+     * @param key         The key of the function.
+     * @param code        The text of the explained function.
+     * @param explanation The explanation.
+     */
+    private static void recordHistory(ExplanationHistory history, String key, String code, String explanation) {
+        if (history == null) {
+            return;
+        }
+        try {
+            history.record(key, ContentHash.sha256(code), explanation);
+        } catch (IOException e) {
+            LOG.warn("Could not record explanation history: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Asks the Language Model to update a previous explanation given only the statement-level diff of the edit.
+     *
+     * @param previous The previously explained version of the function.
+     * @param units    The statement units of the current version of the function.
+     * @param code     The text of the current version of the function.
+     * @param sender   The sender used to query the Language Model.
+     * @return The updated explanation, or null if the edit is too large for an incremental update.
+     * @throws IOException          If an I/O error occurs during the HTTP request.
+     * @throws InterruptedException If the HTTP request is interrupted.
+     */
+    private String getIncrementalResponse(ExplanationCache.Entry previous, List<String> units, String code, LlmRequestSender sender) throws IOException, InterruptedException {
+        StatementDiff diff = StatementDiff.compute(previous.getUnits(), units);
+        String delta = diff.render();
+        if (CodeCompressor.estimateTokenCount(delta) > CodeCompressor.estimateTokenCount(code) * MAX_INCREMENTAL_RATIO) {
+            return null;
+        }
+
+        String request = INCREMENTAL_PROMPT
+                + "Previous Explanation:\n" + previous.getExplanation() + "\n\n"
+                + "Changes:\n" + delta;
+        return sender.sendFinal(request);
+    }
+
+    /**
+     * Explains a prepared function context from scratch. Contexts exceeding the token limit are split into chunks
+     * along PSI boundaries and summarized through the {@link SummaryTree}. Other contexts are first looked up in the
+     * team's {@link RemoteExplanationCache}, if one is configured, and new explanations are shared through it. An
+     * explanation from the fallback model is not shared, since it is addressed by the request to the primary model
+     * and would be served in place of a better one.
+     *
+     * @param function     The Python function to be explained.
+     * @param prepared     The prepared context of the function.
+     * @param sender       The sender used to query the Language Model.
+     * @param fallbackUsed Set by the sender once a request is answered by the fallback model.
+     * @return The explanation as a String.
+     * @throws IOException          If an I/O error occurs during the HTTP request.
+     * @throws InterruptedException If the HTTP request is interrupted.
+     */
+    private String getFullResponse(PyFunction function, PreparedContextCache.Prepared prepared, LlmRequestSender sender,
+                                   AtomicBoolean fallbackUsed) throws IOException, InterruptedException {
+        if (prepared.isOversized() || prepared.getTokens() > MAX_TOKEN_LIMIT) {
+            int chunkTokens = MAX_TOKEN_LIMIT - CodeCompressor.estimateTokenCount(SummaryTree.CONTEXT_BATCH_PROMPT);
+            List<String> units = ReadAction.compute(() -> CodeParsingHelper.prepareContextUnits(function, chunkTokens));
+            return summaryTree.summarize(ContextChunker.pack(units, chunkTokens), sender);
+        }
+
+        String remoteKey = remoteCache == null ? null : RemoteExplanationCache.keyFor(prepared.getContext());
+        String shared = remoteKey == null ? null : remoteCache.lookup(remoteKey);
+        if (shared != null) {
+            return shared;
+        }
+        String explanation = sender.sendFinal(prepared.getContext());
+        if (remoteKey != null && !fallbackUsed.get()) {
+            remoteCache.store(remoteKey, explanation);
+        }
+        return explanation;
+    }
+
+    /**
+     * Sends a request to the OpenAI API, first waiting for the token budget of the last minute to allow it. The
+     * reservation made for the request is settled with the usage the API reports.
+     *
+     * @param request        The prompt to send.
+     * @param maxWaitSeconds The longest time to wait for the token budget before giving up.
+     * @param fallbackUsed   Set if the request is answered by the fallback model.
+     * @return The explanation as a String.
+     * @throws IOException          If an I/O error occurs during the HTTP request, or the wait would be too long.
+     * @throws InterruptedException If the HTTP request or the wait is interrupted.
+     */
+    private String sendRequestToOpenAI(String request, int maxWaitSeconds, AtomicBoolean fallbackUsed) throws IOException, InterruptedException {
+        TokenTracker.Reservation reservation = awaitTokenBudget(request, maxWaitSeconds);
+        return ChatGPTApiClient.getExplanationFromLLM(request, usageListener(reservation, fallbackUsed));
+    }
+
+    /**
+     * Creates the listener settling a token reservation with the usage of its request and noting whether the request
+     * was answered by the fallback model.
+     *
+     * @param reservation  The reservation made for the request.
+     * @param fallbackUsed Set if the request is answered by the fallback model.
+     * @return The listener.
+     */
+    private ChatGPTApiClient.UsageListener usageListener(TokenTracker.Reservation reservation, AtomicBoolean fallbackUsed) {
+        return new ChatGPTApiClient.UsageListener() {
+            @Override
+            public void tokensUsed(int tokenCount) {
+                tokenTracker.settle(reservation, tokenCount);
+            }
+
+            @Override
+            public void answeredBy(String model) {
+                if (!ChatGPTApiClient.isPrimaryModel(model)) {
+                    fallbackUsed.set(true);
+                }
+            }
+        };
+    }
+
+    /**
+     * Waits until the token budget of the last minute has room for the given request and reserves its estimated
+     * tokens. The check and the reservation are atomic across threads and IDE processes, so concurrent requests cannot
+     * together overshoot the limit. Requests other than foreground ones leave {@value #FOREGROUND_RESERVE_TOKENS}
+     * tokens of the budget to the request the user is looking at, and pause while a request of higher priority is
+     * running. A request that fails keeps its reservation, which errs on the side of sending less.
+     *
+     * @param request        The prompt about to be sent.
+     * @param maxWaitSeconds The longest time to wait before giving up.
+     * @return The reservation, to be settled with the actual usage.
+     * @throws IOException          If the wait would be longer than allowed, or the request's deadline passed.
+     * @throws InterruptedException If the wait is interrupted or the request was cancelled.
+     */
+    private TokenTracker.Reservation awaitTokenBudget(String request, int maxWaitSeconds) throws IOException, InterruptedException {
+        ExplanationScheduler scheduler = ExplanationScheduler.getInstance();
+        scheduler.checkpoint();
+
+        int estimatedTokens = CodeCompressor.estimateTokenCount(request);
+        int tokenLimit = scheduler.currentPriority() == ExplanationPriority.FOREGROUND
+                ? MAX_TOKENS_PER_MINUTE
+                : MAX_TOKENS_PER_MINUTE - FOREGROUND_RESERVE_TOKENS;
+
+        TokenTracker.Reservation reservation;
+        while ((reservation = tokenTracker.tryReserve(estimatedTokens, tokenLimit)) == null) {
+            int waitTime = tokenTracker.getRemainingWaitTime();
+            if (waitTime > maxWaitSeconds) {
+                throw new IOException("Token limit exceeded, and wait time is too long: " + waitTime + " seconds.");
+            }
+            Thread.sleep(Math.max(waitTime, 1) * 1000L);
+            scheduler.checkpoint();
+        }
+        return reservation;
+    }
+
+    /**
+     * The code and statement units of a function at the time it was sent for explanation.
+     */
+    private static class FunctionVersion {
+        final String code;
+        final List<String> units;
+
+        FunctionVersion(String code, List<String> units) {
+            this.code = code;
+            this.units = units;
+        }
+    }
+}
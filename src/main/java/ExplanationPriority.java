@@ -0,0 +1,21 @@
+/**
+ * The priority of an explanation request, from most to least urgent.
+ */
+public enum ExplanationPriority {
+    /**
+     * The explanation the user just asked for and is looking at.
+     */
+    FOREGROUND,
+    /**
+     * Work on behalf of the user that is not being looked at, e.g. refreshing stale explanations.
+     */
+    BACKGROUND,
+    /**
+     * Speculative explanations of functions the user is likely to ask about next.
+     */
+    PREFETCH,
+    /**
+     * Explanations of whole projects.
+     */
+    BULK
+}
@@ -0,0 +1,202 @@
+import com.intellij.ui.Gray;
+
+import javax.swing.*;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.StyledDocument;
+import java.awt.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Renders a markdown explanation into a styled document as it arrives.
+ * Deltas may be appended from any thread; they are buffered and flushed to the document on the EDT at most once per
+ * frame. Only the new text is styled and inserted, so long or streamed explanations never cause the whole document
+ * to be replaced. Supported markdown: headings, fenced code blocks, inline code and bold text.
+ */
+public class ExplanationRenderer {
+    private static final int FRAME_INTERVAL_MS = 16;
+    private static final Pattern INLINE_PATTERN = Pattern.compile("`([^`]+)`|\\*\\*([^*]+)\\*\\*");
+    private static final Color FOREGROUND = new Color(169, 183, 198);
+
+    private final JTextPane textPane = new JTextPane();
+    private final StyledDocument document = textPane.getStyledDocument();
+    private final StringBuilder pending = new StringBuilder();
+    private final StringBuilder rendered = new StringBuilder();
+    private final Timer flushTimer = new Timer(FRAME_INTERVAL_MS, e -> flush());
+    private final SimpleAttributeSet plainStyle = new SimpleAttributeSet();
+    private final SimpleAttributeSet boldStyle = new SimpleAttributeSet();
+    private final SimpleAttributeSet headingStyle = new SimpleAttributeSet();
+    private final SimpleAttributeSet codeStyle = new SimpleAttributeSet();
+    private boolean inCodeFence = false;
+    private String tail = "";
+    private int tailStart = 0;
+
+    /**
+     * Constructs an ExplanationRenderer with an empty document.
+     */
+    public ExplanationRenderer() {
+        textPane.setEditable(false);
+        textPane.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        textPane.setBackground(Gray._43);
+        flushTimer.setRepeats(false);
+        initializeStyles();
+    }
+
+    /**
+     * Initializes the text styles used for the supported markdown elements.
+     */
+    private void initializeStyles() {
+        StyleConstants.setFontFamily(plainStyle, "Arial");
+        StyleConstants.setFontSize(plainStyle, 16);
+        StyleConstants.setForeground(plainStyle, FOREGROUND);
+
+        boldStyle.addAttributes(plainStyle);
+        StyleConstants.setBold(boldStyle, true);
+
+        headingStyle.addAttributes(boldStyle);
+        StyleConstants.setFontSize(headingStyle, 18);
+
+        codeStyle.addAttributes(plainStyle);
+        StyleConstants.setFontFamily(codeStyle, Font.MONOSPACED);
+        StyleConstants.setFontSize(codeStyle, 14);
+        StyleConstants.setBackground(codeStyle, Gray._50);
+    }
+
+    /**
+     * Gets the component displaying the rendered explanation.
+     *
+     * @return The text pane.
+     */
+    public JComponent getComponent() {
+        return textPane;
+    }
+
+    /**
+     * Appends a piece of the explanation. Safe to call from any thread; the document is updated on the EDT
+     * within one frame.
+     *
+     * @param delta The text to append.
+     */
+    public void append(String delta) {
+        synchronized (pending) {
+            pending.append(delta);
+        }
+        if (!flushTimer.isRunning()) {
+            flushTimer.start();
+        }
+    }
+
+    /**
+     * Replaces the whole explanation. Does nothing if the text is already displayed, which is the case when an
+     * explanation was streamed and its final text is set afterwards. Must be called on the EDT.
+     *
+     * @param text The explanation to display.
+     */
+    public void setText(String text) {
+        if (text.equals(getText())) {
+            return;
+        }
+        synchronized (pending) {
+            pending.setLength(0);
+        }
+        rendered.setLength(0);
+        tail = "";
+        tailStart = 0;
+        inCodeFence = false;
+        try {
+            document.remove(0, document.getLength());
+        } catch (BadLocationException e) {
+            throw new IllegalStateException(e);
+        }
+        render(text);
+    }
+
+    /**
+     * Gets the markdown text of the explanation, including any part not rendered yet.
+     *
+     * @return The explanation text.
+     */
+    public String getText() {
+        synchronized (pending) {
+            return rendered + pending.toString();
+        }
+    }
+
+    /**
+     * Moves the buffered deltas into the document.
+     */
+    private void flush() {
+        String delta;
+        synchronized (pending) {
+            delta = pending.toString();
+            pending.setLength(0);
+        }
+        if (!delta.isEmpty()) {
+            render(delta);
+        }
+    }
+
+    /**
+     * Renders appended text. Complete lines are styled according to their markdown; the unfinished last line is
+     * inserted as plain text and restyled once it is complete.
+     *
+     * @param delta The text to render.
+     */
+    private void render(String delta) {
+        rendered.append(delta);
+        String buffer = tail + delta;
+        try {
+            document.remove(tailStart, document.getLength() - tailStart);
+
+            int lineStart = 0;
+            int newline;
+            while ((newline = buffer.indexOf('\n', lineStart)) >= 0) {
+                renderLine(buffer.substring(lineStart, newline));
+                lineStart = newline + 1;
+            }
+
+            tail = buffer.substring(lineStart);
+            tailStart = document.getLength();
+            document.insertString(tailStart, tail, inCodeFence ? codeStyle : plainStyle);
+        } catch (BadLocationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Inserts a complete line with the style matching its markdown.
+     *
+     * @param line The line, without its line break.
+     * @throws BadLocationException If the document is modified concurrently.
+     */
+    private void renderLine(String line) throws BadLocationException {
+        String trimmed = line.trim();
+        if (trimmed.startsWith("```")) {
+            inCodeFence = !inCodeFence;
+            return;
+        }
+        if (inCodeFence) {
+            document.insertString(document.getLength(), line + "\n", codeStyle);
+            return;
+        }
+        if (trimmed.startsWith("#")) {
+            document.insertString(document.getLength(), trimmed.replaceFirst("^#+\\s*", "") + "\n", headingStyle);
+            return;
+        }
+
+        Matcher matcher = INLINE_PATTERN.matcher(line);
+        int position = 0;
+        while (matcher.find()) {
+            document.insertString(document.getLength(), line.substring(position, matcher.start()), plainStyle);
+            if (matcher.group(1) != null) {
+                document.insertString(document.getLength(), matcher.group(1), codeStyle);
+            } else {
+                document.insertString(document.getLength(), matcher.group(2), boldStyle);
+            }
+            position = matcher.end();
+        }
+        document.insertString(document.getLength(), line.substring(position) + "\n", plainStyle);
+    }
+}
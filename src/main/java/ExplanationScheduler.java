@@ -0,0 +1,229 @@
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.util.concurrency.AppExecutorUtil;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An application-level scheduler for explanation requests. Foreground requests start immediately; all other requests
+ * wait in a priority queue served by {@value #BACKGROUND_WORKERS} workers. Running requests call {@link #checkpoint()}
+ * before every call to the Language Model, where they are stopped if cancelled or past their deadline, and where
+ * lower-priority work pauses while higher-priority work is running, so the token budget goes to the request the user
+ * is looking at.
+ */
+public class ExplanationScheduler {
+    private static final int BACKGROUND_WORKERS = 2;
+    private static final long PREEMPTION_POLL_MS = 200;
+
+    private final Executor executor;
+    private final PriorityBlockingQueue<Task> queue = new PriorityBlockingQueue<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final int[] activeByPriority = new int[ExplanationPriority.values().length];
+    private final ThreadLocal<Task> currentTask = new ThreadLocal<>();
+    private int runningBackground = 0;
+
+    /**
+     * Constructs an ExplanationScheduler running requests on the application's pooled threads.
+     */
+    public ExplanationScheduler() {
+        this(AppExecutorUtil.getAppExecutorService());
+    }
+
+    /**
+     * Constructs an ExplanationScheduler running requests on the given executor.
+     *
+     * @param executor The executor running the requests.
+     */
+    ExplanationScheduler(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Gets the application-wide instance of the scheduler.
+     *
+     * @return The ExplanationScheduler service.
+     */
+    public static ExplanationScheduler getInstance() {
+        return ApplicationManager.getApplication().getService(ExplanationScheduler.class);
+    }
+
+    /**
+     * Schedules an explanation request.
+     *
+     * @param priority   The priority of the request.
+     * @param deadlineMs How long the request may take from now, in milliseconds, before it is abandoned.
+     * @param work       The request to run.
+     * @return The handle of the scheduled request.
+     */
+    public Task submit(ExplanationPriority priority, long deadlineMs, Callable<String> work) {
+        Task task = new Task(priority, System.currentTimeMillis() + deadlineMs, sequence.getAndIncrement(), work);
+        if (priority == ExplanationPriority.FOREGROUND) {
+            executor.execute(() -> run(task));
+        } else {
+            queue.add(task);
+            drain();
+        }
+        return task;
+    }
+
+    /**
+     * Starts queued requests while background workers are available.
+     */
+    private synchronized void drain() {
+        while (runningBackground < BACKGROUND_WORKERS) {
+            Task task = queue.poll();
+            if (task == null) {
+                return;
+            }
+            runningBackground++;
+            executor.execute(() -> {
+                try {
+                    run(task);
+                } finally {
+                    synchronized (this) {
+                        runningBackground--;
+                    }
+                    drain();
+                }
+            });
+        }
+    }
+
+    /**
+     * Runs a request on the current thread and completes its future.
+     *
+     * @param task The request to run.
+     */
+    private void run(Task task) {
+        if (task.future.isDone()) {
+            return;
+        }
+        if (System.currentTimeMillis() > task.deadline) {
+            task.future.completeExceptionally(new TimeoutException("Deadline passed before the request could start."));
+            return;
+        }
+
+        synchronized (this) {
+            activeByPriority[task.priority.ordinal()]++;
+        }
+        synchronized (task) {
+            task.thread = Thread.currentThread();
+        }
+        currentTask.set(task);
+        try {
+            task.future.complete(task.work.call());
+        } catch (Exception e) {
+            task.future.completeExceptionally(e);
+        } finally {
+            currentTask.remove();
+            synchronized (task) {
+                task.thread = null;
+                Thread.interrupted();
+            }
+            synchronized (this) {
+                activeByPriority[task.priority.ordinal()]--;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Gets the priority of the request running on the current thread. Work that was not scheduled through this
+     * scheduler, such as a headless bulk run, counts as {@link ExplanationPriority#BULK}.
+     *
+     * @return The priority of the current request.
+     */
+    public ExplanationPriority currentPriority() {
+        Task task = currentTask.get();
+        return task == null ? ExplanationPriority.BULK : task.priority;
+    }
+
+    /**
+     * Called by running requests before every call to the Language Model. Stops the request if it was cancelled or
+     * its deadline passed, and otherwise waits while any request of higher priority is running.
+     *
+     * @throws IOException          If the deadline of the request passed.
+     * @throws InterruptedException If the request was cancelled.
+     */
+    public void checkpoint() throws IOException, InterruptedException {
+        Task task = currentTask.get();
+        ExplanationPriority priority = currentPriority();
+        synchronized (this) {
+            while (true) {
+                if (task != null && task.future.isCancelled()) {
+                    throw new InterruptedException("Request cancelled.");
+                }
+                if (task != null && System.currentTimeMillis() > task.deadline) {
+                    throw new IOException("Request deadline exceeded.");
+                }
+                if (!isHigherPriorityActive(priority)) {
+                    return;
+                }
+                wait(PREEMPTION_POLL_MS);
+            }
+        }
+    }
+
+    private boolean isHigherPriorityActive(ExplanationPriority priority) {
+        for (int i = 0; i < priority.ordinal(); i++) {
+            if (activeByPriority[i] > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A scheduled explanation request.
+     */
+    public class Task implements Comparable<Task> {
+        final ExplanationPriority priority;
+        final long deadline;
+        final long sequenceNumber;
+        final Callable<String> work;
+        final CompletableFuture<String> future = new CompletableFuture<>();
+        Thread thread;
+
+        Task(ExplanationPriority priority, long deadline, long sequenceNumber, Callable<String> work) {
+            this.priority = priority;
+            this.deadline = deadline;
+            this.sequenceNumber = sequenceNumber;
+            this.work = work;
+        }
+
+        /**
+         * Gets the future completed with the explanation, or exceptionally if the request failed or was cancelled.
+         *
+         * @return The result future.
+         */
+        public CompletableFuture<String> getFuture() {
+            return future;
+        }
+
+        /**
+         * Cancels the request. A queued request is removed from the queue; a running request is interrupted.
+         */
+        public void cancel() {
+            if (!future.cancel(false)) {
+                return;
+            }
+            queue.remove(this);
+            synchronized (this) {
+                if (thread != null) {
+                    thread.interrupt();
+                }
+            }
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            int byPriority = priority.compareTo(other.priority);
+            return byPriority != 0 ? byPriority : Long.compare(sequenceNumber, other.sequenceNumber);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.startup.StartupActivity;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Warms up the plugin in the background after a project is opened, but only in projects where it was used before:
+ * the call graph is loaded and the project index is built, so the first explanation does not wait for them. In other
+ * projects nothing is created until the plugin is first used. The time the startup check takes and the time until
+ * the warm-up finishes are logged, and at debug level the footprint reported by {@link FootprintReporter} once it
+ * has.
+ */
+public class ExplanationWarmUp implements StartupActivity.Background {
+    private static final Logger LOG = Logger.getInstance(ExplanationWarmUp.class);
+
+    @Override
+    public void runActivity(@NotNull Project project) {
+        long start = System.nanoTime();
+        if (!ExplanationHistory.existsFor(project)) {
+            LOG.info("Explain Method startup check for " + project.getName() + " took " + (System.nanoTime() - start) / 1000
+                    + " us, not used in this project yet");
+            logFootprint(project);
+            return;
+        }
+
+        project.getService(ExplanationCache.class);
+        CompletableFuture<Void> callGraphReady = project.getService(CallGraphIndex.class).warmUp();
+        CompletableFuture<Void> indexReady = project.getService(ProjectFunctionIndex.class).warmUp();
+        ExplanationPipeline.getInstance();
+        LOG.info("Explain Method startup check for " + project.getName() + " took " + (System.nanoTime() - start) / 1000
+                + " us, warming up in the background");
+        CompletableFuture.allOf(callGraphReady, indexReady).thenRun(() -> {
+            LOG.info("Explain Method warm-up for " + project.getName() + " finished after "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms");
+            logFootprint(project);
+        });
+    }
+
+    private static void logFootprint(Project project) {
+        if (LOG.isDebugEnabled() && !project.isDisposed()) {
+            LOG.debug(FootprintReporter.describe(project));
+        }
+    }
+}
@@ -0,0 +1,42 @@
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.project.ProjectLocator;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileContentChangeEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Passes Python files changed on disk outside the editor, e.g. by a pull or rebase run from a terminal or by the
+ * IDE's Git integration, to the {@link StaleExplanationRefresher} of the projects containing them. Edits made in the
+ * editor are not refresh events and are left to the regular staleness checks.
+ */
+public class ExternalChangeListener implements BulkFileListener {
+    @Override
+    public void after(@NotNull List<? extends VFileEvent> events) {
+        Map<Project, List<VirtualFile>> filesByProject = new HashMap<>();
+        for (VFileEvent event : events) {
+            if (!event.isFromRefresh() || !(event instanceof VFileContentChangeEvent)) {
+                continue;
+            }
+            VirtualFile file = event.getFile();
+            if (file == null || !"py".equals(file.getExtension())) {
+                continue;
+            }
+            for (Project project : ProjectLocator.getInstance().getProjectsForFile(file)) {
+                filesByProject.computeIfAbsent(project, ignored -> new ArrayList<>()).add(file);
+            }
+        }
+        for (Map.Entry<Project, List<VirtualFile>> entry : filesByProject.entrySet()) {
+            StaleExplanationRefresher refresher = StaleExplanationRefresher.getIfUsed(entry.getKey());
+            if (refresher != null) {
+                refresher.filesChanged(entry.getValue());
+            }
+        }
+    }
+}
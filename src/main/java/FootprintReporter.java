@@ -0,0 +1,47 @@
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.project.ProjectManagerListener;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reports the heap retained by the plugin's project services when a project is closed, at debug level, so the
+ * footprint can be tracked across releases. Only services that were created are measured; a project where the
+ * plugin was never used reports none.
+ */
+public class FootprintReporter implements ProjectManagerListener {
+    private static final Logger LOG = Logger.getInstance(FootprintReporter.class);
+    private static final List<Class<?>> PROJECT_SERVICES = List.of(ExplainCodeToolWindowContentFactory.class, ExplanationCache.class,
+            ProjectFunctionIndex.class, ExplanationHistory.class, PreparedContextCache.class, StaleExplanationRefresher.class,
+            CallGraphIndex.class);
+
+    @Override
+    public void projectClosing(@NotNull Project project) {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(describe(project));
+        }
+    }
+
+    /**
+     * Describes the footprint of the plugin in a project: the services created so far and the heap they retain.
+     *
+     * @param project The project.
+     * @return The description.
+     */
+    static String describe(Project project) {
+        long start = System.nanoTime();
+        List<Object> services = new ArrayList<>();
+        for (Class<?> type : PROJECT_SERVICES) {
+            Object service = project.getServiceIfCreated(type);
+            if (service != null) {
+                services.add(service);
+            }
+        }
+        long retainedBytes = HeapFootprint.retainedBytes(services.toArray());
+        return "Explain Method footprint of " + project.getName() + ": " + services.size() + " of " + PROJECT_SERVICES.size()
+                + " services created, about " + retainedBytes / 1024 + " KB retained (measured in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms)";
+    }
+}
@@ -0,0 +1,153 @@
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Estimates the heap retained by the plugin's objects, assuming a 64-bit JVM with compressed references. The
+ * estimate is the sum of the shallow sizes of all objects reachable from the roots through instance fields, each
+ * counted once. Only the plugin's own objects and the JDK objects they hold are followed; objects of the platform,
+ * such as the project, PSI or editors, are shared with the IDE and neither counted nor followed. Objects whose fields
+ * are not accessible count with their shallow size only, so the estimate is a lower bound.
+ * <p>
+ * Walking a large graph takes a while, so this is meant for diagnostics and tests, not for regular requests.
+ */
+public class HeapFootprint {
+    private static final int OBJECT_HEADER_BYTES = 12;
+    private static final int ARRAY_HEADER_BYTES = 16;
+    private static final int REFERENCE_BYTES = 4;
+    private static final int ALIGNMENT = 8;
+    private static final ClassValue<Layout> LAYOUTS = new ClassValue<>() {
+        @Override
+        protected Layout computeValue(Class<?> type) {
+            return Layout.of(type);
+        }
+    };
+
+    /**
+     * Estimates the heap retained by the given roots together.
+     *
+     * @param roots The roots; null roots are ignored.
+     * @return The estimated number of bytes.
+     */
+    public static long retainedBytes(Object... roots) {
+        Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<Object> pending = new ArrayDeque<>();
+        for (Object root : roots) {
+            if (root != null) {
+                pending.push(root);
+            }
+        }
+
+        long total = 0;
+        while (!pending.isEmpty()) {
+            Object object = pending.pop();
+            if (!visited.add(object)) {
+                continue;
+            }
+            Class<?> type = object.getClass();
+            if (type.isArray()) {
+                Class<?> componentType = type.getComponentType();
+                int length = Array.getLength(object);
+                total += align(ARRAY_HEADER_BYTES + (long) length * sizeOf(componentType));
+                if (!componentType.isPrimitive()) {
+                    for (Object element : (Object[]) object) {
+                        if (isFollowed(element)) {
+                            pending.push(element);
+                        }
+                    }
+                }
+                continue;
+            }
+
+            Layout layout = LAYOUTS.get(type);
+            total += layout.shallowBytes;
+            for (Field field : layout.referenceFields) {
+                try {
+                    Object value = field.get(object);
+                    if (isFollowed(value)) {
+                        pending.push(value);
+                    }
+                } catch (IllegalAccessException e) {
+                    // Counted with its shallow size only.
+                }
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Checks whether an object belongs to the plugin or the JDK, as opposed to the platform, and is not one of the
+     * JDK objects shared by everything, such as classes, class loaders and threads.
+     *
+     * @param object The object.
+     * @return true if the object is counted, false otherwise.
+     */
+    private static boolean isFollowed(Object object) {
+        if (object == null || object instanceof Class || object instanceof ClassLoader || object instanceof Thread) {
+            return false;
+        }
+        Class<?> type = object.getClass();
+        while (type.isArray()) {
+            type = type.getComponentType();
+        }
+        ClassLoader loader = type.getClassLoader();
+        return loader == null || loader == HeapFootprint.class.getClassLoader();
+    }
+
+    private static int sizeOf(Class<?> type) {
+        if (type == long.class || type == double.class) {
+            return 8;
+        }
+        if (type == int.class || type == float.class) {
+            return 4;
+        }
+        if (type == short.class || type == char.class) {
+            return 2;
+        }
+        if (type == byte.class || type == boolean.class) {
+            return 1;
+        }
+        return REFERENCE_BYTES;
+    }
+
+    private static long align(long bytes) {
+        return (bytes + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    /**
+     * The shallow size of the instances of a class and the reference fields that can be followed.
+     */
+    private static class Layout {
+        final long shallowBytes;
+        final List<Field> referenceFields;
+
+        Layout(long shallowBytes, List<Field> referenceFields) {
+            this.shallowBytes = shallowBytes;
+            this.referenceFields = referenceFields;
+        }
+
+        static Layout of(Class<?> type) {
+            long bytes = OBJECT_HEADER_BYTES;
+            List<Field> referenceFields = new ArrayList<>();
+            for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+                for (Field field : current.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers())) {
+                        continue;
+                    }
+                    bytes += sizeOf(field.getType());
+                    if (!field.getType().isPrimitive() && field.trySetAccessible()) {
+                        referenceFields.add(field);
+                    }
+                }
+            }
+            return new Layout(align(bytes), referenceFields);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+
+/**
+ * Cuts the latency tail of another transport. A request still unanswered after the 95th percentile of recent
+ * latencies is sent a second time if the token budget allows; whichever attempt answers first is used and the other
+ * is cancelled. Every request is abandoned once its deadline passes, including the reading of a streamed body.
+ * Latencies of streamed and plain requests are tracked separately, since a streamed response arrives as soon as
+ * generation starts. Without a hedge budget, this only enforces the deadline.
+ */
+public class HedgingTransport implements LlmTransport {
+    private static final double HEDGE_PERCENTILE = 0.95;
+    private static final int LATENCY_SAMPLES = 200;
+
+    private final LlmTransport delegate;
+    private final Executor executor;
+    private final Predicate<String> hedgeBudget;
+    private final long deadlineMs;
+    private final LatencyTracker plainLatency = new LatencyTracker(LATENCY_SAMPLES);
+    private final LatencyTracker streamLatency = new LatencyTracker(LATENCY_SAMPLES);
+
+    /**
+     * Constructs a HedgingTransport.
+     *
+     * @param delegate    The transport performing the requests.
+     * @param executor    The executor running the attempts.
+     * @param hedgeBudget Decides whether a duplicate of the given request body may be sent, reserving its tokens if so.
+     * @param deadlineMs  The longest time to wait for a response, in milliseconds.
+     */
+    public HedgingTransport(LlmTransport delegate, Executor executor, Predicate<String> hedgeBudget, long deadlineMs) {
+        this.delegate = delegate;
+        this.executor = executor;
+        this.hedgeBudget = hedgeBudget;
+        this.deadlineMs = deadlineMs;
+    }
+
+    @Override
+    public Response send(String requestBody, String apiKey, boolean stream) throws IOException, InterruptedException {
+        LatencyTracker latency = stream ? streamLatency : plainLatency;
+        long start = System.nanoTime();
+        long hedgeDelayMs = latency.percentile(HEDGE_PERCENTILE);
+
+        CompletionService<Response> completion = new ExecutorCompletionService<>(executor);
+        List<Future<Response>> attempts = new ArrayList<>();
+        attempts.add(completion.submit(() -> delegate.send(requestBody, apiKey, stream)));
+        boolean hedged = false;
+        ExecutionException lastFailure = null;
+        try {
+            while (true) {
+                long elapsedMs = elapsedMs(start);
+                long waitMs = deadlineMs - elapsedMs;
+                if (!hedged && hedgeDelayMs >= 0) {
+                    waitMs = Math.min(waitMs, hedgeDelayMs - elapsedMs);
+                }
+                Future<Response> done = completion.poll(Math.max(waitMs, 0), TimeUnit.MILLISECONDS);
+
+                if (done != null) {
+                    try {
+                        Response response = done.get();
+                        latency.record(elapsedMs(start));
+                        attempts.remove(done);
+                        return stream ? withDeadline(response, start) : response;
+                    } catch (ExecutionException e) {
+                        attempts.remove(done);
+                        lastFailure = e;
+                        if (attempts.isEmpty()) {
+                            throw unwrap(e);
+                        }
+                        continue;
+                    }
+                }
+
+                if (elapsedMs(start) >= deadlineMs) {
+                    throw new IOException("No response from the API within " + deadlineMs / 1000 + " seconds.");
+                }
+                if (!hedged && hedgeDelayMs >= 0) {
+                    hedged = true;
+                    if (hedgeBudget.test(requestBody)) {
+                        attempts.add(completion.submit(() -> delegate.send(requestBody, apiKey, stream)));
+                    }
+                }
+                if (attempts.isEmpty()) {
+                    throw unwrap(lastFailure);
+                }
+            }
+        } finally {
+            cancelAll(attempts);
+        }
+    }
+
+    /**
+     * Bounds the reading of a streamed body by the deadline of its request. Once the deadline passes, the response is
+     * closed, which ends a read blocked on a stalled stream, and reading fails instead of returning a truncated answer.
+     *
+     * @param response   The streamed response.
+     * @param startNanos The time the request was started, from {@link System#nanoTime()}.
+     * @return The response failing once the deadline passes.
+     */
+    private Response withDeadline(Response response, long startNanos) {
+        AtomicBoolean expired = new AtomicBoolean();
+        long remainingMs = Math.max(0, deadlineMs - elapsedMs(startNanos));
+        CompletableFuture<Void> timer = CompletableFuture.runAsync(() -> {
+            expired.set(true);
+            try {
+                response.close();
+            } catch (IOException ignored) {
+            }
+        }, CompletableFuture.delayedExecutor(remainingMs, TimeUnit.MILLISECONDS, executor));
+
+        Iterator<String> source = response.lines();
+        Iterator<String> bounded = new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                boolean hasNext;
+                try {
+                    hasNext = source.hasNext();
+                } catch (RuntimeException e) {
+                    if (expired.get()) {
+                        throw expiredFailure();
+                    }
+                    throw e;
+                }
+                if (expired.get()) {
+                    throw expiredFailure();
+                }
+                return hasNext;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return source.next();
+            }
+        };
+        return new Response(response.statusCode(), bounded, () -> {
+            timer.cancel(false);
+            response.close();
+        });
+    }
+
+    private UncheckedIOException expiredFailure() {
+        return new UncheckedIOException(new IOException("The answer did not complete within " + deadlineMs / 1000 + " seconds."));
+    }
+
+    /**
+     * Cancels the attempts that lost. An attempt that completed anyway has its response closed so its connection
+     * is released.
+     *
+     * @param attempts The remaining attempts.
+     */
+    private static void cancelAll(List<Future<Response>> attempts) {
+        for (Future<Response> attempt : attempts) {
+            if (!attempt.cancel(true) && attempt.isDone()) {
+                try {
+                    attempt.get().close();
+                } catch (Exception ignored) {
+                }
+            }
+        }
+    }
+
+    private static IOException unwrap(ExecutionException e) throws InterruptedException {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException ioException) {
+            return ioException;
+        }
+        if (cause instanceof InterruptedException interruptedException) {
+            throw interruptedException;
+        }
+        if (cause instanceof RuntimeException runtimeException) {
+            throw runtimeException;
+        }
+        return new IOException(cause);
+    }
+
+    @Override
+    public boolean requiresApiKey() {
+        return delegate.requiresApiKey();
+    }
+
+    private static long elapsedMs(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+}
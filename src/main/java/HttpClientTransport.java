@@ -0,0 +1,46 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Sends requests to the ChatGPT API over HTTP.
+ */
+public class HttpClientTransport implements LlmTransport {
+    private final URI uri;
+    private final Supplier<HttpClient> clientSupplier;
+
+    /**
+     * Constructs an HttpClientTransport.
+     *
+     * @param uri            The endpoint requests are posted to.
+     * @param clientSupplier Supplies the HttpClient used for each request.
+     */
+    public HttpClientTransport(URI uri, Supplier<HttpClient> clientSupplier) {
+        this.uri = uri;
+        this.clientSupplier = clientSupplier;
+    }
+
+    @Override
+    public Response send(String requestBody, String apiKey, boolean stream) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(uri)
+                .header("Content-Type", "application/json")
+                .header("Authorization", "Bearer " + apiKey)
+                .POST(HttpRequest.BodyPublishers.ofString(requestBody))
+                .build();
+
+        HttpClient client = clientSupplier.get();
+        if (stream) {
+            HttpResponse<Stream<String>> response = client.send(request, HttpResponse.BodyHandlers.ofLines());
+            Stream<String> lines = response.body();
+            return new Response(response.statusCode(), lines.iterator(), lines::close);
+        }
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        return new Response(response.statusCode(), List.of(response.body()));
+    }
+}
@@ -0,0 +1,48 @@
+import java.util.Arrays;
+
+/**
+ * Keeps the most recent request latencies in a ring buffer and reports their percentiles.
+ */
+public class LatencyTracker {
+    static final int MIN_SAMPLES = 20;
+
+    private final long[] samples;
+    private int count = 0;
+    private int next = 0;
+
+    /**
+     * Constructs a LatencyTracker.
+     *
+     * @param capacity The number of most recent latencies taken into account.
+     */
+    public LatencyTracker(int capacity) {
+        this.samples = new long[capacity];
+    }
+
+    /**
+     * Records the latency of a completed request.
+     *
+     * @param latencyMs The latency in milliseconds.
+     */
+    public synchronized void record(long latencyMs) {
+        samples[next] = latencyMs;
+        next = (next + 1) % samples.length;
+        count = Math.min(count + 1, samples.length);
+    }
+
+    /**
+     * Computes a percentile of the recorded latencies.
+     *
+     * @param percentile The percentile, between 0 and 1, e.g. 0.95.
+     * @return The latency in milliseconds, or -1 if fewer than {@value #MIN_SAMPLES} latencies were recorded.
+     */
+    public synchronized long percentile(double percentile) {
+        if (count < MIN_SAMPLES) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile * count) - 1;
+        return sorted[Math.max(0, Math.min(index, count - 1))];
+    }
+}
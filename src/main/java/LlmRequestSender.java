@@ -0,0 +1,30 @@
+import java.io.IOException;
+
+/**
+ * Sends a single prompt to the Language Model and returns its answer.
+ */
+@FunctionalInterface
+public interface LlmRequestSender {
+    /**
+     * Sends the given prompt to the Language Model.
+     *
+     * @param request The prompt to send.
+     * @return The answer of the Language Model.
+     * @throws IOException          If an I/O error occurs during the HTTP request.
+     * @throws InterruptedException If the HTTP request is interrupted.
+     */
+    String send(String request) throws IOException, InterruptedException;
+
+    /**
+     * Sends the request whose answer is the explanation shown to the user, as opposed to intermediate requests
+     * such as chunk summaries. Senders may override this to stream the answer.
+     *
+     * @param request The prompt to send.
+     * @return The answer of the Language Model.
+     * @throws IOException          If an I/O error occurs during the HTTP request.
+     * @throws InterruptedException If the HTTP request is interrupted.
+     */
+    default String sendFinal(String request) throws IOException, InterruptedException {
+        return send(request);
+    }
+}
@@ -0,0 +1,104 @@
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Carries request bodies to the Language Model API and returns its responses. The default transport talks HTTP;
+ * {@link RecordingTransport} and {@link ReplayTransport} record real exchanges to an archive and play them back,
+ * so tests and demos can run without network access.
+ */
+public interface LlmTransport {
+    /**
+     * Sends a request body to the API.
+     *
+     * @param requestBody The JSON request body.
+     * @param apiKey      The API key used for authorization.
+     * @param stream      Whether the response is streamed as server-sent events. Streamed responses are read line by
+     *                    line as they arrive; other responses are returned as a single line holding the whole body.
+     * @return The response.
+     * @throws IOException          If the request cannot be sent.
+     * @throws InterruptedException If the request is interrupted.
+     */
+    Response send(String requestBody, String apiKey, boolean stream) throws IOException, InterruptedException;
+
+    /**
+     * Checks whether the transport needs an API key. Replayed traffic does not.
+     *
+     * @return true if an API key must be supplied, false otherwise.
+     */
+    default boolean requiresApiKey() {
+        return true;
+    }
+
+    /**
+     * A response of the API: its status code and the lines of its body.
+     */
+    class Response implements AutoCloseable {
+        private final int statusCode;
+        private final Iterator<String> lines;
+        private final AutoCloseable onClose;
+
+        /**
+         * Constructs a Response.
+         *
+         * @param statusCode The HTTP status code.
+         * @param lines      The lines of the body, read lazily.
+         * @param onClose    Releases the underlying resources once the response is no longer needed.
+         */
+        public Response(int statusCode, Iterator<String> lines, AutoCloseable onClose) {
+            this.statusCode = statusCode;
+            this.lines = lines;
+            this.onClose = onClose;
+        }
+
+        /**
+         * Constructs a Response with a fully read body.
+         *
+         * @param statusCode The HTTP status code.
+         * @param lines      The lines of the body.
+         */
+        public Response(int statusCode, List<String> lines) {
+            this(statusCode, lines.iterator(), () -> {});
+        }
+
+        public int statusCode() {
+            return statusCode;
+        }
+
+        /**
+         * Gets the lines of the body. The iterator may block until the next line arrives.
+         *
+         * @return The iterator over the lines.
+         */
+        public Iterator<String> lines() {
+            return lines;
+        }
+
+        /**
+         * Reads the rest of the body.
+         *
+         * @return The remaining lines joined by line breaks.
+         */
+        public String body() {
+            StringBuilder body = new StringBuilder();
+            while (lines.hasNext()) {
+                if (body.length() > 0) {
+                    body.append("\n");
+                }
+                body.append(lines.next());
+            }
+            return body.toString();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                onClose.close();
+            } catch (IOException | RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        }
+    }
+}
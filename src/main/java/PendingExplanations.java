@@ -0,0 +1,51 @@
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.psi.SmartPsiElementPointer;
+import com.jetbrains.python.psi.PyFunction;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The functions with a queued or running explanation request the user did not ask for, shared by the prefetches and
+ * the {@link StaleExplanationRefresher}. A function is therefore requested once at a time, whichever of them asks
+ * first. Requests the user asked for are not tracked and are always sent.
+ */
+public class PendingExplanations {
+    private static final Set<String> pendingKeys = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Marks a function as pending, unless it already is or the given number of requests is already pending.
+     *
+     * @param key        The cache key of the function.
+     * @param maxPending The number of pending requests above which no more are accepted.
+     * @return true if the caller should submit the request, false otherwise.
+     */
+    static boolean tryAdd(String key, int maxPending) {
+        return pendingKeys.size() < maxPending && pendingKeys.add(key);
+    }
+
+    /**
+     * Forgets a pending function once its request completed.
+     *
+     * @param key The cache key of the function.
+     */
+    static void remove(String key) {
+        pendingKeys.remove(key);
+    }
+
+    /**
+     * Submits the explanation of a function marked as pending by {@link #tryAdd} and forgets it once the request
+     * completes, successfully or not.
+     *
+     * @param key        The cache key of the function.
+     * @param pointer    The pointer to the function; nothing is sent if the function no longer exists.
+     * @param priority   The priority of the request.
+     * @param deadlineMs How long the request may take from now, in milliseconds, before it is abandoned.
+     */
+    static void submit(String key, SmartPsiElementPointer<PyFunction> pointer, ExplanationPriority priority, long deadlineMs) {
+        ExplanationScheduler.getInstance().submit(priority, deadlineMs, () -> {
+            PyFunction current = ReadAction.compute(pointer::getElement);
+            return current == null ? "" : ExplanationPipeline.getInstance().explainInBackground(current);
+        }).getFuture().whenComplete((explanation, error) -> remove(key));
+    }
+}
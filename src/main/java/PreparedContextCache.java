@@ -0,0 +1,231 @@
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiTreeChangeEvent;
+import com.intellij.psi.SmartPointerManager;
+import com.intellij.psi.SmartPsiElementPointer;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.jetbrains.python.psi.PyFile;
+import com.jetbrains.python.psi.PyFunction;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A project-level cache of the prepared and compressed context of each function, with its token count. Every entry
+ * records the PSI elements its context was built from: the function, its containing class, the imports and globals
+ * it uses and the related definitions found by the {@link ProjectFunctionIndex}. A PSI change only invalidates the
+ * entries depending on an element it touches, so explaining a function again skips preparing its context unless
+ * something it depends on was edited. Changes to the top level of a file invalidate every entry depending on that
+ * file, since they may add a global the function uses.
+ */
+public class PreparedContextCache implements Disposable {
+    private static final int MAX_ENTRIES = 500;
+    private static final int CONTEXT_TOKEN_BUDGET = 14000;
+
+    private final Project project;
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<VirtualFile, Set<String>> keysByFile = new HashMap<>();
+
+    /**
+     * Constructs a PreparedContextCache and starts listening for PSI changes.
+     *
+     * @param project The project whose contexts are cached.
+     */
+    public PreparedContextCache(Project project) {
+        this.project = project;
+        PythonFileChangeTracker.subscribe(project, this::invalidate, this);
+    }
+
+    /**
+     * Gets the prepared context of a function, preparing and caching it if it is not cached or was invalidated.
+     * Contexts are built within {@value #CONTEXT_TOKEN_BUDGET} tokens, twice the limit of a request, so removing
+     * comments can still bring a context under the limit. Must be called within a read action.
+     *
+     * @param function The Python function.
+     * @return The prepared, compressed context.
+     */
+    public Prepared getContext(PyFunction function) {
+        String key = ExplanationCache.keyFor(function);
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.functionPointer.getElement() == function) {
+                return entry.prepared;
+            }
+        }
+
+        ProjectFunctionIndex functionIndex = project.getService(ProjectFunctionIndex.class);
+        boolean complete = functionIndex == null || functionIndex.isBuilt();
+        List<PsiElement> dependencies = new ArrayList<>();
+        ContextRope rope = CodeParsingHelper.buildFunctionContext(function, dependencies, CONTEXT_TOKEN_BUDGET);
+        Prepared prepared = rope == null ? Prepared.oversized() : Prepared.of(rope.toString());
+        if (complete) {
+            store(key, function, prepared, dependencies);
+        }
+        return prepared;
+    }
+
+    /**
+     * Stores a prepared context with pointers to the elements it depends on.
+     *
+     * @param key          The cache key of the function.
+     * @param function     The Python function.
+     * @param prepared     The prepared context.
+     * @param dependencies The PSI elements the context was built from.
+     */
+    private void store(String key, PyFunction function, Prepared prepared, List<PsiElement> dependencies) {
+        SmartPointerManager pointerManager = SmartPointerManager.getInstance(project);
+        List<SmartPsiElementPointer<PsiElement>> pointers = new ArrayList<>();
+        Set<VirtualFile> files = new HashSet<>();
+        for (PsiElement dependency : dependencies) {
+            PsiFile file = dependency.getContainingFile();
+            if (file != null && file.getVirtualFile() != null) {
+                pointers.add(pointerManager.createSmartPsiElementPointer(dependency));
+                files.add(file.getVirtualFile());
+            }
+        }
+
+        synchronized (this) {
+            remove(key);
+            entries.put(key, new Entry(prepared, pointerManager.createSmartPsiElementPointer(function), pointers, files));
+            for (VirtualFile file : files) {
+                keysByFile.computeIfAbsent(file, ignored -> new HashSet<>()).add(key);
+            }
+            while (entries.size() > MAX_ENTRIES) {
+                remove(entries.keySet().iterator().next());
+            }
+        }
+    }
+
+    /**
+     * Drops the entries depending on an element touched by a PSI change, i.e. an element enclosing or enclosed by
+     * the changed element. Entries whose dependencies can no longer be found are dropped as well.
+     *
+     * @param file  The changed file.
+     * @param event The PSI change event.
+     */
+    private synchronized void invalidate(PyFile file, PsiTreeChangeEvent event) {
+        Set<String> keys = keysByFile.get(file.getVirtualFile());
+        if (keys == null) {
+            return;
+        }
+        PsiElement changed = event.getParent() != null ? event.getParent() : file;
+
+        for (String key : new ArrayList<>(keys)) {
+            Entry entry = entries.get(key);
+            if (entry == null || dependsOn(entry, changed)) {
+                remove(key);
+            }
+        }
+    }
+
+    private static boolean dependsOn(Entry entry, PsiElement changed) {
+        for (SmartPsiElementPointer<PsiElement> pointer : entry.dependencies) {
+            PsiElement dependency = pointer.getElement();
+            if (dependency == null || PsiTreeUtil.isAncestor(dependency, changed, false) || PsiTreeUtil.isAncestor(changed, dependency, false)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry == null) {
+            return;
+        }
+        for (VirtualFile file : entry.files) {
+            Set<String> keys = keysByFile.get(file);
+            if (keys != null && keys.remove(key) && keys.isEmpty()) {
+                keysByFile.remove(file);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of cached contexts.
+     *
+     * @return The number of entries.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized void dispose() {
+        entries.clear();
+        keysByFile.clear();
+    }
+
+    /**
+     * A prepared, compressed context and its estimated token count.
+     */
+    public static class Prepared {
+        private static final Prepared OVERSIZED = new Prepared(null, -1);
+
+        private final String context;
+        private final int tokens;
+
+        private Prepared(String context, int tokens) {
+            this.context = context;
+            this.tokens = tokens;
+        }
+
+        /**
+         * Gets the marker of a function too large for its context to be prepared within the budget. Such functions
+         * are explained in chunks instead.
+         *
+         * @return The oversized marker.
+         */
+        public static Prepared oversized() {
+            return OVERSIZED;
+        }
+
+        /**
+         * Compresses a context and counts its tokens.
+         *
+         * @param context The context as prepared by {@link CodeParsingHelper}.
+         * @return The prepared context.
+         */
+        public static Prepared of(String context) {
+            String compressed = CodeCompressor.compressCode(context);
+            return new Prepared(compressed, CodeCompressor.estimateTokenCount(compressed));
+        }
+
+        public boolean isOversized() {
+            return this == OVERSIZED;
+        }
+
+        public String getContext() {
+            return context;
+        }
+
+        public int getTokens() {
+            return tokens;
+        }
+    }
+
+    /**
+     * A cached context with the elements it depends on.
+     */
+    private static class Entry {
+        final Prepared prepared;
+        final SmartPsiElementPointer<PyFunction> functionPointer;
+        final List<SmartPsiElementPointer<PsiElement>> dependencies;
+        final Set<VirtualFile> files;
+
+        Entry(Prepared prepared, SmartPsiElementPointer<PyFunction> functionPointer, List<SmartPsiElementPointer<PsiElement>> dependencies, Set<VirtualFile> files) {
+            this.prepared = prepared;
+            this.functionPointer = functionPointer;
+            this.dependencies = dependencies;
+            this.files = files;
+        }
+    }
+}
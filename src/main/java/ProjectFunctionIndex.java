@@ -0,0 +1,268 @@
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.SmartPointerManager;
+import com.intellij.psi.SmartPsiElementPointer;
+import com.intellij.psi.search.FileTypeIndex;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.jetbrains.python.PythonFileType;
+import com.jetbrains.python.psi.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A project-level lexical index of every Python function and class, used to add the definitions most related to a
+ * function to its context. Each definition is indexed by the identifiers of its signature and body and by its
+ * docstring in a {@link Bm25Index}. The index is built once in the background and then kept current by re-indexing
+ * the files reported by PSI change events before each query.
+ */
+public class ProjectFunctionIndex implements Disposable {
+    private static final Logger LOG = Logger.getInstance(ProjectFunctionIndex.class);
+    private static final int MAX_SNIPPETS = 5;
+
+    private final Project project;
+    private final Bm25Index index = new Bm25Index();
+    private final Map<VirtualFile, List<String>> keysByFile = new ConcurrentHashMap<>();
+    private final Map<String, SmartPsiElementPointer<PyElement>> definitions = new ConcurrentHashMap<>();
+    private final Set<VirtualFile> dirtyFiles = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean buildStarted = new AtomicBoolean();
+    private volatile boolean built = false;
+    private final CompletableFuture<Void> ready = new CompletableFuture<>();
+
+    /**
+     * Constructs a ProjectFunctionIndex and starts listening for PSI changes.
+     *
+     * @param project The project whose definitions are indexed.
+     */
+    public ProjectFunctionIndex(Project project) {
+        this.project = project;
+        PythonFileChangeTracker.subscribe(project, (file, event) -> dirtyFiles.add(file.getVirtualFile()), this);
+    }
+
+
+    /**
+     * Retrieves the signatures and docstrings of the definitions most related to a function, best first, within the
+     * given token budget. The definitions the function calls and those calling it, as found by the
+     * {@link CallGraphIndex}, come first, followed by the lexically most similar ones. The function itself and
+     * definitions enclosing or enclosed by it are left out. Must be called within a read action. Returns nothing until
+     * the initial index build, started by the first call, has finished, so a request never waits for the whole project
+     * to be indexed.
+     *
+     * @param target      The function to be explained.
+     * @param tokenBudget The maximum number of tokens of the returned snippets.
+     * @return The related definitions, or an empty list.
+     */
+    public List<String> retrieveRelated(PyFunction target, int tokenBudget) {
+        return retrieveRelated(target, tokenBudget, new ArrayList<>());
+    }
+
+    /**
+     * Retrieves the definitions most related to a function like {@link #retrieveRelated(PyFunction, int)}, also
+     * collecting the definitions the returned snippets were taken from.
+     *
+     * @param target      The function to be explained.
+     * @param tokenBudget The maximum number of tokens of the returned snippets.
+     * @param sources     The list to which the definitions of the returned snippets are added.
+     * @return The related definitions, or an empty list.
+     */
+    public List<String> retrieveRelated(PyFunction target, int tokenBudget, List<PsiElement> sources) {
+        if (!built) {
+            startBuild();
+            return new ArrayList<>();
+        }
+        reindexDirtyFiles();
+
+        String targetKey = ExplanationCache.keyFor(target);
+        Set<String> candidates = new LinkedHashSet<>();
+        CallGraphIndex callGraph = project.getService(CallGraphIndex.class);
+        if (callGraph != null) {
+            candidates.addAll(callGraph.callees(target, MAX_SNIPPETS));
+            candidates.addAll(callGraph.callers(target, MAX_SNIPPETS));
+        }
+        candidates.addAll(index.search(Bm25Index.tokenize(describe(target)), MAX_SNIPPETS * 2, targetKey));
+
+        List<String> snippets = new ArrayList<>();
+        int used = 0;
+        for (String key : candidates) {
+            SmartPsiElementPointer<PyElement> pointer = definitions.get(key);
+            PyElement definition = pointer == null ? null : pointer.getElement();
+            if (definition == null || PsiTreeUtil.isAncestor(definition, target, false) || PsiTreeUtil.isAncestor(target, definition, false)) {
+                continue;
+            }
+            String snippet = getSnippet(definition);
+            int tokens = CodeCompressor.estimateTokenCount(snippet);
+            if (used + tokens > tokenBudget) {
+                continue;
+            }
+            snippets.add(snippet);
+            sources.add(definition);
+            used += tokens;
+            if (snippets.size() >= MAX_SNIPPETS) {
+                break;
+            }
+        }
+        return snippets;
+    }
+
+    /**
+     * Finds an indexed definition by its key. Must be called within a read action.
+     *
+     * @param key The key of the definition, as returned by the {@link CallGraphIndex}.
+     * @return The definition, or null if it is not indexed or no longer exists.
+     */
+    public PyElement findDefinition(String key) {
+        SmartPsiElementPointer<PyElement> pointer = definitions.get(key);
+        return pointer == null ? null : pointer.getElement();
+    }
+
+    /**
+     * Checks whether the initial index build has finished, i.e. whether {@link #retrieveRelated} returns results.
+     *
+     * @return true if the index is built, false otherwise.
+     */
+    public boolean isBuilt() {
+        return built;
+    }
+
+    /**
+     * Starts building the index on a pooled thread ahead of the first query, e.g. after the project is opened.
+     *
+     * @return A future completed once the index is ready.
+     */
+    public CompletableFuture<Void> warmUp() {
+        startBuild();
+        return ready;
+    }
+
+    /**
+     * Builds the index of the whole project on a pooled thread, unless the build was already started.
+     */
+    private void startBuild() {
+        if (!buildStarted.compareAndSet(false, true)) {
+            return;
+        }
+        ApplicationManager.getApplication().executeOnPooledThread(() -> {
+            long start = System.currentTimeMillis();
+            List<VirtualFile> files = ReadAction.compute(() ->
+                    new ArrayList<>(FileTypeIndex.getFiles(PythonFileType.INSTANCE, GlobalSearchScope.projectScope(project))));
+            for (VirtualFile file : files) {
+                if (project.isDisposed()) {
+                    return;
+                }
+                ReadAction.run(() -> indexFile(file));
+            }
+            built = true;
+            ready.complete(null);
+            LOG.info("Indexed " + index.size() + " definitions of " + project.getName() + " in " + (System.currentTimeMillis() - start) + " ms");
+        });
+    }
+
+    /**
+     * Re-indexes the files changed since the last query.
+     */
+    private void reindexDirtyFiles() {
+        for (VirtualFile file : new ArrayList<>(dirtyFiles)) {
+            dirtyFiles.remove(file);
+            indexFile(file);
+        }
+    }
+
+    /**
+     * Replaces the indexed definitions of a file with its current ones. Definitions of deleted files are removed.
+     *
+     * @param file The file to index.
+     */
+    private void indexFile(VirtualFile file) {
+        List<String> previousKeys = keysByFile.remove(file);
+        if (previousKeys != null) {
+            for (String key : previousKeys) {
+                index.remove(key);
+                definitions.remove(key);
+            }
+        }
+        if (!file.isValid()) {
+            return;
+        }
+        PsiFile psiFile = PsiManager.getInstance(project).findFile(file);
+        if (!(psiFile instanceof PyFile)) {
+            return;
+        }
+
+        SmartPointerManager pointerManager = SmartPointerManager.getInstance(project);
+        List<String> keys = new ArrayList<>();
+        for (PyElement definition : PsiTreeUtil.findChildrenOfAnyType(psiFile, PyFunction.class, PyClass.class)) {
+            String key = keyFor(file, definition);
+            index.add(key, Bm25Index.tokenize(describe(definition)));
+            definitions.put(key, pointerManager.createSmartPsiElementPointer(definition));
+            keys.add(key);
+        }
+        keysByFile.put(file, keys);
+    }
+
+    private static String keyFor(VirtualFile file, PyElement definition) {
+        if (definition instanceof PyFunction function) {
+            return ExplanationCache.keyFor(function);
+        }
+        String name = definition instanceof PyClass pyClass && pyClass.getQualifiedName() != null
+                ? pyClass.getQualifiedName()
+                : definition.getName();
+        return file.getPath() + "#" + name;
+    }
+
+    /**
+     * Describes a definition for indexing and querying: its signature, its docstring and the names it references.
+     *
+     * @param definition The function or class.
+     * @return The text to tokenize.
+     */
+    private static String describe(PyElement definition) {
+        StringBuilder description = new StringBuilder(getSnippet(definition)).append("\n");
+        Set<String> names = new HashSet<>();
+        for (PyReferenceExpression reference : PsiTreeUtil.findChildrenOfType(definition, PyReferenceExpression.class)) {
+            names.add(reference.getReferencedName());
+        }
+        for (String name : names) {
+            description.append(name).append(" ");
+        }
+        return description.toString();
+    }
+
+    /**
+     * Gets the compact form of a definition included in contexts: its header and docstring.
+     *
+     * @param definition The function or class.
+     * @return The snippet.
+     */
+    private static String getSnippet(PsiElement definition) {
+        String header;
+        String docString;
+        if (definition instanceof PyFunction function) {
+            header = CodeParsingHelper.getHeader(function, function.getStatementList());
+            docString = function.getDocStringValue();
+        } else {
+            PyClass pyClass = (PyClass) definition;
+            header = CodeParsingHelper.getHeader(pyClass, pyClass.getStatementList());
+            docString = pyClass.getDocStringValue();
+        }
+        return docString == null ? header + " ..." : header + "\n    \"\"\"" + docString.trim() + "\"\"\"";
+    }
+
+    @Override
+    public void dispose() {
+    }
+}
@@ -0,0 +1,106 @@
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.PsiTreeChangeAdapter;
+import com.intellij.psi.PsiTreeChangeEvent;
+import com.jetbrains.python.psi.PyFile;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A project-level PSI listener reporting changes to Python files to the plugin's indexes and caches. A single
+ * listener is registered with the platform however many services depend on PSI changes, and each change is resolved
+ * to its file once before it is passed on.
+ */
+public class PythonFileChangeTracker implements Disposable {
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Constructs a PythonFileChangeTracker and starts listening for PSI changes.
+     *
+     * @param project The project whose Python files are tracked.
+     */
+    public PythonFileChangeTracker(Project project) {
+        PsiManager.getInstance(project).addPsiTreeChangeListener(new PsiTreeChangeAdapter() {
+            @Override
+            public void childAdded(@NotNull PsiTreeChangeEvent event) {
+                changed(event);
+            }
+
+            @Override
+            public void childRemoved(@NotNull PsiTreeChangeEvent event) {
+                changed(event);
+            }
+
+            @Override
+            public void childReplaced(@NotNull PsiTreeChangeEvent event) {
+                changed(event);
+            }
+
+            @Override
+            public void childMoved(@NotNull PsiTreeChangeEvent event) {
+                changed(event);
+            }
+
+            @Override
+            public void childrenChanged(@NotNull PsiTreeChangeEvent event) {
+                changed(event);
+            }
+        }, this);
+    }
+
+    /**
+     * Adds a listener notified of every change to a Python file of the project until the given parent is disposed.
+     *
+     * @param project  The project.
+     * @param listener The listener.
+     * @param parent   The disposable whose disposal removes the listener.
+     */
+    public static void subscribe(Project project, Listener listener, Disposable parent) {
+        PythonFileChangeTracker tracker = project.getService(PythonFileChangeTracker.class);
+        tracker.listeners.add(listener);
+        Disposer.register(parent, () -> tracker.listeners.remove(listener));
+    }
+
+    /**
+     * Passes a PSI change on to the listeners if it touches a Python file backed by a file on disk. A removed file is
+     * reported through its removed child.
+     *
+     * @param event The PSI change event.
+     */
+    private void changed(PsiTreeChangeEvent event) {
+        PsiFile file = event.getFile();
+        if (file == null && event.getChild() instanceof PsiFile) {
+            file = (PsiFile) event.getChild();
+        }
+        if (!(file instanceof PyFile pyFile) || file.getVirtualFile() == null) {
+            return;
+        }
+        for (Listener listener : listeners) {
+            listener.pythonFileChanged(pyFile, event);
+        }
+    }
+
+    @Override
+    public void dispose() {
+        listeners.clear();
+    }
+
+    /**
+     * Receives the changes to the Python files of a project.
+     */
+    @FunctionalInterface
+    public interface Listener {
+        /**
+         * Called for every PSI change to a Python file, within the write action making it.
+         *
+         * @param file  The changed file.
+         * @param event The PSI change event.
+         */
+        void pythonFileChanged(PyFile file, PsiTreeChangeEvent event);
+    }
+}
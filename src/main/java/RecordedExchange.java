@@ -0,0 +1,134 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A recorded exchange with the Language Model API, as stored in a traffic archive. The archive is a sequence of gzip
+ * members, one per exchange, so recording appends without rewriting the file and a run cut short loses at most the
+ * exchange in flight. Each exchange holds the hash of the request, the status code, the time the response headers
+ * arrived and every line of the body with the time it arrived, all relative to the moment the request was sent.
+ */
+public class RecordedExchange {
+    private static final int FORMAT_VERSION = 1;
+
+    final String requestHash;
+    final boolean stream;
+    final int statusCode;
+    final long responseDelayMs;
+    final List<String> lines;
+    final List<Long> lineDelaysMs;
+
+    /**
+     * Constructs a RecordedExchange.
+     *
+     * @param requestHash     The hash identifying the request, see {@link #hashRequest(String, boolean)}.
+     * @param stream          Whether the response was streamed.
+     * @param statusCode      The HTTP status code.
+     * @param responseDelayMs The time until the response headers arrived.
+     * @param lines           The lines of the body.
+     * @param lineDelaysMs    The time until each line arrived.
+     */
+    RecordedExchange(String requestHash, boolean stream, int statusCode, long responseDelayMs, List<String> lines, List<Long> lineDelaysMs) {
+        this.requestHash = requestHash;
+        this.stream = stream;
+        this.statusCode = statusCode;
+        this.responseDelayMs = responseDelayMs;
+        this.lines = lines;
+        this.lineDelaysMs = lineDelaysMs;
+    }
+
+    /**
+     * Computes the key under which an exchange is recorded. The API key is not part of it, so archives can be shared
+     * and replayed with any key, or none.
+     *
+     * @param requestBody The JSON request body.
+     * @param stream      Whether the response is streamed.
+     * @return The request hash.
+     */
+    static String hashRequest(String requestBody, boolean stream) {
+        return ContentHash.sha256((stream ? "stream:" : "plain:") + requestBody);
+    }
+
+    /**
+     * Appends the exchange to an archive, creating the archive if needed.
+     *
+     * @param archive The path of the archive.
+     * @throws IOException If the archive cannot be written.
+     */
+    void appendTo(Path archive) throws IOException {
+        try (OutputStream file = Files.newOutputStream(archive, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+             DataOutputStream out = new DataOutputStream(new GZIPOutputStream(file))) {
+            out.writeInt(FORMAT_VERSION);
+            writeString(out, requestHash);
+            out.writeBoolean(stream);
+            out.writeInt(statusCode);
+            out.writeLong(responseDelayMs);
+            out.writeInt(lines.size());
+            for (int i = 0; i < lines.size(); i++) {
+                out.writeLong(lineDelaysMs.get(i));
+                writeString(out, lines.get(i));
+            }
+        }
+    }
+
+    /**
+     * Reads all exchanges of an archive.
+     *
+     * @param archive The path of the archive.
+     * @return The exchanges in recording order.
+     * @throws IOException If the archive cannot be read or has an unknown format.
+     */
+    static List<RecordedExchange> readAll(Path archive) throws IOException {
+        List<RecordedExchange> exchanges = new ArrayList<>();
+        try (InputStream file = Files.newInputStream(archive);
+             DataInputStream in = new DataInputStream(new GZIPInputStream(file))) {
+            while (true) {
+                int version;
+                try {
+                    version = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (version != FORMAT_VERSION) {
+                    throw new IOException("Unsupported traffic archive version: " + version);
+                }
+                String requestHash = readString(in);
+                boolean stream = in.readBoolean();
+                int statusCode = in.readInt();
+                long responseDelayMs = in.readLong();
+                int lineCount = in.readInt();
+                List<String> lines = new ArrayList<>(lineCount);
+                List<Long> lineDelaysMs = new ArrayList<>(lineCount);
+                for (int i = 0; i < lineCount; i++) {
+                    lineDelaysMs.add(in.readLong());
+                    lines.add(readString(in));
+                }
+                exchanges.add(new RecordedExchange(requestHash, stream, statusCode, responseDelayMs, lines, lineDelaysMs));
+            }
+        }
+        return exchanges;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,93 @@
+import com.intellij.openapi.diagnostic.Logger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Passes requests to another transport and records every exchange, with its timing, to a traffic archive that
+ * {@link ReplayTransport} can play back. Streamed bodies are recorded as they are read, so recording does not delay
+ * the lines reaching the caller.
+ */
+public class RecordingTransport implements LlmTransport {
+    private static final Logger LOG = Logger.getInstance(RecordingTransport.class);
+
+    private final LlmTransport delegate;
+    private final Path archive;
+
+    /**
+     * Constructs a RecordingTransport.
+     *
+     * @param delegate The transport performing the actual requests.
+     * @param archive  The archive the exchanges are appended to.
+     */
+    public RecordingTransport(LlmTransport delegate, Path archive) {
+        this.delegate = delegate;
+        this.archive = archive;
+    }
+
+    @Override
+    public Response send(String requestBody, String apiKey, boolean stream) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        Response response = delegate.send(requestBody, apiKey, stream);
+        long responseDelayMs = elapsedMs(start);
+
+        List<String> lines = new ArrayList<>();
+        List<Long> lineDelaysMs = new ArrayList<>();
+        boolean[] written = {false};
+        Runnable record = () -> {
+            if (written[0]) {
+                return;
+            }
+            written[0] = true;
+            RecordedExchange exchange = new RecordedExchange(RecordedExchange.hashRequest(requestBody, stream), stream,
+                    response.statusCode(), responseDelayMs, lines, lineDelaysMs);
+            try {
+                synchronized (this) {
+                    exchange.appendTo(archive);
+                }
+            } catch (IOException e) {
+                LOG.warn("Could not record exchange to " + archive + ": " + e.getMessage());
+            }
+        };
+
+        Iterator<String> source = response.lines();
+        Iterator<String> recorded = new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                boolean hasNext = source.hasNext();
+                if (!hasNext) {
+                    record.run();
+                }
+                return hasNext;
+            }
+
+            @Override
+            public String next() {
+                if (!source.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                String line = source.next();
+                lines.add(line);
+                lineDelaysMs.add(elapsedMs(start));
+                return line;
+            }
+        };
+        return new Response(response.statusCode(), recorded, () -> {
+            record.run();
+            response.close();
+        });
+    }
+
+    @Override
+    public boolean requiresApiKey() {
+        return delegate.requiresApiKey();
+    }
+
+    private static long elapsedMs(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+}
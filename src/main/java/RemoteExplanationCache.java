@@ -0,0 +1,249 @@
+import com.intellij.openapi.diagnostic.Logger;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+
+/**
+ * An optional cache tier shared by a team, consulted after the local {@link ExplanationCache} and before the
+ * Language Model. Explanations are content-addressed: the key is the hash of the normalized context together with
+ * the model parameters of the request, so the same function explained by different people maps to the same entry.
+ * The server protocol follows build caches: GET and PUT on {@code <base>/cas/<key>}, plus a POST of a JSON array of
+ * keys to {@code <base>/cas/batch} answered with a JSON object of the entries found. Stores are written behind on a
+ * single background thread, and any failure of the server is treated as a miss so it never fails an explanation.
+ * After a failure, the server is left alone for {@value #BACKOFF_MS} ms, so an unreachable server does not add its
+ * timeout to every explanation.
+ */
+public class RemoteExplanationCache {
+    private static final Logger LOG = Logger.getInstance(RemoteExplanationCache.class);
+    static final String URL_PROPERTY = "explain.cache.remote";
+    private static final String KEY_VERSION = "v2\n";
+    private static final int MAX_BATCH_KEYS = 100;
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(3);
+    static final long BACKOFF_MS = 60_000;
+
+    private final URI baseUri;
+    private final HttpClient httpClient;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Explanation cache writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean failureLogged = new AtomicBoolean();
+    private final LongSupplier clock;
+    private volatile long unavailableUntil = 0;
+
+    /**
+     * Constructs a RemoteExplanationCache.
+     *
+     * @param baseUri    The base URI of the cache server.
+     * @param httpClient The client used for all requests.
+     */
+    public RemoteExplanationCache(URI baseUri, HttpClient httpClient) {
+        this(baseUri, httpClient, System::currentTimeMillis);
+    }
+
+    /**
+     * Constructs a RemoteExplanationCache reading the time from the given clock.
+     *
+     * @param baseUri    The base URI of the cache server.
+     * @param httpClient The client used for all requests.
+     * @param clock      The clock returning the current time in milliseconds.
+     */
+    RemoteExplanationCache(URI baseUri, HttpClient httpClient, LongSupplier clock) {
+        String base = baseUri.toString();
+        this.baseUri = URI.create(base.endsWith("/") ? base : base + "/");
+        this.httpClient = httpClient;
+        this.clock = clock;
+    }
+
+    /**
+     * Creates the remote cache configured by the {@value #URL_PROPERTY} system property.
+     *
+     * @return The remote cache, or null if none is configured.
+     */
+    public static RemoteExplanationCache fromSystemProperty() {
+        String url = System.getProperty(URL_PROPERTY);
+        if (url == null || url.isBlank()) {
+            return null;
+        }
+        return new RemoteExplanationCache(URI.create(url.trim()), HttpClient.newBuilder().connectTimeout(REQUEST_TIMEOUT).build());
+    }
+
+    /**
+     * Computes the content address of the full explanation of a context, as requested for a single function. The
+     * context is normalized first, so differences in line endings and trailing whitespace between checkouts do not
+     * matter, and hashed together with the model parameters of the request that would explain it.
+     *
+     * @param context The prepared context sent to the Language Model.
+     * @return The key.
+     */
+    public static String keyFor(String context) {
+        return keyFor(context, "");
+    }
+
+    /**
+     * Computes the content address of the explanation of a context requested with the given instructions, e.g. the
+     * short explanations of {@link RequestPacker#PACKED_PROMPT}. Explanations requested differently never share a
+     * key, so a short explanation is never served where a full one was asked for.
+     *
+     * @param context      The prepared context sent to the Language Model.
+     * @param instructions The instructions sent with the context, or an empty string for a full explanation.
+     * @return The key.
+     */
+    public static String keyFor(String context, String instructions) {
+        return ContentHash.sha256(KEY_VERSION + instructions + ChatGPTApiClient.createRequestBody(normalize(context)));
+    }
+
+    /**
+     * Normalizes a context for hashing: line endings become "\n", trailing whitespace is removed from every line and
+     * leading and trailing blank lines are dropped.
+     *
+     * @param context The context.
+     * @return The normalized context.
+     */
+    static String normalize(String context) {
+        StringBuilder normalized = new StringBuilder(context.length());
+        for (String line : context.replace("\r\n", "\n").replace('\r', '\n').split("\n")) {
+            normalized.append(line.stripTrailing()).append('\n');
+        }
+        return normalized.toString().strip();
+    }
+
+    /**
+     * Looks up a single explanation.
+     *
+     * @param key The content address.
+     * @return The explanation, or null if the server does not have it, cannot be reached or failed recently.
+     * @throws InterruptedException If the request is interrupted.
+     */
+    public String lookup(String key) throws InterruptedException {
+        if (isBackingOff()) {
+            return null;
+        }
+        HttpRequest request = HttpRequest.newBuilder(entryUri(key)).timeout(REQUEST_TIMEOUT).GET().build();
+        try {
+            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            return response.statusCode() == 200 ? response.body() : null;
+        } catch (IOException e) {
+            logFailure(e);
+            return null;
+        }
+    }
+
+    /**
+     * Looks up many explanations with as few requests as possible, at most {@value #MAX_BATCH_KEYS} keys each.
+     *
+     * @param keys The content addresses.
+     * @return The explanations found, keyed by content address.
+     * @throws InterruptedException If a request is interrupted.
+     */
+    public Map<String, String> lookupAll(Collection<String> keys) throws InterruptedException {
+        Map<String, String> found = new HashMap<>();
+        if (isBackingOff()) {
+            return found;
+        }
+        List<String> remaining = new ArrayList<>(keys);
+        for (int start = 0; start < remaining.size(); start += MAX_BATCH_KEYS) {
+            JSONArray batch = new JSONArray(remaining.subList(start, Math.min(start + MAX_BATCH_KEYS, remaining.size())));
+            HttpRequest request = HttpRequest.newBuilder(baseUri.resolve("cas/batch"))
+                    .timeout(REQUEST_TIMEOUT)
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(batch.toString()))
+                    .build();
+            try {
+                HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+                if (response.statusCode() != 200) {
+                    continue;
+                }
+                JSONObject entries = new JSONObject(response.body());
+                for (String key : entries.keySet()) {
+                    found.put(key, entries.getString(key));
+                }
+            } catch (IOException | JSONException e) {
+                logFailure(e);
+                return found;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Stores an explanation in the background. The call returns immediately; failures are logged and dropped, and so
+     * are stores while the server is left alone after a failure.
+     *
+     * @param key         The content address.
+     * @param explanation The explanation.
+     */
+    public void store(String key, String explanation) {
+        writer.execute(() -> {
+            if (isBackingOff()) {
+                return;
+            }
+            HttpRequest request = HttpRequest.newBuilder(entryUri(key))
+                    .timeout(REQUEST_TIMEOUT)
+                    .header("Content-Type", "text/plain; charset=utf-8")
+                    .PUT(HttpRequest.BodyPublishers.ofString(explanation))
+                    .build();
+            try {
+                httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+            } catch (IOException e) {
+                logFailure(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    /**
+     * Waits until all stores issued so far were sent.
+     *
+     * @throws InterruptedException If the wait is interrupted.
+     */
+    public void flush() throws InterruptedException {
+        try {
+            writer.submit(() -> { }).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private URI entryUri(String key) {
+        return baseUri.resolve("cas/" + key);
+    }
+
+    private boolean isBackingOff() {
+        return clock.getAsLong() < unavailableUntil;
+    }
+
+    /**
+     * Leaves the server alone for {@value #BACKOFF_MS} ms and logs the first failure to reach it; later ones are only
+     * logged at debug level, since an unreachable server would otherwise flood the log.
+     *
+     * @param e The failure.
+     */
+    private void logFailure(Exception e) {
+        unavailableUntil = clock.getAsLong() + BACKOFF_MS;
+        if (failureLogged.compareAndSet(false, true)) {
+            LOG.warn("Remote explanation cache at " + baseUri + " is unavailable, treating lookups as misses: " + e.getMessage());
+        } else {
+            LOG.debug(e);
+        }
+    }
+}
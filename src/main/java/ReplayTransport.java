@@ -0,0 +1,99 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Answers requests from a traffic archive written by {@link RecordingTransport}, without network access. Requests are
+ * matched by their body; a request recorded several times is answered with its recordings in order, repeating the
+ * last one once they are used up. Responses are played back either with the timing they were recorded with, which
+ * reproduces realistic streaming, or at full speed, which makes benchmarks of parsing, scheduling and rendering
+ * independent of network latency.
+ */
+public class ReplayTransport implements LlmTransport {
+    private final Map<String, List<RecordedExchange>> exchanges = new HashMap<>();
+    private final Map<String, Integer> replayCounts = new HashMap<>();
+    private final boolean originalTiming;
+
+    /**
+     * Loads a traffic archive for replay.
+     *
+     * @param archive        The path of the archive.
+     * @param originalTiming Whether responses are delayed as they were when recorded.
+     * @throws IOException If the archive cannot be read.
+     */
+    public ReplayTransport(Path archive, boolean originalTiming) throws IOException {
+        this.originalTiming = originalTiming;
+        for (RecordedExchange exchange : RecordedExchange.readAll(archive)) {
+            exchanges.computeIfAbsent(exchange.requestHash, hash -> new ArrayList<>()).add(exchange);
+        }
+    }
+
+    @Override
+    public Response send(String requestBody, String apiKey, boolean stream) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        RecordedExchange exchange = nextExchange(RecordedExchange.hashRequest(requestBody, stream));
+        if (exchange == null) {
+            throw new IOException("No recorded exchange for this request.");
+        }
+        waitUntil(start, exchange.responseDelayMs);
+
+        Iterator<String> lines = new Iterator<>() {
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return index < exchange.lines.size();
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                try {
+                    waitUntil(start, exchange.lineDelaysMs.get(index));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return exchange.lines.get(index++);
+            }
+        };
+        return new Response(exchange.statusCode, lines, () -> {});
+    }
+
+    @Override
+    public boolean requiresApiKey() {
+        return false;
+    }
+
+    private synchronized RecordedExchange nextExchange(String requestHash) {
+        List<RecordedExchange> recorded = exchanges.get(requestHash);
+        if (recorded == null) {
+            return null;
+        }
+        int count = replayCounts.merge(requestHash, 1, Integer::sum);
+        return recorded.get(Math.min(count, recorded.size()) - 1);
+    }
+
+    /**
+     * Sleeps until the given time after the start of the request has passed, if original timing is enabled.
+     *
+     * @param startNanos The time the request was sent, from {@link System#nanoTime()}.
+     * @param delayMs    The recorded delay.
+     * @throws InterruptedException If the wait is interrupted.
+     */
+    private void waitUntil(long startNanos, long delayMs) throws InterruptedException {
+        if (!originalTiming) {
+            return;
+        }
+        long remainingMs = delayMs - (System.nanoTime() - startNanos) / 1_000_000;
+        if (remainingMs > 0) {
+            Thread.sleep(remainingMs);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+import com.intellij.openapi.diagnostic.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Packs the contexts of several small functions into a single request and splits the answer back into one
+ * explanation per function. Functions whose section is missing or incomplete in the answer are re-sent on their own.
+ */
+public class RequestPacker {
+    private static final Logger LOG = Logger.getInstance(RequestPacker.class);
+    static final String PACKED_PROMPT = "Explain each of the following Python functions separately and concisely, in at most 100 words each. Every function is given in a section starting with a line \"### FUNCTION <id>\". Answer with one section per function in the same order. Each section must start with the line \"### EXPLANATION <id>\", followed by the explanation, and end with the line \"### END <id>\". Do not write anything outside of the sections.\n\n";
+    private static final Pattern SECTION_PATTERN = Pattern.compile("(?ms)^### EXPLANATION (\\S+)\\s*$(.*?)^### END \\1\\s*$");
+    private static final int MAX_ITEMS_PER_REQUEST = 6;
+
+    private final int tokenBudget;
+
+    /**
+     * Constructs a RequestPacker.
+     *
+     * @param tokenBudget The maximum number of tokens a packed request may contain.
+     */
+    public RequestPacker(int tokenBudget) {
+        this.tokenBudget = tokenBudget;
+    }
+
+    /**
+     * Explains all given items, packing as many of them into each request as the token budget allows.
+     * Items that cannot be explained even on their own are left out of the result.
+     *
+     * @param items  The items to explain.
+     * @param sender The sender used to query the Language Model.
+     * @return The explanations, keyed by item id.
+     * @throws InterruptedException If a request is interrupted.
+     */
+    public Map<String, String> explainAll(List<Item> items, LlmRequestSender sender) throws InterruptedException {
+        Map<String, String> explanations = new LinkedHashMap<>();
+        for (List<Item> pack : pack(items)) {
+            Map<String, String> parsed = new HashMap<>();
+            if (pack.size() > 1) {
+                try {
+                    parsed = unpack(pack, sender.send(buildPrompt(pack)));
+                } catch (IOException e) {
+                    LOG.warn("Packed request failed, re-sending its functions one by one: " + e.getMessage());
+                }
+            }
+
+            for (Item item : pack) {
+                String explanation = parsed.get(item.id);
+                if (explanation == null) {
+                    explanation = sendAlone(item, sender);
+                }
+                if (explanation != null) {
+                    explanations.put(item.id, explanation);
+                }
+            }
+        }
+        return explanations;
+    }
+
+    private static String sendAlone(Item item, LlmRequestSender sender) throws InterruptedException {
+        try {
+            return sender.send(item.context);
+        } catch (IOException e) {
+            LOG.warn("Could not explain " + item.id + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Groups consecutive items into packs whose prompt fits the token budget, with at most
+     * {@value #MAX_ITEMS_PER_REQUEST} items per pack so the answer stays within the response limit.
+     *
+     * @param items The items to group.
+     * @return The list of packs.
+     */
+    List<List<Item>> pack(List<Item> items) {
+        List<List<Item>> packs = new ArrayList<>();
+        List<Item> current = new ArrayList<>();
+        int promptTokens = CodeCompressor.estimateTokenCount(PACKED_PROMPT);
+        int currentTokens = promptTokens;
+        for (Item item : items) {
+            int itemTokens = item.getTokens() + CodeCompressor.estimateTokenCount(sectionHeader(current.size()));
+            if (!current.isEmpty() && (currentTokens + itemTokens > tokenBudget || current.size() >= MAX_ITEMS_PER_REQUEST)) {
+                packs.add(current);
+                current = new ArrayList<>();
+                currentTokens = promptTokens;
+            }
+            current.add(item);
+            currentTokens += itemTokens;
+        }
+        if (!current.isEmpty()) {
+            packs.add(current);
+        }
+        return packs;
+    }
+
+    /**
+     * Builds the prompt for a pack of items. Items are numbered by their position in the pack, which keeps
+     * the section markers short and independent of the function names.
+     *
+     * @param pack The items to include.
+     * @return The packed prompt.
+     */
+    static String buildPrompt(List<Item> pack) {
+        StringBuilder prompt = new StringBuilder(PACKED_PROMPT);
+        for (int i = 0; i < pack.size(); i++) {
+            prompt.append(sectionHeader(i)).append(pack.get(i).context).append("\n\n");
+        }
+        return prompt.toString();
+    }
+
+    /**
+     * Splits a packed answer into its sections. Only sections closed by their end marker are returned, so a
+     * section cut off by the response limit is treated as missing.
+     *
+     * @param response The answer of the Language Model.
+     * @return The explanations, keyed by section id.
+     */
+    static Map<String, String> parseResponse(String response) {
+        Map<String, String> sections = new HashMap<>();
+        Matcher matcher = SECTION_PATTERN.matcher(response);
+        while (matcher.find()) {
+            sections.put(matcher.group(1), matcher.group(2).trim());
+        }
+        return sections;
+    }
+
+    /**
+     * Assigns the sections of a packed answer to the items of the pack. Empty sections are treated as missing.
+     *
+     * @param pack     The items the prompt was built from.
+     * @param response The answer of the Language Model.
+     * @return The explanations, keyed by item id.
+     */
+    static Map<String, String> unpack(List<Item> pack, String response) {
+        Map<String, String> sections = parseResponse(response);
+        Map<String, String> explanations = new HashMap<>();
+        for (int i = 0; i < pack.size(); i++) {
+            String explanation = sections.get(sectionId(i));
+            if (explanation != null && !explanation.isEmpty()) {
+                explanations.put(pack.get(i).id, explanation);
+            }
+        }
+        return explanations;
+    }
+
+    private static String sectionHeader(int index) {
+        return "### FUNCTION " + sectionId(index) + "\n";
+    }
+
+    private static String sectionId(int index) {
+        return "F" + (index + 1);
+    }
+
+    /**
+     * A function to explain: its id and its prepared context.
+     */
+    public static class Item {
+        final String id;
+        final String context;
+        private int tokens = -1;
+
+        /**
+         * Constructs an Item.
+         *
+         * @param id      The id under which the explanation is returned.
+         * @param context The prepared context of the function.
+         */
+        public Item(String id, String context) {
+            this.id = id;
+            this.context = context;
+        }
+
+        /**
+         * Constructs an Item whose token count is already known.
+         *
+         * @param id      The id under which the explanation is returned.
+         * @param context The prepared context of the function.
+         * @param tokens  The estimated token count of the context.
+         */
+        public Item(String id, String context, int tokens) {
+            this(id, context);
+            this.tokens = tokens;
+        }
+
+        int getTokens() {
+            if (tokens < 0) {
+                tokens = CodeCompressor.estimateTokenCount(context);
+            }
+            return tokens;
+        }
+    }
+}
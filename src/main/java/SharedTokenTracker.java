@@ -0,0 +1,238 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.LongSupplier;
+
+/**
+ * A TokenTracker whose sliding window is shared by every IDE process on the machine. Usage is kept in a small
+ * memory-mapped file of {@value #BUCKET_COUNT} one-second buckets, each holding the second it belongs to and the tokens
+ * used in it. Every access takes an exclusive lock on the file, so windows of the same IDE and separate IDE instances
+ * draw from one budget. Reads and writes touch less than a kilobyte of mapped memory and never hit the disk
+ * synchronously, so the limiter costs microseconds per request.
+ */
+public class SharedTokenTracker extends TokenTracker implements AutoCloseable {
+    static final int BUCKET_COUNT = 60;
+    private static final int MAGIC = 0x544B5452;
+    private static final int HEADER_BYTES = 8;
+    private static final int BUCKET_BYTES = Long.BYTES + Integer.BYTES;
+    private static final int FILE_BYTES = HEADER_BYTES + BUCKET_COUNT * BUCKET_BYTES;
+    // File locks are held per JVM, so threads and trackers within this process serialize on a monitor first.
+    private static final Object PROCESS_LOCK = new Object();
+
+    private final FileChannel channel;
+    private final MappedByteBuffer state;
+    private final LongSupplier clock;
+
+    /**
+     * Opens the shared state file at the given path, creating it if needed.
+     *
+     * @param statePath The path of the state file.
+     * @throws IOException If the file cannot be created or mapped.
+     */
+    public SharedTokenTracker(Path statePath) throws IOException {
+        this(statePath, System::currentTimeMillis);
+    }
+
+    /**
+     * Opens the shared state file at the given path, reading the time from the given clock.
+     *
+     * @param statePath The path of the state file.
+     * @param clock     The clock returning the current time in milliseconds.
+     * @throws IOException If the file cannot be created or mapped.
+     */
+    SharedTokenTracker(Path statePath, LongSupplier clock) throws IOException {
+        this.clock = clock;
+        Files.createDirectories(statePath.toAbsolutePath().getParent());
+        this.channel = FileChannel.open(statePath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.state = channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_BYTES);
+        synchronized (PROCESS_LOCK) {
+            try (FileLock ignored = channel.lock()) {
+                if (state.getInt(0) != MAGIC || state.getInt(4) != BUCKET_COUNT) {
+                    for (int i = 0; i < FILE_BYTES; i++) {
+                        state.put(i, (byte) 0);
+                    }
+                    state.putInt(4, BUCKET_COUNT);
+                    state.putInt(0, MAGIC);
+                }
+            }
+        }
+    }
+
+    /**
+     * Records the usage of tokens in the bucket of the current second.
+     *
+     * @param tokenCount The number of tokens used.
+     */
+    @Override
+    public void recordTokenUsage(int tokenCount) {
+        long second = currentSecond();
+        int offset = bucketOffset(second);
+        withLock(() -> {
+            addToBucket(offset, second, tokenCount);
+            return 0;
+        });
+    }
+
+    /**
+     * Reserves tokens in the bucket of the current second if the window of all processes has room for them. The check
+     * and the reservation happen under one file lock, so processes and threads reserving at the same moment can never
+     * together exceed the limit.
+     *
+     * @param tokenCount The estimated number of tokens of the request.
+     * @param limit      The maximum number of tokens the window may hold.
+     * @return The reservation, or null if the tokens do not fit.
+     */
+    @Override
+    public Reservation tryReserve(int tokenCount, int limit) {
+        long now = clock.getAsLong();
+        long second = now / 1000;
+        int offset = bucketOffset(second);
+        int reserved = withLock(() -> {
+            if (windowTotal(second) + tokenCount > limit) {
+                return 0;
+            }
+            addToBucket(offset, second, tokenCount);
+            return 1;
+        });
+        return reserved == 1 ? new Reservation(now, tokenCount, null) : null;
+    }
+
+    /**
+     * Replaces the estimated tokens of a reservation with the usage reported by the API, in the bucket the tokens
+     * were reserved in. A reservation whose bucket already left the window is not corrected.
+     *
+     * @param reservation The reservation made for the request.
+     * @param tokenCount  The number of tokens the request actually used.
+     */
+    @Override
+    public void settle(Reservation reservation, int tokenCount) {
+        long second = reservation.timestamp / 1000;
+        int offset = bucketOffset(second);
+        long now = currentSecond();
+        withLock(() -> {
+            if (state.getLong(offset) == second && isInWindow(second, now)) {
+                int bucketTokens = state.getInt(offset + Long.BYTES);
+                state.putInt(offset + Long.BYTES, Math.max(0, bucketTokens + tokenCount - reservation.tokenCount));
+            }
+            return 0;
+        });
+    }
+
+    /**
+     * Calculates the seconds until the oldest usage still in the window expires.
+     *
+     * @return The remaining wait time in seconds.
+     */
+    @Override
+    public int getRemainingWaitTime() {
+        long now = currentSecond();
+        return withLock(() -> {
+            long oldest = Long.MAX_VALUE;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                int offset = HEADER_BYTES + i * BUCKET_BYTES;
+                long second = state.getLong(offset);
+                if (isInWindow(second, now) && state.getInt(offset + Long.BYTES) > 0) {
+                    oldest = Math.min(oldest, second);
+                }
+            }
+            return oldest == Long.MAX_VALUE ? 0 : (int) (oldest + BUCKET_COUNT - now);
+        });
+    }
+
+    /**
+     * Retrieves the total number of tokens used by all processes within the window.
+     *
+     * @return The current total token count.
+     */
+    @Override
+    public int getCurrentTokenCount() {
+        long now = currentSecond();
+        return withLock(() -> windowTotal(now));
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Adds tokens to the bucket of a second, resetting the bucket if it still holds an older second. Must be called
+     * while holding the lock.
+     *
+     * @param offset     The offset of the bucket.
+     * @param second     The second the tokens belong to.
+     * @param tokenCount The number of tokens to add.
+     */
+    private void addToBucket(int offset, long second, int tokenCount) {
+        if (state.getLong(offset) != second) {
+            state.putLong(offset, second);
+            state.putInt(offset + Long.BYTES, 0);
+        }
+        state.putInt(offset + Long.BYTES, state.getInt(offset + Long.BYTES) + tokenCount);
+    }
+
+    /**
+     * Sums the tokens of the buckets within the window. Must be called while holding the lock.
+     *
+     * @param now The current second.
+     * @return The number of tokens in the window.
+     */
+    private int windowTotal(long now) {
+        int total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            int offset = HEADER_BYTES + i * BUCKET_BYTES;
+            if (isInWindow(state.getLong(offset), now)) {
+                total += state.getInt(offset + Long.BYTES);
+            }
+        }
+        return total;
+    }
+
+    private long currentSecond() {
+        return clock.getAsLong() / 1000;
+    }
+
+    private static boolean isInWindow(long second, long now) {
+        return now - second < BUCKET_COUNT && second <= now;
+    }
+
+    private static int bucketOffset(long second) {
+        return HEADER_BYTES + (int) (second % BUCKET_COUNT) * BUCKET_BYTES;
+    }
+
+    /**
+     * Runs an operation on the mapped state while holding both the in-process monitor and the file lock.
+     * If the file lock cannot be taken, the operation still runs under the monitor, so a broken lock degrades to
+     * per-process limiting instead of failing the request.
+     *
+     * @param operation The operation to run.
+     * @return The result of the operation.
+     */
+    private int withLock(StateOperation operation) {
+        synchronized (PROCESS_LOCK) {
+            FileLock lock = null;
+            try {
+                lock = channel.lock();
+            } catch (IOException ignored) {
+            }
+            try {
+                return operation.run();
+            } finally {
+                if (lock != null) {
+                    try {
+                        lock.release();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }
+    }
+
+    private interface StateOperation {
+        int run();
+    }
+}
@@ -0,0 +1,185 @@
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.SmartPointerManager;
+import com.intellij.psi.SmartPsiElementPointer;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.jetbrains.python.psi.PyFile;
+import com.jetbrains.python.psi.PyFunction;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A project-level job keeping explanations fresh after files change through version control, e.g. a pull, a
+ * rebase or a branch switch. Changed files are collected for {@value #DEBOUNCE_MS} ms so one update is handled in one
+ * pass. Only functions with a cached explanation are considered: those whose code no longer matches the explained
+ * version are re-explained at background priority, and those that disappeared are dropped from the cache. The
+ * cost of a refresh is therefore proportional to the explained code that actually changed.
+ */
+public class StaleExplanationRefresher implements Disposable {
+    private static final Logger LOG = Logger.getInstance(StaleExplanationRefresher.class);
+    private static final long DEBOUNCE_MS = 2000;
+    private static final long REFRESH_DEADLINE_MS = 60 * 60_000;
+
+    private final Project project;
+    private final ScheduledExecutorService executor;
+    private final Set<VirtualFile> changedFiles = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /**
+     * Constructs a StaleExplanationRefresher.
+     *
+     * @param project The project whose explanations are kept fresh.
+     */
+    public StaleExplanationRefresher(Project project) {
+        this(project, AppExecutorUtil.getAppScheduledExecutorService());
+    }
+
+    /**
+     * Constructs a StaleExplanationRefresher running its passes on the given executor.
+     *
+     * @param project  The project whose explanations are kept fresh.
+     * @param executor The executor the debounced refresh passes are scheduled on.
+     */
+    StaleExplanationRefresher(Project project, ScheduledExecutorService executor) {
+        this.project = project;
+        this.executor = executor;
+    }
+
+    /**
+     * Gets the refresher of a project that has explanations which may go stale, i.e. whose explanation cache was
+     * created. A project where the plugin has not been used gets no refresher, so listening for changes creates none
+     * of the plugin's services.
+     *
+     * @param project The project.
+     * @return The refresher, or null if the project has no explanations to refresh.
+     */
+    static StaleExplanationRefresher getIfUsed(Project project) {
+        if (project.isDisposed() || project.getServiceIfCreated(ExplanationCache.class) == null) {
+            return null;
+        }
+        return project.getService(StaleExplanationRefresher.class);
+    }
+
+    /**
+     * Records files changed by version control and schedules a refresh pass. Files other than Python files are
+     * ignored.
+     *
+     * @param files The changed files.
+     */
+    public void filesChanged(Collection<VirtualFile> files) {
+        for (VirtualFile file : files) {
+            if ("py".equals(file.getExtension())) {
+                changedFiles.add(file);
+            }
+        }
+        if (!changedFiles.isEmpty() && scheduled.compareAndSet(false, true)) {
+            executor.schedule(this::refresh, DEBOUNCE_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Gets the changed files waiting for the next refresh pass.
+     *
+     * @return The changed files.
+     */
+    Set<VirtualFile> getChangedFiles() {
+        return changedFiles;
+    }
+
+    /**
+     * Finds the stale explanations in the changed files and schedules their refresh.
+     */
+    private void refresh() {
+        scheduled.set(false);
+        ExplanationCache cache = project.getService(ExplanationCache.class);
+        if (project.isDisposed() || cache == null) {
+            return;
+        }
+
+        int stale = 0;
+        int removed = 0;
+        for (VirtualFile file : new ArrayList<>(changedFiles)) {
+            changedFiles.remove(file);
+            List<String> keys = cache.keysInFile(file.getPath());
+            if (keys.isEmpty()) {
+                continue;
+            }
+            Map<String, SmartPsiElementPointer<PyFunction>> staleFunctions = ReadAction.compute(() -> findStaleFunctions(file, keys, cache));
+            for (String key : keys) {
+                if (!staleFunctions.containsKey(key)) {
+                    cache.invalidate(key);
+                    removed++;
+                }
+            }
+            for (Map.Entry<String, SmartPsiElementPointer<PyFunction>> function : staleFunctions.entrySet()) {
+                if (function.getValue() != null) {
+                    reexplain(function.getKey(), function.getValue());
+                    stale++;
+                }
+            }
+        }
+        if (stale > 0 || removed > 0) {
+            LOG.info("Refreshing " + stale + " explanations changed by version control; dropped " + removed + " of removed functions");
+        }
+    }
+
+    /**
+     * Compares the functions of a file with their cached explanations. Must be called within a read action.
+     *
+     * @param file  The changed file.
+     * @param keys  The keys of the functions of the file with a cached explanation.
+     * @param cache The explanation cache.
+     * @return For every cached function still in the file, a pointer to it if its code changed and null otherwise.
+     */
+    private Map<String, SmartPsiElementPointer<PyFunction>> findStaleFunctions(VirtualFile file, List<String> keys, ExplanationCache cache) {
+        Map<String, SmartPsiElementPointer<PyFunction>> functions = new HashMap<>();
+        PsiFile psiFile = file.isValid() ? PsiManager.getInstance(project).findFile(file) : null;
+        if (!(psiFile instanceof PyFile)) {
+            return functions;
+        }
+        SmartPointerManager pointerManager = SmartPointerManager.getInstance(project);
+        for (PyFunction function : PsiTreeUtil.findChildrenOfType(psiFile, PyFunction.class)) {
+            String key = ExplanationCache.keyFor(function);
+            if (!keys.contains(key)) {
+                continue;
+            }
+            ExplanationCache.Entry entry = cache.get(key);
+            boolean changed = entry != null && !entry.getCode().equals(function.getText());
+            functions.put(key, changed ? pointerManager.createSmartPsiElementPointer(function) : null);
+        }
+        return functions;
+    }
+
+    /**
+     * Schedules a background request explaining a changed function again, unless a request, e.g. a prefetch, is
+     * already pending for it. The pipeline sends only the diff against the cached version when the change is small.
+     *
+     * @param key     The cache key of the function.
+     * @param pointer The pointer to the function.
+     */
+    private void reexplain(String key, SmartPsiElementPointer<PyFunction> pointer) {
+        if (PendingExplanations.tryAdd(key, Integer.MAX_VALUE)) {
+            PendingExplanations.submit(key, pointer, ExplanationPriority.BACKGROUND, REFRESH_DEADLINE_MS);
+        }
+    }
+
+    @Override
+    public void dispose() {
+        changedFiles.clear();
+    }
+}
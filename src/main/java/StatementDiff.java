@@ -0,0 +1,133 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Computes a statement-level diff between two versions of a function.
+ * Both versions are given as the ordered statement units produced by {@link CodeParsingHelper#getStatementUnits}.
+ */
+public class StatementDiff {
+    private final List<Hunk> hunks;
+
+    private StatementDiff(List<Hunk> hunks) {
+        this.hunks = hunks;
+    }
+
+    /**
+     * Diffs two lists of statement units using their longest common subsequence.
+     *
+     * @param oldUnits The statement units of the previously explained version.
+     * @param newUnits The statement units of the current version.
+     * @return The diff between the two versions.
+     */
+    public static StatementDiff compute(List<String> oldUnits, List<String> newUnits) {
+        int n = oldUnits.size();
+        int m = newUnits.size();
+        int[][] lcs = new int[n + 1][m + 1];
+        for (int i = n - 1; i >= 0; i--) {
+            for (int j = m - 1; j >= 0; j--) {
+                lcs[i][j] = oldUnits.get(i).equals(newUnits.get(j))
+                        ? lcs[i + 1][j + 1] + 1
+                        : Math.max(lcs[i + 1][j], lcs[i][j + 1]);
+            }
+        }
+
+        List<Hunk> hunks = new ArrayList<>();
+        Hunk current = null;
+        int i = 0;
+        int j = 0;
+        while (i < n || j < m) {
+            if (i < n && j < m && oldUnits.get(i).equals(newUnits.get(j))) {
+                current = null;
+                i++;
+                j++;
+                continue;
+            }
+            if (current == null) {
+                current = new Hunk(j > 0 ? newUnits.get(j - 1) : null);
+                hunks.add(current);
+            }
+            if (j < m && (i == n || lcs[i][j + 1] >= lcs[i + 1][j])) {
+                current.added.add(newUnits.get(j++));
+            } else {
+                current.removed.add(oldUnits.get(i++));
+            }
+        }
+        return new StatementDiff(hunks);
+    }
+
+    /**
+     * Returns the changed regions of the function, in source order.
+     *
+     * @return An unmodifiable list of hunks.
+     */
+    public List<Hunk> getHunks() {
+        return Collections.unmodifiableList(hunks);
+    }
+
+    /**
+     * Checks whether both versions consist of the same statements.
+     *
+     * @return true if nothing changed, false otherwise.
+     */
+    public boolean isEmpty() {
+        return hunks.isEmpty();
+    }
+
+    /**
+     * Renders the diff as text suitable for a prompt. Every hunk is anchored on the unchanged statement preceding it,
+     * removed statements are prefixed with "-" and added ones with "+".
+     *
+     * @return The textual representation of the diff.
+     */
+    public String render() {
+        StringBuilder builder = new StringBuilder();
+        for (Hunk hunk : hunks) {
+            builder.append("@@ after: ").append(hunk.anchor == null ? "<start of function>" : firstLine(hunk.anchor)).append("\n");
+            for (String removed : hunk.removed) {
+                appendPrefixed(builder, "- ", removed);
+            }
+            for (String added : hunk.added) {
+                appendPrefixed(builder, "+ ", added);
+            }
+        }
+        return builder.toString();
+    }
+
+    private static void appendPrefixed(StringBuilder builder, String prefix, String unit) {
+        for (String line : unit.split("\n")) {
+            builder.append(prefix).append(line).append("\n");
+        }
+    }
+
+    private static String firstLine(String unit) {
+        int newline = unit.indexOf('\n');
+        return newline < 0 ? unit : unit.substring(0, newline);
+    }
+
+    /**
+     * A contiguous region of removed and added statements.
+     */
+    public static class Hunk {
+        final String anchor;
+        final List<String> removed = new ArrayList<>();
+        final List<String> added = new ArrayList<>();
+
+        /**
+         * Constructs a Hunk anchored on the given unchanged statement.
+         *
+         * @param anchor The unchanged statement preceding the hunk, or null if the hunk starts the function.
+         */
+        Hunk(String anchor) {
+            this.anchor = anchor;
+        }
+
+        public List<String> getRemoved() {
+            return removed;
+        }
+
+        public List<String> getAdded() {
+            return added;
+        }
+    }
+}
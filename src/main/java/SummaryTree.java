@@ -0,0 +1,144 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Summarizes contexts that exceed the token limit as a tree. Each chunk is summarized on its own, then summaries are
+ * merged in groups that fit the token limit, level by level, until a single request can produce the final summary.
+ * The number of levels grows logarithmically with the size of the context.
+ * <p>
+ * Every node is cached by the hash of its content, so after a small edit only the changed chunks and their
+ * ancestors are sent again.
+ */
+public class SummaryTree {
+    static final String CONTEXT_BATCH_PROMPT = "compress the following text in a way that fits in a tweet (ideally) and such that you (GPT-4) can reconstruct the intention of the human who wrote text as close as possible to the original intention. This is for yourself. It does not need to be human readable or understandable. Abuse of language mixing, abbreviations, symbols (unicode and emoji), or any other encodings or internal representations is all permissible, as long as it, if pasted in a new inference cycle, will yield near-identical results as the original text: ";
+    static final String MERGE_PROMPT = "merge the following summaries that you encoded into a single summary encoded the same way, keeping as much of their intention as possible: ";
+    static final String SUMMARY_PROMPT = "decode the following summaries that you encoded and create an overall summary of them: ";
+    private static final int MAX_CACHE_ENTRIES = 1024;
+
+    private final int tokenLimit;
+    private final Map<String, String> cache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_CACHE_ENTRIES;
+        }
+    };
+
+    /**
+     * Constructs a SummaryTree.
+     *
+     * @param tokenLimit The maximum number of tokens a single request may contain.
+     */
+    public SummaryTree(int tokenLimit) {
+        this.tokenLimit = tokenLimit;
+    }
+
+    /**
+     * Summarizes the given chunks into a single explanation.
+     *
+     * @param chunks The chunks of the context, each small enough to be sent with {@link #CONTEXT_BATCH_PROMPT}.
+     * @param sender The sender used to query the Language Model.
+     * @return The overall summary.
+     * @throws IOException          If an I/O error occurs during the HTTP request.
+     * @throws InterruptedException If the HTTP request is interrupted.
+     */
+    public String summarize(List<String> chunks, LlmRequestSender sender) throws IOException, InterruptedException {
+        List<Node> level = new ArrayList<>();
+        for (String chunk : chunks) {
+            String hash = ContentHash.sha256(CONTEXT_BATCH_PROMPT + chunk);
+            level.add(new Node(hash, getOrSend(hash, CONTEXT_BATCH_PROMPT + chunk, sender)));
+        }
+
+        while (level.size() > 1 && !fits(SUMMARY_PROMPT, level)) {
+            level = reduce(level, sender);
+        }
+
+        StringBuilder rootHash = new StringBuilder(SUMMARY_PROMPT);
+        StringBuilder request = new StringBuilder(SUMMARY_PROMPT);
+        for (Node node : level) {
+            rootHash.append(node.hash);
+            request.append(node.summary);
+        }
+        return getOrSend(ContentHash.sha256(rootHash.toString()), request.toString(), sender::sendFinal);
+    }
+
+    /**
+     * Merges consecutive nodes into groups that fit the token limit, producing the next level of the tree.
+     * Every group holds at least two nodes, so each level is at most half the size of the previous one.
+     *
+     * @param level  The nodes of the current level.
+     * @param sender The sender used to query the Language Model.
+     * @return The nodes of the next level.
+     * @throws IOException          If an I/O error occurs during the HTTP request.
+     * @throws InterruptedException If the HTTP request is interrupted.
+     */
+    private List<Node> reduce(List<Node> level, LlmRequestSender sender) throws IOException, InterruptedException {
+        List<Node> nextLevel = new ArrayList<>();
+        List<Node> group = new ArrayList<>();
+        int groupTokens = CodeCompressor.estimateTokenCount(MERGE_PROMPT);
+        for (Node node : level) {
+            int nodeTokens = CodeCompressor.estimateTokenCount(node.summary);
+            if (group.size() >= 2 && groupTokens + nodeTokens > tokenLimit) {
+                nextLevel.add(merge(group, sender));
+                group = new ArrayList<>();
+                groupTokens = CodeCompressor.estimateTokenCount(MERGE_PROMPT);
+            }
+            group.add(node);
+            groupTokens += nodeTokens;
+        }
+        if (group.size() == 1) {
+            nextLevel.add(group.get(0));
+        } else if (!group.isEmpty()) {
+            nextLevel.add(merge(group, sender));
+        }
+        return nextLevel;
+    }
+
+    private Node merge(List<Node> group, LlmRequestSender sender) throws IOException, InterruptedException {
+        StringBuilder groupHash = new StringBuilder(MERGE_PROMPT);
+        StringBuilder request = new StringBuilder(MERGE_PROMPT);
+        for (Node node : group) {
+            groupHash.append(node.hash);
+            request.append(node.summary).append("\n");
+        }
+        String hash = ContentHash.sha256(groupHash.toString());
+        return new Node(hash, getOrSend(hash, request.toString(), sender));
+    }
+
+    private boolean fits(String prompt, List<Node> nodes) {
+        int tokens = CodeCompressor.estimateTokenCount(prompt);
+        for (Node node : nodes) {
+            tokens += CodeCompressor.estimateTokenCount(node.summary);
+        }
+        return tokens <= tokenLimit;
+    }
+
+    private String getOrSend(String hash, String request, LlmRequestSender sender) throws IOException, InterruptedException {
+        synchronized (cache) {
+            String cached = cache.get(hash);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        String summary = sender.send(request);
+        synchronized (cache) {
+            cache.put(hash, summary);
+        }
+        return summary;
+    }
+
+    /**
+     * A node of the tree: the hash of the content it summarizes and its summary.
+     */
+    private static class Node {
+        final String hash;
+        final String summary;
+
+        Node(String hash, String summary) {
+            this.hash = hash;
+            this.summary = summary;
+        }
+    }
+}
@@ -21,6 +21,45 @@ public class TokenTracker {
         removeExpiredRecords(currentTime);
     }
 
+    /**
+     * Reserves tokens for a request about to be sent, if the window has room for them. The check and the reservation
+     * are one atomic step, so concurrent requests can never together exceed the limit.
+     *
+     * @param tokenCount The estimated number of tokens of the request.
+     * @param limit      The maximum number of tokens the window may hold.
+     * @return The reservation, or null if the tokens do not fit.
+     */
+    public synchronized Reservation tryReserve(int tokenCount, int limit) {
+        long currentTime = System.currentTimeMillis();
+        removeExpiredRecords(currentTime);
+        if (currentTokenCount + tokenCount > limit) {
+            return null;
+        }
+        TokenRecord record = new TokenRecord(tokenCount, currentTime);
+        tokenRecords.addLast(record);
+        currentTokenCount += tokenCount;
+        return new Reservation(currentTime, tokenCount, record);
+    }
+
+    /**
+     * Replaces the estimated tokens of a reservation with the usage reported by the API. The correction is applied to
+     * the reservation itself, so it leaves the window together with it; a reservation that already left the window is
+     * not corrected.
+     *
+     * @param reservation The reservation made for the request.
+     * @param tokenCount  The number of tokens the request actually used.
+     */
+    public synchronized void settle(Reservation reservation, int tokenCount) {
+        removeExpiredRecords(System.currentTimeMillis());
+        TokenRecord record = reservation.record;
+        if (record == null || !tokenRecords.contains(record)) {
+            return;
+        }
+        int corrected = Math.max(0, record.tokenCount + tokenCount - reservation.tokenCount);
+        currentTokenCount += corrected - record.tokenCount;
+        record.tokenCount = corrected;
+    }
+
     /**
      * Calculates and returns the remaining wait time in seconds based on the oldest token record.
      *
@@ -59,6 +98,28 @@ public class TokenTracker {
         return currentTokenCount;
     }
 
+    /**
+     * Tokens reserved for a request until its actual usage is known.
+     */
+    public static class Reservation {
+        final long timestamp;
+        final int tokenCount;
+        private final TokenRecord record;
+
+        /**
+         * Constructs a Reservation.
+         *
+         * @param timestamp  The time the tokens were reserved at, in milliseconds.
+         * @param tokenCount The number of tokens reserved.
+         * @param record     The record holding the reserved tokens, or null if the tracker keeps no records.
+         */
+        Reservation(long timestamp, int tokenCount, TokenRecord record) {
+            this.timestamp = timestamp;
+            this.tokenCount = tokenCount;
+            this.record = record;
+        }
+    }
+
     /**
      * A private inner class representing a token usage record with token count and timestamp.
      */
@@ -0,0 +1,41 @@
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vcs.update.UpdatedFilesListener;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Passes the files changed by an "Update Project" of the IDE to the {@link StaleExplanationRefresher}.
+ */
+public class VcsUpdateListener implements UpdatedFilesListener {
+    private final Project project;
+
+    /**
+     * Constructs a VcsUpdateListener.
+     *
+     * @param project The updated project.
+     */
+    public VcsUpdateListener(Project project) {
+        this.project = project;
+    }
+
+    @Override
+    public void consume(@NotNull Set<String> paths) {
+        StaleExplanationRefresher refresher = StaleExplanationRefresher.getIfUsed(project);
+        if (refresher == null) {
+            return;
+        }
+        List<VirtualFile> files = new ArrayList<>();
+        for (String path : paths) {
+            VirtualFile file = LocalFileSystem.getInstance().findFileByPath(path);
+            if (file != null) {
+                files.add(file);
+            }
+        }
+        refresher.filesChanged(files);
+    }
+}
@@ -0,0 +1,196 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchTransportTest {
+    @TempDir
+    Path tempDir;
+    private StandInBatchServer server;
+    private BatchTransport transport;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new StandInBatchServer();
+        transport = new BatchTransport(server.getUri(), HttpClient.newHttpClient(), () -> "test-key", 10);
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.close();
+    }
+
+    @Test
+    void run_SubmitsPollsAndReturnsAnswers() throws Exception {
+        Path batchFile = tempDir.resolve("job.batch.jsonl");
+
+        Map<String, String> answers = transport.run(Map.of("a", "Explain a", "b", "Explain b"), batchFile);
+
+        assertEquals(Map.of("a", "Answer to: Explain a", "b", "Answer to: Explain b"), answers);
+        assertEquals(1, server.uploads.get());
+        assertTrue(server.polls.get() > 1, "The batch should be polled until it completes");
+        assertFalse(Files.exists(tempDir.resolve("job.batch.jsonl.pending")), "A collected batch should be forgotten");
+
+        List<String> lines = Files.readAllLines(batchFile);
+        assertEquals(2, lines.size());
+        JSONObject line = new JSONObject(lines.get(0));
+        assertEquals(BatchTransport.COMPLETIONS_ENDPOINT, line.getString("url"));
+        assertEquals("POST", line.getString("method"));
+        assertTrue(line.getJSONObject("body").has("messages"));
+    }
+
+    @Test
+    void run_ResumesPendingBatchInsteadOfSubmittingAgain() throws Exception {
+        String batchId = server.createCompletedBatch(Map.of("a", "Explain a"));
+        Files.writeString(tempDir.resolve("job.batch.jsonl.pending"), batchId);
+
+        Map<String, String> answers = transport.run(Map.of("a", "Explain a"), tempDir.resolve("job.batch.jsonl"));
+
+        assertEquals(Map.of("a", "Answer to: Explain a"), answers);
+        assertEquals(0, server.uploads.get());
+        assertFalse(Files.exists(tempDir.resolve("job.batch.jsonl.pending")));
+    }
+
+    @Test
+    void run_SubmitsPromptsThePendingBatchDidNotAnswer() throws Exception {
+        String batchId = server.createCompletedBatch(Map.of("a", "Explain a"));
+        Files.writeString(tempDir.resolve("job.batch.jsonl.pending"), batchId);
+
+        Map<String, String> answers = transport.run(Map.of("a", "Explain a", "b", "Explain b"), tempDir.resolve("job.batch.jsonl"));
+
+        assertEquals(Map.of("a", "Answer to: Explain a", "b", "Answer to: Explain b"), answers);
+        assertEquals(1, server.uploads.get());
+        assertEquals(1, Files.readAllLines(tempDir.resolve("job.batch.jsonl")).size());
+    }
+
+    @Test
+    void parseOutput_SkipsFailedRequests() {
+        String output = "{\"custom_id\":\"a\",\"response\":{\"status_code\":200,\"body\":" + completion("Fine.") + "}}\n"
+                + "{\"custom_id\":\"b\",\"response\":{\"status_code\":500,\"body\":{}}}\n"
+                + "{\"custom_id\":\"c\",\"response\":null,\"error\":{\"message\":\"boom\"}}\n";
+
+        assertEquals(Map.of("a", "Fine."), BatchTransport.parseOutput(output));
+    }
+
+    private static JSONObject completion(String content) {
+        return new JSONObject().put("choices", new JSONArray().put(
+                new JSONObject().put("message", new JSONObject().put("role", "assistant").put("content", content))));
+    }
+
+    /**
+     * A local stand-in for the file and batch endpoints. A batch reports "in_progress" on its first poll and
+     * "completed" afterwards; each request is answered with its prompt prefixed by "Answer to: ".
+     */
+    private static class StandInBatchServer implements AutoCloseable {
+        private final HttpServer server;
+        private final Map<String, String> files = new ConcurrentHashMap<>();
+        private final Map<String, JSONObject> batches = new ConcurrentHashMap<>();
+        private final AtomicInteger ids = new AtomicInteger();
+        final AtomicInteger uploads = new AtomicInteger();
+        final AtomicInteger polls = new AtomicInteger();
+
+        StandInBatchServer() throws IOException {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.createContext("/v1/", this::handle);
+            server.start();
+        }
+
+        URI getUri() {
+            return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/v1/");
+        }
+
+        String createCompletedBatch(Map<String, String> prompts) {
+            StringBuilder input = new StringBuilder();
+            for (Map.Entry<String, String> prompt : prompts.entrySet()) {
+                input.append(new JSONObject().put("custom_id", prompt.getKey())
+                        .put("body", new JSONObject(ChatGPTApiClient.createRequestBody(prompt.getValue())))).append('\n');
+            }
+            String batchId = "batch_" + ids.incrementAndGet();
+            batches.put(batchId, new JSONObject().put("id", batchId).put("status", "completed")
+                    .put("output_file_id", storeOutput(input.toString())));
+            return batchId;
+        }
+
+        private void handle(HttpExchange exchange) throws IOException {
+            String path = exchange.getRequestURI().getPath().substring("/v1/".length());
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            if (!"Bearer test-key".equals(exchange.getRequestHeaders().getFirst("Authorization"))) {
+                respond(exchange, 401, "{}");
+            } else if (path.equals("files")) {
+                uploads.incrementAndGet();
+                String fileId = "file_" + ids.incrementAndGet();
+                files.put(fileId, extractFilePart(body));
+                respond(exchange, 200, new JSONObject().put("id", fileId).toString());
+            } else if (path.equals("batches")) {
+                JSONObject request = new JSONObject(body);
+                String batchId = "batch_" + ids.incrementAndGet();
+                batches.put(batchId, new JSONObject().put("id", batchId).put("status", "in_progress")
+                        .put("input_file_id", request.getString("input_file_id")));
+                respond(exchange, 200, batches.get(batchId).toString());
+            } else if (path.startsWith("batches/")) {
+                polls.incrementAndGet();
+                JSONObject batch = batches.get(path.substring("batches/".length()));
+                String response = batch.toString();
+                if (batch.getString("status").equals("in_progress")) {
+                    batch.put("status", "completed").put("output_file_id", storeOutput(files.get(batch.getString("input_file_id"))));
+                }
+                respond(exchange, 200, response);
+            } else if (path.startsWith("files/") && path.endsWith("/content")) {
+                respond(exchange, 200, files.get(path.substring("files/".length(), path.length() - "/content".length())));
+            } else {
+                respond(exchange, 404, "{}");
+            }
+        }
+
+        private String storeOutput(String input) {
+            StringBuilder output = new StringBuilder();
+            for (String line : input.split("\n")) {
+                JSONObject request = new JSONObject(line);
+                String prompt = request.getJSONObject("body").getJSONArray("messages").getJSONObject(0).getString("content");
+                JSONObject response = new JSONObject().put("status_code", 200).put("body", completion("Answer to: " + prompt));
+                output.append(new JSONObject().put("custom_id", request.getString("custom_id")).put("response", response)).append('\n');
+            }
+            String fileId = "file_" + ids.incrementAndGet();
+            files.put(fileId, output.toString());
+            return fileId;
+        }
+
+        private static String extractFilePart(String multipart) {
+            int start = multipart.indexOf("\r\n\r\n", multipart.indexOf("name=\"file\"")) + 4;
+            return multipart.substring(start, multipart.lastIndexOf("\r\n--"));
+        }
+
+        private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+
+        @Override
+        public void close() {
+            server.stop(0);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class Bm25IndexTest {
+    @Test
+    void tokenize_SplitsIdentifiers() {
+        List<String> terms = Bm25Index.tokenize("def parse_header(self, rawBytes): return None");
+
+        assertTrue(terms.contains("parse_header"));
+        assertTrue(terms.contains("parse"));
+        assertTrue(terms.contains("header"));
+        assertTrue(terms.contains("rawbytes"));
+        assertTrue(terms.contains("raw"));
+        assertTrue(terms.contains("bytes"));
+        assertFalse(terms.contains("self"));
+        assertFalse(terms.contains("return"));
+    }
+
+    @Test
+    void search_RanksMatchingDocumentsFirst() {
+        Bm25Index index = new Bm25Index();
+        index.add("a#parse_header", Bm25Index.tokenize("def parse_header(data): \"\"\"Parse an HTTP header.\"\"\""));
+        index.add("a#send_request", Bm25Index.tokenize("def send_request(url, header): \"\"\"Send a request.\"\"\""));
+        index.add("b#draw_circle", Bm25Index.tokenize("def draw_circle(radius): \"\"\"Draw a circle.\"\"\""));
+
+        List<String> results = index.search(Bm25Index.tokenize("parse header"), 10, null);
+
+        assertEquals(List.of("a#parse_header", "a#send_request"), results);
+    }
+
+    @Test
+    void search_ExcludesGivenKeyAndHonorsLimit() {
+        Bm25Index index = new Bm25Index();
+        for (int i = 0; i < 5; i++) {
+            index.add("f" + i, Bm25Index.tokenize("def load_config" + i + "(): load config"));
+        }
+
+        List<String> results = index.search(Bm25Index.tokenize("load config"), 3, "f0");
+
+        assertEquals(3, results.size());
+        assertFalse(results.contains("f0"));
+    }
+
+    @Test
+    void add_ReplacesPreviousVersion() {
+        Bm25Index index = new Bm25Index();
+        index.add("a#f", Bm25Index.tokenize("def f(): compute_total"));
+        index.add("a#f", Bm25Index.tokenize("def f(): render_page"));
+
+        assertEquals(1, index.size());
+        assertTrue(index.search(Bm25Index.tokenize("compute_total"), 10, null).isEmpty());
+        assertEquals(List.of("a#f"), index.search(Bm25Index.tokenize("render_page"), 10, null));
+    }
+
+    @Test
+    void remove_SurvivesPurge() {
+        Bm25Index index = new Bm25Index();
+        for (int i = 0; i < 10; i++) {
+            index.add("f" + i, Bm25Index.tokenize("def shared_name(): unique" + i));
+        }
+        for (int i = 0; i < 8; i++) {
+            index.remove("f" + i);
+        }
+
+        assertEquals(2, index.size());
+        assertFalse(index.contains("f0"));
+        assertEquals(List.of("f8"), index.search(Bm25Index.tokenize("unique8"), 10, null));
+        assertEquals(2, index.search(Bm25Index.tokenize("shared_name"), 10, null).size());
+    }
+
+    @Test
+    void add_ReusesSlotsOfPurgedDocuments() {
+        Bm25Index index = new Bm25Index();
+        for (int round = 0; round < 1000; round++) {
+            for (int i = 0; i < 10; i++) {
+                index.add("f" + i, Bm25Index.tokenize("def shared_name(): unique" + i + " version" + round));
+            }
+        }
+
+        assertEquals(10, index.size());
+        assertTrue(index.slotCount() <= 30, "Slots should be reused, but there are " + index.slotCount());
+        assertEquals(List.of("f3"), index.search(Bm25Index.tokenize("unique3 version999"), 1, null));
+        assertTrue(index.search(Bm25Index.tokenize("version998"), 10, null).isEmpty());
+    }
+
+    @Test
+    void search_RepeatedQueriesGiveSameRanking() {
+        Bm25Index index = new Bm25Index();
+        index.add("a", Bm25Index.tokenize("parse header parse"));
+        index.add("b", Bm25Index.tokenize("parse body"));
+
+        List<String> first = index.search(Bm25Index.tokenize("parse header"), 10, null);
+
+        assertEquals(List.of("a", "b"), first);
+        assertEquals(first, index.search(Bm25Index.tokenize("parse header"), 10, null));
+    }
+
+    @Test
+    void search_LargeIndexScansOnlyPostingsOfQueryTerms() {
+        Bm25Index index = new Bm25Index();
+        Random random = new Random(42);
+        String[] words = new String[2000];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = "word" + i;
+        }
+        for (int i = 0; i < 100_000; i++) {
+            List<String> terms = new ArrayList<>();
+            for (int j = 0; j < 12; j++) {
+                terms.add(words[random.nextInt(words.length)]);
+            }
+            index.add("f" + i, terms);
+        }
+
+        List<String> query = List.of("word1", "word2", "word3", "word4", "word5");
+        assertEquals(5, index.search(query, 5, null).size());
+        // Each word is in about 100000 * 12 / 2000 = 600 documents.
+        assertTrue(index.lastPostingsScanned < 5 * 1000, "Scanned " + index.lastPostingsScanned + " postings");
+    }
+}
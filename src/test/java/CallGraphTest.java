@@ -0,0 +1,121 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CallGraphTest {
+    private static CallGraph.Definition def(String key, String name, String... references) {
+        return new CallGraph.Definition(key, name, List.of(references));
+    }
+
+    private static CallGraph sampleGraph() {
+        CallGraph graph = new CallGraph();
+        graph.replaceFile("a.py", 1, List.of(
+                def("a.py#load", "load", "open", "parse", "parse"),
+                def("a.py#parse", "parse", "split")));
+        graph.replaceFile("b.py", 1, List.of(
+                def("b.py#main", "main", "load", "print")));
+        return graph;
+    }
+
+    @Test
+    void callees_ResolveReferencesAcrossFiles() {
+        CallGraph graph = sampleGraph();
+
+        assertEquals(List.of("a.py#parse"), graph.callees("a.py#load", 10));
+        assertEquals(List.of("a.py#load"), graph.callees("b.py#main", 10));
+        assertTrue(graph.callees("a.py#parse", 10).isEmpty());
+    }
+
+    @Test
+    void callees_SkipNamesDefinedInSeveralUnrelatedFiles() {
+        CallGraph graph = new CallGraph();
+        graph.replaceFile("cache.py", 1, List.of(def("cache.py#get", "get")));
+        graph.replaceFile("http.py", 1, List.of(def("http.py#get", "get")));
+        graph.replaceFile("main.py", 1, List.of(def("main.py#main", "main", "get")));
+
+        assertTrue(graph.callees("main.py#main", 10).isEmpty());
+        assertTrue(graph.callers("cache.py#get", 10).isEmpty());
+    }
+
+    @Test
+    void callees_PreferSameFileThenImportedFiles() {
+        CallGraph graph = new CallGraph();
+        graph.replaceFile("cache.py", 1, List.of(def("cache.py#get", "get"), def("cache.py#save", "save")));
+        graph.replaceFile("http.py", 1, List.of(def("http.py#get", "get")));
+        graph.replaceFile("main.py", 1, List.of(def("main.py#main", "main", "get", "save")), List.of("cache.py"));
+        graph.replaceFile("util.py", 1, List.of(def("util.py#save", "save"), def("util.py#run", "run", "save")));
+
+        assertEquals(List.of("cache.py#get", "cache.py#save"), graph.callees("main.py#main", 10));
+        assertEquals(List.of("util.py#save"), graph.callees("util.py#run", 10));
+        assertEquals(List.of("main.py#main"), graph.callers("cache.py#get", 10));
+        assertTrue(graph.callers("http.py#get", 10).isEmpty());
+    }
+
+    @Test
+    void callers_ListReferencingDefinitionsOnce() {
+        CallGraph graph = sampleGraph();
+
+        assertEquals(List.of("a.py#load"), graph.callers("a.py#parse", 10));
+        assertEquals(List.of("b.py#main"), graph.callers("a.py#load", 10));
+    }
+
+    @Test
+    void replaceFile_UpdatesOnlyThatFile() {
+        CallGraph graph = sampleGraph();
+        graph.replaceFile("b.py", 2, List.of(def("b.py#main", "main", "parse")));
+
+        assertEquals(List.of("a.py#parse"), graph.callees("b.py#main", 10));
+        assertTrue(graph.callers("a.py#load", 10).isEmpty());
+        assertEquals(Set.of("b.py#main", "a.py#load"), Set.copyOf(graph.callers("a.py#parse", 10)));
+        assertEquals(2, graph.getStamp("b.py"));
+        assertEquals(3, graph.size());
+    }
+
+    @Test
+    void removeFile_DropsItsDefinitionsAndEdges() {
+        CallGraph graph = sampleGraph();
+        graph.removeFile("a.py");
+
+        assertTrue(graph.callees("b.py#main", 10).isEmpty());
+        assertEquals(1, graph.size());
+        assertEquals(-1, graph.getStamp("a.py"));
+    }
+
+    @Test
+    void write_RoundTrips() throws IOException {
+        CallGraph graph = sampleGraph();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        graph.write(new DataOutputStream(bytes));
+
+        CallGraph read = CallGraph.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertEquals(Set.of("a.py", "b.py"), read.getFiles());
+        assertEquals(List.of("a.py#parse"), read.callees("a.py#load", 10));
+        assertEquals(List.of("b.py#main"), read.callers("a.py#load", 10));
+    }
+
+    @Test
+    void replaceFile_GrowsBeyondInitialCapacity() {
+        CallGraph graph = new CallGraph();
+        for (int round = 0; round < 3; round++) {
+            List<CallGraph.Definition> definitions = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                definitions.add(def("big.py#f" + i, "f" + i, "f" + (i + 1)));
+            }
+            graph.replaceFile("big.py", round, definitions);
+        }
+
+        assertEquals(200, graph.size());
+        assertEquals(List.of("big.py#f6"), graph.callees("big.py#f5", 10));
+        assertEquals(List.of("big.py#f4"), graph.callers("big.py#f5", 10));
+    }
+}
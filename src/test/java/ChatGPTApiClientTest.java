@@ -5,6 +5,7 @@ import org.json.JSONObject;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.MockedStatic;
 import org.mockito.Mockito;
 import static org.mockito.ArgumentMatchers.*;
@@ -15,6 +16,10 @@ import java.io.IOException;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
 import com.intellij.openapi.diagnostic.Logger;
 
 class ChatGPTApiClientTest {
@@ -39,6 +44,7 @@ class ChatGPTApiClientTest {
         // Close the static mock
         mockedLogger.close();
         mockedPasswordSafe.close();
+        ChatGPTApiClient.setTransport(null);
     }
 
     @Test
@@ -104,6 +110,38 @@ class ChatGPTApiClientTest {
         Mockito.verify(mockTokenTracker, Mockito.never()).recordTokenUsage(anyInt());
     }
 
+    @Test
+    void streamExplanationFromLLMReportsAnsweringModel() throws IOException, InterruptedException {
+        List<String> lines = List.of(
+                "data: {\"model\": \"gpt-3.5-turbo-0613\", \"choices\": [{\"delta\": {\"content\": \"Fallback\"}}]}",
+                "data: {\"model\": \"gpt-3.5-turbo-0613\", \"choices\": [], \"usage\": {\"total_tokens\": 7}}",
+                "data: [DONE]");
+        ChatGPTApiClient.setTransport((requestBody, apiKey, stream) -> new LlmTransport.Response(200, lines));
+        List<String> models = new ArrayList<>();
+        ChatGPTApiClient.UsageListener listener = new ChatGPTApiClient.UsageListener() {
+            @Override
+            public void tokensUsed(int tokens) {
+            }
+
+            @Override
+            public void answeredBy(String model) {
+                models.add(model);
+            }
+        };
+
+        ChatGPTApiClient.streamExplanationFromLLM("test prompt", listener, delta -> {});
+
+        assertEquals(List.of("gpt-3.5-turbo-0613"), models);
+    }
+
+    @Test
+    void isPrimaryModel() {
+        assertTrue(ChatGPTApiClient.isPrimaryModel(null));
+        assertTrue(ChatGPTApiClient.isPrimaryModel("gpt-4"));
+        assertTrue(ChatGPTApiClient.isPrimaryModel("gpt-4-0613"));
+        assertFalse(ChatGPTApiClient.isPrimaryModel("gpt-3.5-turbo"));
+    }
+
     @Test
     void formatResponseValidResponse() {
         String jsonResponse = "{\"choices\": [{\"message\": {\"content\": \"Test explanation\"}}]}";
@@ -137,4 +175,86 @@ class ChatGPTApiClientTest {
 
         assertEquals(expectedJson.toString(), actualJson.toString());
     }
+
+    @Test
+    void streamExplanationFromLLMForwardsDeltas() throws IOException, InterruptedException {
+        HttpClient mockHttpClient = mock(HttpClient.class);
+        HttpResponse mockResponse = mock(HttpResponse.class);
+
+        Mockito.when(mockHttpClient.send(any(HttpRequest.class), any())).thenReturn(mockResponse);
+        Mockito.when(mockResponse.statusCode()).thenReturn(200);
+        Mockito.when(mockResponse.body()).thenReturn(Stream.of(
+                "data: {\"choices\": [{\"delta\": {\"role\": \"assistant\"}}]}",
+                "",
+                "data: {\"choices\": [{\"delta\": {\"content\": \"Test \"}}]}",
+                "data: {\"choices\": [{\"delta\": {\"content\": \"explanation\"}}]}",
+                "data: {\"choices\": [], \"usage\": {\"total_tokens\": 42}}",
+                "data: [DONE]"));
+
+        TokenTracker mockTokenTracker = mock(TokenTracker.class);
+        ChatGPTApiClient.setHttpClient(mockHttpClient);
+        List<String> deltas = new ArrayList<>();
+
+        String result = ChatGPTApiClient.streamExplanationFromLLM("test prompt", mockTokenTracker, deltas::add);
+
+        assertEquals("Test explanation", result);
+        assertEquals(List.of("Test ", "explanation"), deltas);
+        Mockito.verify(mockTokenTracker).recordTokenUsage(42);
+    }
+
+    @Test
+    void parseStreamDeltaNoContent() {
+        assertEquals("", ChatGPTApiClient.parseStreamDelta(new JSONObject("{\"choices\": [{\"delta\": {}}]}")));
+        assertEquals("", ChatGPTApiClient.parseStreamDelta(new JSONObject("{\"choices\": []}")));
+    }
+
+    @Test
+    void createStreamedRequestBody() {
+        JSONObject actualJson = new JSONObject(ChatGPTApiClient.createRequestBody("test prompt", true));
+
+        assertTrue(actualJson.getBoolean("stream"));
+        assertTrue(actualJson.getJSONObject("stream_options").getBoolean("include_usage"));
+    }
+
+    @Test
+    void recordedStreamReplaysWithoutNetwork(@TempDir Path tempDir) throws IOException, InterruptedException {
+        Path archive = tempDir.resolve("traffic.bin");
+        List<String> lines = List.of(
+                "data: {\"choices\": [{\"delta\": {\"content\": \"Recorded \"}}]}",
+                "data: {\"choices\": [{\"delta\": {\"content\": \"answer\"}}]}",
+                "data: [DONE]");
+        LlmTransport live = (requestBody, apiKey, stream) -> new LlmTransport.Response(200, lines);
+        ChatGPTApiClient.setTransport(new RecordingTransport(live, archive));
+        String recorded = ChatGPTApiClient.streamExplanationFromLLM("test prompt", mock(TokenTracker.class), delta -> {});
+
+        ChatGPTApiClient.setTransport(new ReplayTransport(archive, false));
+        List<String> deltas = new ArrayList<>();
+        String replayed = ChatGPTApiClient.streamExplanationFromLLM("test prompt", mock(TokenTracker.class), deltas::add);
+
+        assertEquals("Recorded answer", recorded);
+        assertEquals(recorded, replayed);
+        assertEquals(List.of("Recorded ", "answer"), deltas);
+        assertThrows(IOException.class, () ->
+                ChatGPTApiClient.streamExplanationFromLLM("other prompt", mock(TokenTracker.class), delta -> {}));
+    }
+
+    @Test
+    void replayKeepsOriginalTiming(@TempDir Path tempDir) throws IOException, InterruptedException {
+        Path archive = tempDir.resolve("traffic.bin");
+        String body = "{\"choices\": [{\"message\": {\"content\": \"Slow explanation\"}}]}";
+        LlmTransport slow = (requestBody, apiKey, stream) -> {
+            Thread.sleep(200);
+            return new LlmTransport.Response(200, List.of(body));
+        };
+        ChatGPTApiClient.setTransport(new RecordingTransport(slow, archive));
+        ChatGPTApiClient.getExplanationFromLLM("test prompt", mock(TokenTracker.class));
+
+        ChatGPTApiClient.setTransport(new ReplayTransport(archive, true));
+        long start = System.nanoTime();
+        String result = ChatGPTApiClient.getExplanationFromLLM("test prompt", mock(TokenTracker.class));
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals("Slow explanation", result);
+        assertTrue(elapsedMs >= 150, "Replay with original timing should keep the recorded latency");
+    }
 }
@@ -0,0 +1,112 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CircuitBreakerTest {
+    private final AtomicLong now = new AtomicLong(1_000_000L);
+    private final CircuitBreaker breaker = new CircuitBreaker(10, 3, 5_000, now::get);
+
+    @Test
+    void recordFailure_OpensAtThreshold() {
+        breaker.recordFailure();
+        breaker.recordFailure();
+        assertTrue(breaker.allowRequest());
+
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+        assertEquals(5_000, breaker.getRetryAfterMs());
+    }
+
+    @Test
+    void recordFailure_ForgetsFailuresOutsideWindow() {
+        breaker.recordFailure();
+        breaker.recordFailure();
+        for (int i = 0; i < 10; i++) {
+            breaker.recordSuccess();
+        }
+        breaker.recordFailure();
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void allowRequest_LetsOneTrialThroughAfterCoolDown() {
+        for (int i = 0; i < 3; i++) {
+            breaker.recordFailure();
+        }
+        now.addAndGet(5_000);
+
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.allowRequest(), "Only one trial request should be let through");
+
+        breaker.recordSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    void recordFailure_ReopensAfterFailedTrial() {
+        for (int i = 0; i < 3; i++) {
+            breaker.recordFailure();
+        }
+        now.addAndGet(5_000);
+        assertTrue(breaker.allowRequest());
+
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+    }
+
+    @Test
+    void circuitBreakerTransport_UsesFallbackWhileOpen() throws Exception {
+        LlmTransport failing = (body, apiKey, stream) -> new LlmTransport.Response(503, List.of("unavailable"));
+        LlmTransport fallback = (body, apiKey, stream) -> new LlmTransport.Response(200, List.of("fallback"));
+        CircuitBreakerTransport transport = new CircuitBreakerTransport(failing, fallback, breaker);
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals("fallback", transport.send("{}", "key", false).body());
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals("fallback", transport.send("{}", "key", false).body());
+    }
+
+    @Test
+    void recordAbandoned_LetsNextRequestRetryTheTrial() {
+        for (int i = 0; i < 3; i++) {
+            breaker.recordFailure();
+        }
+        now.addAndGet(5_000);
+        assertTrue(breaker.allowRequest());
+
+        breaker.recordAbandoned();
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertTrue(breaker.allowRequest(), "The next request should become the trial");
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    }
+
+    @Test
+    void circuitBreakerTransport_InterruptedTrialDoesNotBlockBreaker() throws Exception {
+        LlmTransport interrupted = (body, apiKey, stream) -> {
+            throw new InterruptedException();
+        };
+        LlmTransport fallback = (body, apiKey, stream) -> new LlmTransport.Response(200, List.of("fallback"));
+        for (int i = 0; i < 3; i++) {
+            breaker.recordFailure();
+        }
+        now.addAndGet(5_000);
+
+        assertThrows(InterruptedException.class, () -> new CircuitBreakerTransport(interrupted, fallback, breaker).send("{}", "key", false));
+        assertThrows(IllegalStateException.class, () -> new CircuitBreakerTransport((body, apiKey, stream) -> {
+            throw new IllegalStateException();
+        }, fallback, breaker).send("{}", "key", false));
+
+        LlmTransport healthy = (body, apiKey, stream) -> new LlmTransport.Response(200, List.of("primary"));
+        assertEquals("primary", new CircuitBreakerTransport(healthy, fallback, breaker).send("{}", "key", false).body());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+}
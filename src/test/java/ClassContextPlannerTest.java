@@ -0,0 +1,57 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClassContextPlannerTest {
+    private static ClassContextPlanner.Member method(String name, String body, Set<String> selfReferences, boolean isTarget) {
+        String signature = "def " + name + "(self): ...";
+        return new ClassContextPlanner.Member(name, "def " + name + "(self):\n        " + body, signature, selfReferences, isTarget);
+    }
+
+    @Test
+    void score_RanksCalleesAboveCallersAboveSharedFields() {
+        ClassContextPlanner.Member target = method("save", "self.validate()\n        self.db.write(self.data)", Set.of("validate", "db", "data"), true);
+        ClassContextPlanner.Member callee = method("validate", "return bool(self.data)", Set.of("data"), false);
+        ClassContextPlanner.Member caller = method("close", "self.save()", Set.of("save"), false);
+        ClassContextPlanner.Member sharedField = method("reset", "self.data = None", Set.of("data"), false);
+        ClassContextPlanner.Member unrelated = method("ping", "return 'pong'", Set.of(), false);
+
+        int calleeScore = ClassContextPlanner.score(callee, target);
+        int callerScore = ClassContextPlanner.score(caller, target);
+        int sharedFieldScore = ClassContextPlanner.score(sharedField, target);
+
+        assertTrue(calleeScore > callerScore, "Callees should rank above callers");
+        assertTrue(callerScore > sharedFieldScore, "Callers should rank above members that only share fields");
+        assertTrue(sharedFieldScore > 0, "Members touching the same fields should be relevant");
+        assertEquals(0, ClassContextPlanner.score(unrelated, target), "Unrelated members should score zero");
+    }
+
+    @Test
+    void plan_IncludesTargetAndRelevantMembersInFull() {
+        ClassContextPlanner.Member target = method("save", "self.validate()", Set.of("validate"), true);
+        ClassContextPlanner.Member callee = method("validate", "return True", Set.of(), false);
+        ClassContextPlanner.Member unrelated = method("ping", "return 'pong'", Set.of(), false);
+
+        String context = ClassContextPlanner.plan("class Store:", List.of(unrelated, callee, target), 1000);
+
+        assertTrue(context.startsWith("class Store:\n"));
+        assertTrue(context.contains("self.validate()"), "Target body should be included in full");
+        assertTrue(context.contains("return True"), "Callee should be included in full");
+        assertTrue(context.contains("def ping(self): ..."), "Unrelated member should be reduced to its signature");
+        assertFalse(context.contains("'pong'"));
+    }
+
+    @Test
+    void plan_FallsBackToSignaturesWhenBudgetIsExhausted() {
+        ClassContextPlanner.Member target = method("save", "self.validate()", Set.of("validate"), true);
+        ClassContextPlanner.Member callee = method("validate", "x = 1\n        ".repeat(200) + "return x", Set.of(), false);
+
+        String context = ClassContextPlanner.plan("class Store:", List.of(callee, target), 50);
+
+        assertTrue(context.contains("self.validate()"), "Target body should always be included in full");
+        assertTrue(context.contains("def validate(self): ..."), "Member exceeding the budget should be reduced to its signature");
+    }
+}
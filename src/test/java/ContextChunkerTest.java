@@ -0,0 +1,81 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContextChunkerTest {
+    private static String statement(int index) {
+        return "    result_" + index + " = compute_value(argument_" + index + ", other_argument_" + index + ")";
+    }
+
+    @Test
+    void pack_FillsChunksInOrderWithoutSplittingUnits() {
+        List<String> units = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            units.add(statement(i));
+        }
+        int unitTokens = CodeCompressor.estimateTokenCount(statement(10));
+        int budget = unitTokens * 7;
+
+        List<String> chunks = ContextChunker.pack(units, budget);
+
+        assertEquals(String.join("\n", units) + "\n", String.join("", chunks), "Packing should keep every unit in order");
+        for (String chunk : chunks) {
+            assertTrue(CodeCompressor.estimateTokenCount(chunk) <= budget);
+        }
+        for (String unit : units) {
+            assertTrue(chunks.stream().anyMatch(chunk -> chunk.contains(unit + "\n")), "Units should never be cut");
+        }
+        int totalTokens = units.stream().mapToInt(CodeCompressor::estimateTokenCount).sum();
+        assertTrue(chunks.size() <= 2 * (totalTokens / budget + 1), "Chunks should hold half the budget on average");
+    }
+
+    @Test
+    void pack_SplitsOversizedUnitByLines() {
+        StringBuilder longUnit = new StringBuilder("def long_function():");
+        for (int i = 0; i < 30; i++) {
+            longUnit.append("\n").append(statement(i));
+        }
+        int budget = CodeCompressor.estimateTokenCount(statement(0)) * 10;
+
+        List<String> chunks = ContextChunker.pack(List.of("Function to Explain:", longUnit.toString()), budget);
+
+        assertTrue(chunks.size() > 1);
+        assertTrue(chunks.get(0).startsWith("Function to Explain:\ndef long_function():"));
+        for (String chunk : chunks) {
+            assertTrue(CodeCompressor.estimateTokenCount(chunk) <= budget);
+        }
+    }
+
+    @Test
+    void splitByLines_KeepsWholeLines() {
+        String text = "first line here\nsecond line here\nthird line here";
+        int twoLines = CodeCompressor.estimateTokenCount("first line here") + CodeCompressor.estimateTokenCount("second line here");
+
+        List<String> groups = ContextChunker.splitByLines(text, twoLines);
+
+        assertEquals(List.of("first line here\nsecond line here", "third line here"), groups);
+    }
+
+    @Test
+    void pack_EditChangesOnlyTheChunkHoldingIt() {
+        List<String> units = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            units.add(statement(i));
+        }
+        int budget = CodeCompressor.estimateTokenCount(statement(10)) * 12;
+        List<String> edited = new ArrayList<>(units);
+        edited.set(3, statement(3) + "  # now with a longer trailing comment");
+
+        List<String> before = ContextChunker.pack(units, budget);
+        List<String> after = ContextChunker.pack(edited, budget);
+
+        List<String> changed = new ArrayList<>(after);
+        changed.removeAll(before);
+        assertEquals(1, changed.size(), "Only the chunk holding the edit should change");
+        assertTrue(changed.get(0).contains("longer trailing comment"));
+        assertEquals(before.size(), after.size());
+    }
+}
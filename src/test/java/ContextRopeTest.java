@@ -0,0 +1,45 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContextRopeTest {
+    @Test
+    void append_ReferencesRangesAndRendersThemInOrder() {
+        String file = "import os\nx = 1\ndef f():\n    return x\n";
+        ContextRope rope = new ContextRope(1000);
+
+        assertTrue(rope.append("Function to Explain:\n"));
+        assertTrue(rope.append(file, file.indexOf("def"), file.length()));
+        assertTrue(rope.append(file, 0, file.indexOf("\n") + 1));
+
+        assertEquals("Function to Explain:\ndef f():\n    return x\nimport os\n", rope.toString());
+        assertFalse(rope.isExhausted());
+    }
+
+    @Test
+    void append_StopsOnceBudgetIsHit() {
+        ContextRope rope = new ContextRope(4);
+        String small = "abcd efgh";
+        String large = "abcdefghijklmnopqrstuvwxyz";
+
+        assertTrue(rope.append(small));
+        int tokens = rope.getTokens();
+        assertFalse(rope.append(large), "A segment over the remaining budget should be turned away");
+        assertTrue(rope.isExhausted());
+        assertFalse(rope.append("a"), "An exhausted rope should take no further segments");
+
+        assertEquals(small, rope.toString());
+        assertEquals(tokens, rope.getTokens());
+    }
+
+    @Test
+    void getTokens_MeasuresRangesLikeStrings() {
+        String source = "prefix " + "def compute(values):\n    return sum(values)\n" + " suffix";
+        int start = "prefix ".length();
+        int end = source.length() - " suffix".length();
+        ContextRope rope = new ContextRope(1000);
+        rope.append(source, start, end);
+
+        assertEquals(CodeCompressor.estimateTokenCount(source.substring(start, end)), rope.getTokens());
+    }
+}
@@ -0,0 +1,85 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConversationStateTest {
+    private final List<String> summaryRequests = new ArrayList<>();
+
+    private String summarize(String request) {
+        summaryRequests.add(request);
+        return "summary " + summaryRequests.size();
+    }
+
+    @Test
+    void buildPrompt_IncludesContextExplanationAndRecentTurns() throws Exception {
+        ConversationState conversation = new ConversationState("def f(): pass", "f does nothing.");
+        conversation.recordTurn("Why?", "Because.", this::summarize);
+
+        String prompt = conversation.buildPrompt("Really?");
+
+        assertTrue(prompt.startsWith(ConversationState.FOLLOW_UP_PROMPT));
+        assertTrue(prompt.contains("def f(): pass"));
+        assertTrue(prompt.contains("f does nothing."));
+        assertTrue(prompt.contains("Question: Why?\nAnswer: Because."));
+        assertTrue(prompt.endsWith("Question: Really?\n"));
+        assertTrue(summaryRequests.isEmpty(), "Short histories should not be summarized");
+    }
+
+    @Test
+    void buildPrompt_OmitsMissingContext() {
+        ConversationState conversation = new ConversationState(null, "f does nothing.");
+
+        assertFalse(conversation.buildPrompt("Why?").contains("Function Context:"));
+    }
+
+    @Test
+    void recordTurn_CompactsOlderTurnsPastThreshold() throws Exception {
+        ConversationState conversation = new ConversationState("def f(): pass", "f does nothing.");
+        String longAnswer = "word ".repeat(ConversationState.HISTORY_TOKEN_THRESHOLD / 2);
+
+        for (int i = 0; i < 3; i++) {
+            conversation.recordTurn("Question " + i, longAnswer, this::summarize);
+        }
+
+        assertEquals(1, summaryRequests.size());
+        assertTrue(summaryRequests.get(0).contains("Question 0"));
+        assertEquals(ConversationState.KEEP_RECENT_TURNS, conversation.getRecentTurnCount());
+        assertEquals("summary 1", conversation.getSummary());
+        assertTrue(conversation.buildPrompt("Next").contains("summary 1"));
+        assertFalse(conversation.buildPrompt("Next").contains("Question 0"));
+    }
+
+    @Test
+    void recordTurn_PromptSizeStaysBounded() throws Exception {
+        ConversationState conversation = new ConversationState("def f(): pass", "f does nothing.");
+        String answer = "word ".repeat(200);
+        int maxTokens = 0;
+
+        for (int i = 0; i < 50; i++) {
+            conversation.recordTurn("Question " + i, answer, this::summarize);
+            maxTokens = Math.max(maxTokens, CodeCompressor.estimateTokenCount(conversation.buildPrompt("Next")));
+        }
+
+        assertTrue(conversation.getHistoryTokens() <= ConversationState.HISTORY_TOKEN_THRESHOLD + CodeCompressor.estimateTokenCount(answer));
+        assertTrue(maxTokens < 2 * ConversationState.HISTORY_TOKEN_THRESHOLD, "Prompt size should not grow with the conversation");
+    }
+
+    @Test
+    void recordTurn_KeepsTurnsWhenSummaryFails() {
+        ConversationState conversation = new ConversationState("def f(): pass", "f does nothing.");
+        String longAnswer = "word ".repeat(ConversationState.HISTORY_TOKEN_THRESHOLD);
+
+        assertThrows(IOException.class, () -> {
+            for (int i = 0; i < 3; i++) {
+                conversation.recordTurn("Question " + i, longAnswer, request -> {
+                    throw new IOException("offline");
+                });
+            }
+        });
+        assertTrue(conversation.getRecentTurnCount() > ConversationState.KEEP_RECENT_TURNS);
+    }
+}
@@ -0,0 +1,34 @@
+import com.intellij.lang.documentation.DocumentationMarkup;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExplanationDocumentationProviderTest {
+    @Test
+    void renderHtml_WithoutStandardDoc_ShowsNameAndEscapedParagraphs() {
+        String html = ExplanationDocumentationProvider.renderHtml("parse", "Reads a <header>.\n\nReturns it\nunchanged.", true, null);
+
+        assertTrue(html.startsWith(DocumentationMarkup.DEFINITION_START + "parse" + DocumentationMarkup.DEFINITION_END));
+        assertTrue(html.contains("<p>Reads a &lt;header&gt;.</p><p>Returns it<br>unchanged.</p>"));
+        assertFalse(html.contains("earlier version"));
+    }
+
+    @Test
+    void renderHtml_AppendsExplanationBelowStandardDoc() {
+        String standardDoc = DocumentationMarkup.DEFINITION_START + "def parse(data)" + DocumentationMarkup.DEFINITION_END;
+
+        String html = ExplanationDocumentationProvider.renderHtml("parse", "Parses data.", true, standardDoc);
+
+        assertTrue(html.startsWith(standardDoc));
+        assertEquals(html.indexOf(DocumentationMarkup.DEFINITION_START), html.lastIndexOf(DocumentationMarkup.DEFINITION_START),
+                "The name should not be repeated below the regular documentation");
+        assertTrue(html.contains("<p>Parses data.</p>"));
+    }
+
+    @Test
+    void renderHtml_NotesOutdatedExplanation() {
+        String html = ExplanationDocumentationProvider.renderHtml("parse", "Parses data.", false, null);
+
+        assertTrue(html.contains("Explains an earlier version of this function"));
+    }
+}
@@ -0,0 +1,110 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExplanationHistoryTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void record_KeepsEveryVersionNewestFirst() throws IOException {
+        ExplanationHistory history = new ExplanationHistory(tempDir.resolve("history.bin"), 1024);
+        history.record("a.py#f", "h1", "First explanation");
+        history.record("a.py#f", "h2", "Second explanation");
+        history.record("a.py#g", "h3", "Other function");
+
+        List<ExplanationHistory.Entry> entries = history.getEntries("a.py#f");
+
+        assertEquals(2, entries.size());
+        assertEquals("Second explanation", history.load(entries.get(0)));
+        assertEquals("First explanation", history.load(entries.get(1)));
+        history.dispose();
+    }
+
+    @Test
+    void record_IgnoresRepeatedExplanation() throws IOException {
+        ExplanationHistory history = new ExplanationHistory(tempDir.resolve("history.bin"), 1024);
+        history.record("a.py#f", "h1", "Same explanation");
+        history.record("a.py#f", "h1", "Same explanation");
+
+        assertEquals(1, history.size());
+        history.dispose();
+    }
+
+    @Test
+    void reopen_RestoresIndexAndDropsTruncatedRecord() throws IOException {
+        Path path = tempDir.resolve("history.bin");
+        ExplanationHistory history = new ExplanationHistory(path, 1024);
+        history.record("a.py#f", "h1", "Explanation ".repeat(50));
+        history.dispose();
+        Files.write(path, new byte[]{0, 0, 1, 0, 42}, StandardOpenOption.APPEND);
+
+        ExplanationHistory reopened = new ExplanationHistory(path, 1024);
+        List<ExplanationHistory.Entry> entries = reopened.getEntries("a.py#f");
+
+        assertEquals(1, entries.size());
+        assertEquals("Explanation ".repeat(50), reopened.load(entries.get(0)));
+        reopened.record("a.py#f", "h2", "Appended after recovery");
+        assertEquals("Appended after recovery", reopened.load(reopened.getEntries("a.py#f").get(0)));
+        reopened.dispose();
+    }
+
+    @Test
+    void record_CompactsFileBeyondMaximumSizeKeepingLatestVersions() throws IOException {
+        Path path = tempDir.resolve("history.bin");
+        ExplanationHistory history = new ExplanationHistory(path, 1024, 4096);
+        Random random = new Random(42);
+        ExplanationHistory.Entry first = history.record("a.py#f", "h0", randomText(random));
+        for (int i = 1; i < 20; i++) {
+            history.record("a.py#f", "h" + i, randomText(random));
+        }
+        history.record("a.py#g", "g0", "Only explanation of g");
+        String last = null;
+        for (int i = 20; i < 40; i++) {
+            last = randomText(random);
+            history.record("a.py#f", "h" + i, last);
+        }
+
+        assertTrue(Files.size(path) <= 4096);
+        assertThrows(IOException.class, () -> history.load(first));
+        assertEquals(last, history.load(history.getEntries("a.py#f").get(0)));
+        assertEquals("Only explanation of g", history.load(history.getEntries("a.py#g").get(0)));
+        int retained = history.size();
+        history.dispose();
+
+        ExplanationHistory reopened = new ExplanationHistory(path, 1024, 4096);
+        assertEquals(retained, reopened.size());
+        assertEquals("Only explanation of g", reopened.load(reopened.getEntries("a.py#g").get(0)));
+        reopened.dispose();
+    }
+
+    private static String randomText(Random random) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            text.append((char) ('a' + random.nextInt(26)));
+        }
+        return text.toString();
+    }
+
+    @Test
+    void load_StaysWithinHeapCap() throws IOException {
+        Path path = tempDir.resolve("history.bin");
+        ExplanationHistory history = new ExplanationHistory(path, 1000);
+        for (int i = 0; i < 200; i++) {
+            history.record("a.py#f" + i, "h" + i, "Explanation number " + i + " " + "detail ".repeat(30));
+        }
+
+        assertTrue(history.getCachedChars() <= 1000);
+        assertEquals("Explanation number 3 " + "detail ".repeat(30), history.load(history.getEntries("a.py#f3").get(0)));
+        assertTrue(Files.size(path) < 200 * 200, "Explanations should be stored compressed");
+        history.dispose();
+    }
+}
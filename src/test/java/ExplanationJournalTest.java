@@ -0,0 +1,108 @@
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExplanationJournalTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void append_WritesOneJsonLinePerEntry() throws IOException {
+        Path path = tempDir.resolve("out.jsonl");
+        try (ExplanationJournal journal = new ExplanationJournal(path)) {
+            journal.append("a.py#f", "h1", "Explains f");
+            journal.append("a.py#g", "h2", "Explains g");
+        }
+
+        List<String> lines = Files.readAllLines(path);
+        assertEquals(2, lines.size());
+        assertEquals("Explains g", new JSONObject(lines.get(1)).getString("explanation"));
+        assertTrue(Files.exists(tempDir.resolve("out.jsonl.checkpoint")), "Closing the journal should write a checkpoint");
+    }
+
+    @Test
+    void reopen_SkipsCompletedEntries() throws IOException {
+        Path path = tempDir.resolve("out.jsonl");
+        try (ExplanationJournal journal = new ExplanationJournal(path)) {
+            journal.append("a.py#f", "h1", "Explains f");
+        }
+
+        try (ExplanationJournal journal = new ExplanationJournal(path)) {
+            assertTrue(journal.isCompleted("a.py#f", "h1"));
+            assertFalse(journal.isCompleted("a.py#f", "h2"), "A changed function should be explained again");
+            assertEquals(1, journal.size());
+        }
+    }
+
+    @Test
+    void reopen_DiscardsTruncatedLastLine() throws IOException {
+        Path path = tempDir.resolve("out.jsonl");
+        try (ExplanationJournal journal = new ExplanationJournal(path)) {
+            journal.append("a.py#f", "h1", "Explains f");
+        }
+        Files.writeString(path, "{\"key\":\"a.py#g\",\"hash\":\"h2\",\"expl", StandardOpenOption.APPEND);
+
+        try (ExplanationJournal journal = new ExplanationJournal(path)) {
+            assertFalse(journal.isCompleted("a.py#g", "h2"));
+            journal.append("a.py#g", "h2", "Explains g");
+        }
+
+        List<String> lines = Files.readAllLines(path);
+        assertEquals(2, lines.size(), "The partial line should be replaced by the new entry");
+        assertEquals("a.py#g", new JSONObject(lines.get(1)).getString("key"));
+    }
+
+    @Test
+    void append_WritesCheckpointPeriodically() throws IOException {
+        Path path = tempDir.resolve("out.jsonl");
+        ExplanationJournal journal = new ExplanationJournal(path);
+        for (int i = 0; i < ExplanationJournal.CHECKPOINT_INTERVAL; i++) {
+            journal.append("a.py#f" + i, "h", "Explains f" + i);
+        }
+
+        JSONObject checkpoint = new JSONObject(Files.readString(tempDir.resolve("out.jsonl.checkpoint")));
+        assertEquals(ExplanationJournal.CHECKPOINT_INTERVAL, checkpoint.getInt("entries"));
+        assertEquals(Files.size(path), checkpoint.getLong("bytes"));
+        journal.close();
+    }
+
+    @Test
+    void reopen_SkipsCorruptLineWithinCheckpointedLength() throws IOException {
+        Path path = tempDir.resolve("out.jsonl");
+        try (ExplanationJournal journal = new ExplanationJournal(path)) {
+            journal.append("a.py#f", "h1", "Explains f");
+            journal.append("a.py#g", "h2", "Explains g");
+            journal.append("a.py#h", "h3", "Explains h");
+        }
+        List<String> lines = Files.readAllLines(path);
+        Files.write(path, List.of(lines.get(0), "x".repeat(lines.get(1).length()), lines.get(2)));
+
+        try (ExplanationJournal journal = new ExplanationJournal(path)) {
+            assertTrue(journal.isCompleted("a.py#f", "h1"));
+            assertFalse(journal.isCompleted("a.py#g", "h2"), "The corrupt entry should be explained again");
+            assertTrue(journal.isCompleted("a.py#h", "h3"), "Entries after a corrupt durable line should be kept");
+        }
+    }
+
+    @Test
+    void reopen_DiscardsCorruptTailBeyondCheckpoint() throws IOException {
+        Path path = tempDir.resolve("out.jsonl");
+        try (ExplanationJournal journal = new ExplanationJournal(path)) {
+            journal.append("a.py#f", "h1", "Explains f");
+        }
+        Files.writeString(path, "garbage\n{\"key\":\"a.py#g\",\"hash\":\"h2\",\"explanation\":\"g\"}\n", StandardOpenOption.APPEND);
+
+        try (ExplanationJournal journal = new ExplanationJournal(path)) {
+            assertFalse(journal.isCompleted("a.py#g", "h2"), "Lines after a torn write should be discarded");
+        }
+        assertEquals(1, Files.readAllLines(path).size());
+    }
+}
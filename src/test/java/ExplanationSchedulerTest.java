@@ -0,0 +1,116 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExplanationSchedulerTest {
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final ExplanationScheduler scheduler = new ExplanationScheduler(executor);
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void submit_RunsQueuedRequestsByPriority() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        List<ExplanationPriority> order = Collections.synchronizedList(new ArrayList<>());
+        ExplanationScheduler.Task first = scheduler.submit(ExplanationPriority.BULK, 10_000, () -> {
+            release.await();
+            return "";
+        });
+        ExplanationScheduler.Task second = scheduler.submit(ExplanationPriority.BULK, 10_000, () -> {
+            release.await();
+            return "";
+        });
+
+        ExplanationScheduler.Task bulk = scheduler.submit(ExplanationPriority.BULK, 10_000, () -> {
+            order.add(ExplanationPriority.BULK);
+            return "";
+        });
+        ExplanationScheduler.Task prefetch = scheduler.submit(ExplanationPriority.PREFETCH, 10_000, () -> {
+            order.add(ExplanationPriority.PREFETCH);
+            return "";
+        });
+        release.countDown();
+
+        for (ExplanationScheduler.Task task : List.of(first, second, bulk, prefetch)) {
+            task.getFuture().get(5, TimeUnit.SECONDS);
+        }
+        assertEquals(ExplanationPriority.PREFETCH, order.get(0), "Higher priority requests should leave the queue first");
+    }
+
+    @Test
+    void cancel_InterruptsRunningRequest() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        ExplanationScheduler.Task task = scheduler.submit(ExplanationPriority.FOREGROUND, 10_000, () -> {
+            started.countDown();
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return "";
+        });
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        task.cancel();
+
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS), "Cancelling should interrupt the request");
+        assertThrows(CancellationException.class, () -> task.getFuture().get());
+    }
+
+    @Test
+    void checkpoint_FailsAfterDeadline() {
+        ExplanationScheduler.Task task = scheduler.submit(ExplanationPriority.FOREGROUND, 50, () -> {
+            Thread.sleep(100);
+            scheduler.checkpoint();
+            return "too late";
+        });
+
+        ExecutionException error = assertThrows(ExecutionException.class, () -> task.getFuture().get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IOException.class, error.getCause());
+    }
+
+    @Test
+    void checkpoint_WaitsWhileForegroundRequestRuns() throws Exception {
+        CountDownLatch foregroundStarted = new CountDownLatch(1);
+        CountDownLatch releaseForeground = new CountDownLatch(1);
+        ExplanationScheduler.Task foreground = scheduler.submit(ExplanationPriority.FOREGROUND, 10_000, () -> {
+            foregroundStarted.countDown();
+            releaseForeground.await();
+            return "foreground";
+        });
+        assertTrue(foregroundStarted.await(5, TimeUnit.SECONDS));
+
+        CountDownLatch backgroundPassed = new CountDownLatch(1);
+        ExplanationScheduler.Task background = scheduler.submit(ExplanationPriority.BACKGROUND, 10_000, () -> {
+            scheduler.checkpoint();
+            backgroundPassed.countDown();
+            return "background";
+        });
+
+        assertFalse(backgroundPassed.await(300, TimeUnit.MILLISECONDS), "Background work should pause while the foreground runs");
+        releaseForeground.countDown();
+        assertEquals("foreground", foreground.getFuture().get(5, TimeUnit.SECONDS));
+        assertEquals("background", background.getFuture().get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void currentPriority_OutsideSchedulerIsBulk() {
+        assertEquals(ExplanationPriority.BULK, scheduler.currentPriority());
+    }
+}
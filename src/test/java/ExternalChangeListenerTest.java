@@ -0,0 +1,82 @@
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.project.ProjectLocator;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.newvfs.events.VFileContentChangeEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileDeleteEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedStatic;
+
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class ExternalChangeListenerTest {
+    private final Project project = mock(Project.class);
+    private final ProjectLocator projectLocator = mock(ProjectLocator.class);
+    private final StaleExplanationRefresher refresher = mock(StaleExplanationRefresher.class);
+    private MockedStatic<ProjectLocator> locatorStatic;
+    private MockedStatic<StaleExplanationRefresher> refresherStatic;
+
+    @BeforeEach
+    void setUp() {
+        locatorStatic = mockStatic(ProjectLocator.class);
+        locatorStatic.when(ProjectLocator::getInstance).thenReturn(projectLocator);
+        when(projectLocator.getProjectsForFile(any())).thenReturn(List.of(project));
+        refresherStatic = mockStatic(StaleExplanationRefresher.class);
+        refresherStatic.when(() -> StaleExplanationRefresher.getIfUsed(project)).thenReturn(refresher);
+    }
+
+    @AfterEach
+    void tearDown() {
+        refresherStatic.close();
+        locatorStatic.close();
+    }
+
+    @Test
+    void after_PassesPythonFilesChangedOnDisk() {
+        VirtualFile module = file("module.py");
+        VirtualFile notes = file("notes.txt");
+
+        new ExternalChangeListener().after(List.of(contentChange(module, true), contentChange(notes, true)));
+
+        verify(refresher).filesChanged(List.of(module));
+    }
+
+    @Test
+    void after_IgnoresEditorSavesAndOtherEvents() {
+        VirtualFile removed = file("removed.py");
+        VFileEvent deletion = mock(VFileDeleteEvent.class);
+        when(deletion.isFromRefresh()).thenReturn(true);
+        when(deletion.getFile()).thenReturn(removed);
+
+        new ExternalChangeListener().after(List.of(contentChange(file("edited.py"), false), deletion));
+
+        verifyNoInteractions(refresher);
+    }
+
+    @Test
+    void after_SkipsProjectsWithoutExplanations() {
+        refresherStatic.when(() -> StaleExplanationRefresher.getIfUsed(project)).thenReturn(null);
+
+        new ExternalChangeListener().after(List.of(contentChange(file("module.py"), true)));
+
+        verifyNoInteractions(refresher);
+    }
+
+    private static VFileEvent contentChange(VirtualFile file, boolean fromRefresh) {
+        VFileContentChangeEvent event = mock(VFileContentChangeEvent.class);
+        when(event.isFromRefresh()).thenReturn(fromRefresh);
+        when(event.getFile()).thenReturn(file);
+        return event;
+    }
+
+    private static VirtualFile file(String name) {
+        VirtualFile file = mock(VirtualFile.class);
+        when(file.getExtension()).thenReturn(name.substring(name.lastIndexOf('.') + 1));
+        return file;
+    }
+}
@@ -0,0 +1,90 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HeapFootprintTest {
+    @TempDir
+    Path tempDir;
+
+    private static class Node {
+        long value;
+        Node next;
+        int[] payload;
+    }
+
+    @Test
+    void retainedBytes_CountsFieldsAndArrays() {
+        Node node = new Node();
+        node.payload = new int[10];
+
+        // Header 12 + long 8 + two references 4 each = 28, aligned to 32; the array is 16 + 40 = 56.
+        assertEquals(32 + 56, HeapFootprint.retainedBytes(node));
+    }
+
+    @Test
+    void retainedBytes_CountsSharedObjectsOnceAndHandlesCycles() {
+        Node first = new Node();
+        Node second = new Node();
+        first.next = second;
+        second.next = first;
+        int[] shared = new int[4];
+        first.payload = shared;
+        second.payload = shared;
+
+        assertEquals(2 * 32 + 32, HeapFootprint.retainedBytes(first, second, null));
+    }
+
+    @Test
+    void retainedBytes_DoesNotFollowClassesOrThreads() {
+        Object[] roots = {Thread.currentThread(), HeapFootprintTest.class};
+
+        assertEquals(24, HeapFootprint.retainedBytes((Object) roots));
+    }
+
+    @Test
+    void retainedBytes_FollowsJdkCollections() {
+        Map<String, int[]> map = new HashMap<>();
+        map.put("payload", new int[1000]);
+
+        // Only counted if the test JVM opens java.util, see the test task in build.gradle.kts.
+        assertTrue(HeapFootprint.retainedBytes(map) > 4000);
+    }
+
+    @Test
+    void unusedHistory_RetainsAlmostNothingAndCreatesNoFile() throws IOException {
+        Path path = tempDir.resolve("history.bin");
+        ExplanationHistory history = new ExplanationHistory(path, ExplanationHistory.DEFAULT_HEAP_CAP_CHARS);
+        long unused = HeapFootprint.retainedBytes(history);
+
+        assertTrue(unused < 1024);
+        assertFalse(Files.exists(path));
+
+        ExplanationHistory used = new ExplanationHistory(tempDir.resolve("used.bin"), ExplanationHistory.DEFAULT_HEAP_CAP_CHARS);
+        used.record("a.py#f", "h1", "Explanation ".repeat(200));
+        assertTrue(HeapFootprint.retainedBytes(used) > unused + 2400);
+        used.dispose();
+    }
+
+    @Test
+    void emptyCallGraph_RetainsOnlyItsInitialArrays() {
+        assertTrue(HeapFootprint.retainedBytes(new CallGraph()) < 4 * 1024);
+    }
+
+    @Test
+    void retainedBytes_GrowsWithContent() {
+        CallGraph graph = new CallGraph();
+        long empty = HeapFootprint.retainedBytes(graph);
+        graph.replaceFile("/a.py", 1, List.of(new CallGraph.Definition("/a.py#f", "f", List.of("g"))));
+
+        assertTrue(HeapFootprint.retainedBytes(graph) > empty);
+        assertTrue(HeapFootprint.retainedBytes(Map.of()) > 0);
+    }
+}
@@ -0,0 +1,129 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HedgingTransportTest {
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Warms up the latency statistics with fast requests so that hedging kicks in.
+     */
+    private static void warmUp(HedgingTransport transport) throws Exception {
+        for (int i = 0; i < LatencyTracker.MIN_SAMPLES; i++) {
+            transport.send("{}", "key", false).close();
+        }
+    }
+
+    @Test
+    void send_HedgesSlowRequestAndReturnsFirstAnswer() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        AtomicInteger slowCall = new AtomicInteger(-1);
+        LlmTransport delegate = (body, apiKey, stream) -> {
+            int call = calls.getAndIncrement();
+            if (call == slowCall.get()) {
+                Thread.sleep(10_000);
+            }
+            return new LlmTransport.Response(200, List.of("answer " + call));
+        };
+        HedgingTransport transport = new HedgingTransport(delegate, executor, body -> true, 30_000);
+        warmUp(transport);
+
+        slowCall.set(calls.get());
+        long start = System.nanoTime();
+        String body = transport.send("{}", "key", false).body();
+
+        assertEquals("answer " + (slowCall.get() + 1), body, "The hedged request should win");
+        assertTrue((System.nanoTime() - start) / 1_000_000 < 5_000);
+    }
+
+    @Test
+    void send_DoesNotHedgeWithoutBudget() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        AtomicInteger slowCall = new AtomicInteger(-1);
+        LlmTransport delegate = (body, apiKey, stream) -> {
+            int call = calls.getAndIncrement();
+            if (call == slowCall.get()) {
+                Thread.sleep(200);
+            }
+            return new LlmTransport.Response(200, List.of("answer " + call));
+        };
+        HedgingTransport transport = new HedgingTransport(delegate, executor, body -> false, 30_000);
+        warmUp(transport);
+
+        slowCall.set(calls.get());
+        assertEquals("answer " + slowCall.get(), transport.send("{}", "key", false).body());
+        assertEquals(slowCall.get() + 1, calls.get());
+    }
+
+    @Test
+    void send_TimesOutAtDeadline() {
+        LlmTransport delegate = (body, apiKey, stream) -> {
+            Thread.sleep(10_000);
+            return new LlmTransport.Response(200, List.of("late"));
+        };
+        HedgingTransport transport = new HedgingTransport(delegate, executor, body -> true, 100);
+
+        assertThrows(IOException.class, () -> transport.send("{}", "key", false));
+    }
+
+    @Test
+    void send_PropagatesFailure() {
+        LlmTransport delegate = (body, apiKey, stream) -> {
+            throw new IOException("connection refused");
+        };
+        HedgingTransport transport = new HedgingTransport(delegate, executor, body -> true, 30_000);
+
+        IOException e = assertThrows(IOException.class, () -> transport.send("{}", "key", false));
+        assertEquals("connection refused", e.getMessage());
+    }
+
+    @Test
+    void send_AbandonsStreamedBodyAtDeadline() throws Exception {
+        CountDownLatch closed = new CountDownLatch(1);
+        LlmTransport delegate = (body, apiKey, stream) -> new LlmTransport.Response(200, new Iterator<>() {
+            private boolean first = true;
+
+            @Override
+            public boolean hasNext() {
+                if (first) {
+                    return true;
+                }
+                try {
+                    closed.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return false;
+            }
+
+            @Override
+            public String next() {
+                first = false;
+                return "data: first";
+            }
+        }, closed::countDown);
+        HedgingTransport transport = new HedgingTransport(delegate, executor, body -> false, 200);
+
+        LlmTransport.Response response = transport.send("{}", "key", true);
+        Iterator<String> lines = response.lines();
+        assertEquals("data: first", lines.next());
+        UncheckedIOException e = assertThrows(UncheckedIOException.class, lines::hasNext);
+        assertTrue(e.getCause().getMessage().contains("did not complete"));
+        response.close();
+    }
+}
@@ -0,0 +1,44 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PendingExplanationsTest {
+    private final List<String> added = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        added.forEach(PendingExplanations::remove);
+    }
+
+    @Test
+    void tryAdd_RejectsFunctionAlreadyPending() {
+        assertTrue(add("a.py#f", Integer.MAX_VALUE));
+
+        assertFalse(add("a.py#f", Integer.MAX_VALUE), "A refresh should not be sent while a prefetch is pending");
+        PendingExplanations.remove("a.py#f");
+        assertTrue(add("a.py#f", Integer.MAX_VALUE));
+    }
+
+    @Test
+    void tryAdd_CapsPendingRequests() {
+        int cap = ExplanationDocumentationProvider.MAX_PENDING_PREFETCHES;
+        for (int i = 0; i < cap; i++) {
+            assertTrue(add("f" + i, cap));
+        }
+
+        assertFalse(add("extra", cap), "No more prefetches should be pending than the cap");
+        assertTrue(add("refresh", Integer.MAX_VALUE), "Refreshes are not capped");
+        PendingExplanations.remove("f0");
+        PendingExplanations.remove("refresh");
+        assertTrue(add("extra", cap));
+    }
+
+    private boolean add(String key, int maxPending) {
+        added.add(key);
+        return PendingExplanations.tryAdd(key, maxPending);
+    }
+}
@@ -0,0 +1,149 @@
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiTreeChangeEvent;
+import com.intellij.psi.SmartPointerManager;
+import com.intellij.psi.SmartPsiElementPointer;
+import com.jetbrains.python.psi.PyFile;
+import com.jetbrains.python.psi.PyFunction;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class PreparedContextCacheTest {
+    private MockedStatic<PythonFileChangeTracker> mockedTracker;
+    private MockedStatic<SmartPointerManager> mockedPointerManager;
+    private MockedStatic<CodeParsingHelper> mockedParsingHelper;
+    private final List<PythonFileChangeTracker.Listener> listeners = new ArrayList<>();
+    private final AtomicInteger builds = new AtomicInteger();
+    private Project project;
+    private PyFile file;
+    private PyFunction function;
+    private PsiElement dependency;
+    private PreparedContextCache cache;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        project = mock(Project.class);
+        ProjectFunctionIndex functionIndex = mock(ProjectFunctionIndex.class);
+        when(functionIndex.isBuilt()).thenReturn(true);
+        when(project.getService(ProjectFunctionIndex.class)).thenReturn(functionIndex);
+
+        VirtualFile virtualFile = mock(VirtualFile.class);
+        when(virtualFile.getPath()).thenReturn("/project/a.py");
+        file = mock(PyFile.class);
+        when(file.getVirtualFile()).thenReturn(virtualFile);
+        function = mock(PyFunction.class);
+        when(function.getQualifiedName()).thenReturn("load");
+        when(function.getContainingFile()).thenReturn(file);
+        dependency = mock(PsiElement.class);
+        when(dependency.getContainingFile()).thenReturn(file);
+
+        mockedTracker = Mockito.mockStatic(PythonFileChangeTracker.class);
+        mockedTracker.when(() -> PythonFileChangeTracker.subscribe(any(), any(), any())).thenAnswer(invocation -> {
+            listeners.add(invocation.getArgument(1));
+            return null;
+        });
+        SmartPointerManager pointerManager = mock(SmartPointerManager.class);
+        when(pointerManager.createSmartPsiElementPointer(any())).thenAnswer(invocation -> {
+            SmartPsiElementPointer<PsiElement> pointer = mock(SmartPsiElementPointer.class);
+            PsiElement element = invocation.getArgument(0);
+            when(pointer.getElement()).thenReturn(element);
+            return pointer;
+        });
+        mockedPointerManager = Mockito.mockStatic(SmartPointerManager.class);
+        mockedPointerManager.when(() -> SmartPointerManager.getInstance(project)).thenReturn(pointerManager);
+        mockedParsingHelper = Mockito.mockStatic(CodeParsingHelper.class);
+        mockedParsingHelper.when(() -> CodeParsingHelper.buildFunctionContext(eq(function), anyList(), anyInt())).thenAnswer(invocation -> {
+            builds.incrementAndGet();
+            List<PsiElement> dependencies = invocation.getArgument(1);
+            dependencies.add(dependency);
+            ContextRope rope = new ContextRope(1000);
+            rope.append("def load(path):\n    return parse(open(path).read())\n");
+            return rope;
+        });
+
+        cache = new PreparedContextCache(project);
+    }
+
+    @AfterEach
+    void tearDown() {
+        mockedTracker.close();
+        mockedPointerManager.close();
+        mockedParsingHelper.close();
+    }
+
+    private void fireChange(PyFile changedFile, PsiTreeChangeEvent event) {
+        for (PythonFileChangeTracker.Listener listener : listeners) {
+            listener.pythonFileChanged(changedFile, event);
+        }
+    }
+
+    private static PsiTreeChangeEvent changeUnder(PsiElement parent) {
+        PsiTreeChangeEvent event = mock(PsiTreeChangeEvent.class);
+        when(event.getParent()).thenReturn(parent);
+        return event;
+    }
+
+    @Test
+    void getContext_ReusesContextWhileNothingChanges() {
+        PreparedContextCache.Prepared first = cache.getContext(function);
+        PreparedContextCache.Prepared second = cache.getContext(function);
+
+        assertSame(first, second);
+        assertEquals(1, builds.get());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void getContext_PreparesAgainAfterDependencyChanges() {
+        cache.getContext(function);
+        PsiElement edited = mock(PsiElement.class);
+        when(edited.getParent()).thenReturn(dependency);
+
+        fireChange(file, changeUnder(edited));
+
+        assertEquals(0, cache.size());
+        cache.getContext(function);
+        assertEquals(2, builds.get());
+    }
+
+    @Test
+    void getContext_KeepsContextWhenUnrelatedElementChanges() {
+        cache.getContext(function);
+
+        fireChange(file, changeUnder(mock(PsiElement.class)));
+
+        cache.getContext(function);
+        assertEquals(1, builds.get());
+    }
+
+    @Test
+    void getContext_KeepsContextWhenUnrelatedEditReachesFunctionIndex() {
+        ProjectFunctionIndex functionIndex = spy(new ProjectFunctionIndex(project));
+        doReturn(true).when(functionIndex).isBuilt();
+        when(project.getService(ProjectFunctionIndex.class)).thenReturn(functionIndex);
+        cache.getContext(function);
+        PyFile otherFile = mock(PyFile.class);
+        VirtualFile otherVirtualFile = mock(VirtualFile.class);
+        when(otherFile.getVirtualFile()).thenReturn(otherVirtualFile);
+
+        fireChange(otherFile, changeUnder(mock(PsiElement.class)));
+        fireChange(file, changeUnder(mock(PsiElement.class)));
+
+        cache.getContext(function);
+        assertEquals(1, builds.get());
+        functionIndex.dispose();
+    }
+}
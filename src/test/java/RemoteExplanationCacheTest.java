@@ -0,0 +1,108 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class RemoteExplanationCacheTest {
+    private LocalCacheServer server;
+    private RemoteExplanationCache cache;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new LocalCacheServer(0);
+        cache = new RemoteExplanationCache(server.getUri(), HttpClient.newHttpClient());
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.close();
+    }
+
+    @Test
+    void store_IsVisibleToOtherClientsAfterFlush() throws InterruptedException {
+        String key = RemoteExplanationCache.keyFor("def f():\n    return 1\n");
+        cache.store(key, "Returns 1.");
+        cache.flush();
+
+        RemoteExplanationCache teammate = new RemoteExplanationCache(server.getUri(), HttpClient.newHttpClient());
+        assertEquals("Returns 1.", teammate.lookup(key));
+        assertEquals(1, server.size());
+    }
+
+    @Test
+    void lookup_ReturnsNullOnMiss() throws InterruptedException {
+        assertNull(cache.lookup(RemoteExplanationCache.keyFor("def g():\n    pass\n")));
+    }
+
+    @Test
+    void lookupAll_ReturnsOnlyEntriesFound() throws InterruptedException {
+        String first = RemoteExplanationCache.keyFor("def a():\n    pass\n");
+        String second = RemoteExplanationCache.keyFor("def b():\n    pass\n");
+        String missing = RemoteExplanationCache.keyFor("def c():\n    pass\n");
+        cache.store(first, "Does nothing.");
+        cache.store(second, "Does nothing either.");
+        cache.flush();
+
+        Map<String, String> found = cache.lookupAll(List.of(first, second, missing));
+
+        assertEquals(Map.of(first, "Does nothing.", second, "Does nothing either."), found);
+    }
+
+    @Test
+    void keyFor_SeparatesPackedFromFullExplanations() {
+        String context = "def f():\n    return 1\n";
+
+        assertNotEquals(RemoteExplanationCache.keyFor(context), RemoteExplanationCache.keyFor(context, RequestPacker.PACKED_PROMPT));
+        assertEquals(RemoteExplanationCache.keyFor(context), RemoteExplanationCache.keyFor(context, ""));
+    }
+
+    @Test
+    void keyFor_IgnoresLineEndingsAndTrailingWhitespace() {
+        assertEquals(RemoteExplanationCache.keyFor("def f():\n    return 1\n"),
+                RemoteExplanationCache.keyFor("def f():  \r\n    return 1\r\n\r\n"));
+        assertNotEquals(RemoteExplanationCache.keyFor("def f():\n    return 1\n"),
+                RemoteExplanationCache.keyFor("def f():\n    return 2\n"));
+    }
+
+    @Test
+    void lookup_TreatsUnreachableServerAsMiss() throws InterruptedException {
+        server.close();
+        RemoteExplanationCache unreachable = new RemoteExplanationCache(URI.create(server.getUri().toString()), HttpClient.newHttpClient());
+        String key = RemoteExplanationCache.keyFor("def f():\n    pass\n");
+
+        assertNull(unreachable.lookup(key));
+        assertTrue(unreachable.lookupAll(List.of(key)).isEmpty());
+    }
+
+    @Test
+    void lookup_LeavesFailedServerAloneDuringBackoff() throws Exception {
+        HttpClient failing = mock(HttpClient.class);
+        when(failing.send(any(HttpRequest.class), any())).thenThrow(new IOException("connection refused"));
+        AtomicLong now = new AtomicLong(1_000_000L);
+        RemoteExplanationCache unreachable = new RemoteExplanationCache(URI.create("http://127.0.0.1:1/"), failing, now::get);
+        String key = RemoteExplanationCache.keyFor("def f():\n    pass\n");
+
+        assertNull(unreachable.lookup(key));
+        assertNull(unreachable.lookup(key));
+        assertTrue(unreachable.lookupAll(List.of(key)).isEmpty());
+        unreachable.store(key, "Does nothing.");
+        unreachable.flush();
+        verify(failing, times(1)).send(any(HttpRequest.class), any());
+
+        now.addAndGet(RemoteExplanationCache.BACKOFF_MS);
+        assertNull(unreachable.lookup(key));
+        verify(failing, times(2)).send(any(HttpRequest.class), any());
+    }
+}
@@ -0,0 +1,87 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RequestPackerTest {
+    private static List<RequestPacker.Item> items(int count) {
+        List<RequestPacker.Item> items = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            items.add(new RequestPacker.Item("f" + i, "def f" + i + "():\n    return " + i));
+        }
+        return items;
+    }
+
+    @Test
+    void pack_GroupsItemsWithinBudget() {
+        RequestPacker packer = new RequestPacker(7000);
+        List<List<RequestPacker.Item>> packs = packer.pack(items(3));
+        assertEquals(1, packs.size());
+        assertEquals(3, packs.get(0).size());
+    }
+
+    @Test
+    void pack_StartsNewPackWhenBudgetIsExceeded() {
+        int promptTokens = CodeCompressor.estimateTokenCount(RequestPacker.PACKED_PROMPT);
+        RequestPacker packer = new RequestPacker(promptTokens + 20);
+        List<List<RequestPacker.Item>> packs = packer.pack(items(4));
+        assertTrue(packs.size() > 1, "Items exceeding the budget should be split across requests");
+        assertEquals(4, packs.stream().mapToInt(List::size).sum());
+    }
+
+    @Test
+    void parseResponse_IgnoresUnterminatedSections() {
+        String response = "### EXPLANATION F1\nReturns one.\n### END F1\n### EXPLANATION F2\nReturns tw";
+        Map<String, String> sections = RequestPacker.parseResponse(response);
+        assertEquals("Returns one.", sections.get("F1"));
+        assertFalse(sections.containsKey("F2"), "A section cut off by the response limit should be treated as missing");
+    }
+
+    @Test
+    void explainAll_SplitsPackedAnswer() throws InterruptedException {
+        List<String> requests = new ArrayList<>();
+        RequestPacker packer = new RequestPacker(7000);
+
+        Map<String, String> explanations = packer.explainAll(items(2), request -> {
+            requests.add(request);
+            return "### EXPLANATION F1\nReturns 0.\n### END F1\n\n### EXPLANATION F2\nReturns 1.\n### END F2\n";
+        });
+
+        assertEquals(1, requests.size(), "Both functions should be sent in a single request");
+        assertEquals("Returns 0.", explanations.get("f0"));
+        assertEquals("Returns 1.", explanations.get("f1"));
+    }
+
+    @Test
+    void explainAll_ReissuesMissingSections() throws InterruptedException {
+        List<String> requests = new ArrayList<>();
+        RequestPacker packer = new RequestPacker(7000);
+
+        Map<String, String> explanations = packer.explainAll(items(2), request -> {
+            requests.add(request);
+            if (request.startsWith(RequestPacker.PACKED_PROMPT)) {
+                return "### EXPLANATION F1\nReturns 0.\n### END F1\nsomething unexpected";
+            }
+            return "Alone: returns 1.";
+        });
+
+        assertEquals(2, requests.size(), "Only the function with a missing section should be re-sent");
+        assertEquals("Returns 0.", explanations.get("f0"));
+        assertEquals("Alone: returns 1.", explanations.get("f1"));
+    }
+
+    @Test
+    void explainAll_LeavesOutFunctionsThatFailAlone() throws InterruptedException {
+        RequestPacker packer = new RequestPacker(7000);
+
+        Map<String, String> explanations = packer.explainAll(items(1), request -> {
+            throw new IOException("boom");
+        });
+
+        assertTrue(explanations.isEmpty());
+    }
+}
@@ -0,0 +1,127 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SharedTokenTrackerTest {
+    @TempDir
+    Path tempDir;
+
+    private final AtomicLong now = new AtomicLong(1_000_000_000L);
+
+    @Test
+    void recordTokenUsage_IsVisibleToOtherTrackers() throws IOException {
+        Path path = tempDir.resolve("window.bin");
+        try (SharedTokenTracker first = new SharedTokenTracker(path, now::get);
+             SharedTokenTracker second = new SharedTokenTracker(path, now::get)) {
+            first.recordTokenUsage(100);
+            second.recordTokenUsage(50);
+
+            assertEquals(150, first.getCurrentTokenCount());
+            assertEquals(150, second.getCurrentTokenCount());
+        }
+    }
+
+    @Test
+    void getCurrentTokenCount_DropsUsageOutsideWindow() throws IOException {
+        try (SharedTokenTracker tracker = new SharedTokenTracker(tempDir.resolve("window.bin"), now::get)) {
+            tracker.recordTokenUsage(100);
+            now.addAndGet(30_000);
+            tracker.recordTokenUsage(40);
+
+            assertEquals(140, tracker.getCurrentTokenCount());
+            assertEquals(30, tracker.getRemainingWaitTime());
+
+            now.addAndGet(30_000);
+            assertEquals(40, tracker.getCurrentTokenCount(), "The first usage should have left the window");
+
+            now.addAndGet(30_000);
+            assertEquals(0, tracker.getCurrentTokenCount());
+            assertEquals(0, tracker.getRemainingWaitTime());
+        }
+    }
+
+    @Test
+    void recordTokenUsage_ReusedBucketStartsFromZero() throws IOException {
+        try (SharedTokenTracker tracker = new SharedTokenTracker(tempDir.resolve("window.bin"), now::get)) {
+            tracker.recordTokenUsage(100);
+            now.addAndGet(SharedTokenTracker.BUCKET_COUNT * 1000L);
+            tracker.recordTokenUsage(10);
+
+            assertEquals(10, tracker.getCurrentTokenCount());
+        }
+    }
+
+    @Test
+    void open_KeepsStateOfPreviousProcess() throws IOException {
+        Path path = tempDir.resolve("window.bin");
+        try (SharedTokenTracker tracker = new SharedTokenTracker(path, now::get)) {
+            tracker.recordTokenUsage(70);
+        }
+
+        try (SharedTokenTracker tracker = new SharedTokenTracker(path, now::get)) {
+            assertEquals(70, tracker.getCurrentTokenCount());
+        }
+    }
+
+    @Test
+    void tryReserve_ConcurrentReserversNeverExceedLimit() throws Exception {
+        Path path = tempDir.resolve("window.bin");
+        int limit = 1000;
+        try (SharedTokenTracker first = new SharedTokenTracker(path, now::get);
+             SharedTokenTracker second = new SharedTokenTracker(path, now::get)) {
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            CountDownLatch start = new CountDownLatch(1);
+            AtomicInteger reserved = new AtomicInteger();
+            AtomicInteger maxSeen = new AtomicInteger();
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                SharedTokenTracker tracker = i % 2 == 0 ? first : second;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int j = 0; j < 50; j++) {
+                        if (tracker.tryReserve(7, limit) != null) {
+                            reserved.addAndGet(7);
+                        }
+                        maxSeen.accumulateAndGet(tracker.getCurrentTokenCount(), Math::max);
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+            executor.shutdown();
+
+            assertTrue(maxSeen.get() <= limit, "The window went over the limit: " + maxSeen.get());
+            assertEquals(reserved.get(), first.getCurrentTokenCount());
+            assertEquals(limit / 7 * 7, reserved.get());
+        }
+    }
+
+    @Test
+    void settle_ReplacesEstimateWithActualUsage() throws IOException {
+        try (SharedTokenTracker tracker = new SharedTokenTracker(tempDir.resolve("window.bin"), now::get)) {
+            TokenTracker.Reservation reservation = tracker.tryReserve(100, 1000);
+            now.addAndGet(5_000);
+            tracker.recordTokenUsage(20);
+            tracker.settle(reservation, 60);
+
+            assertEquals(80, tracker.getCurrentTokenCount());
+            assertNull(tracker.tryReserve(1000, 1000));
+        }
+    }
+}
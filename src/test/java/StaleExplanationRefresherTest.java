@@ -0,0 +1,58 @@
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class StaleExplanationRefresherTest {
+    private ScheduledExecutorService executor;
+    private StaleExplanationRefresher refresher;
+
+    @BeforeEach
+    void setUp() {
+        executor = mock(ScheduledExecutorService.class);
+        refresher = new StaleExplanationRefresher(mock(Project.class), executor);
+    }
+
+    @Test
+    void filesChanged_IgnoresFilesOtherThanPython() {
+        refresher.filesChanged(List.of(file("README.md"), file("setup.cfg")));
+
+        assertTrue(refresher.getChangedFiles().isEmpty());
+        verifyNoInteractions(executor);
+    }
+
+    @Test
+    void filesChanged_CollectsPythonFilesOnce() {
+        VirtualFile module = file("module.py");
+
+        refresher.filesChanged(List.of(module, file("notes.txt"), module));
+        refresher.filesChanged(List.of(module));
+
+        assertEquals(1, refresher.getChangedFiles().size());
+        assertTrue(refresher.getChangedFiles().contains(module));
+    }
+
+    @Test
+    void filesChanged_SchedulesOnePassPerDebounceWindow() {
+        refresher.filesChanged(List.of(file("a.py")));
+        refresher.filesChanged(List.of(file("b.py")));
+
+        verify(executor, times(1)).schedule(any(Runnable.class), anyLong(), eq(TimeUnit.MILLISECONDS));
+        assertEquals(2, refresher.getChangedFiles().size());
+    }
+
+    private static VirtualFile file(String name) {
+        VirtualFile file = mock(VirtualFile.class);
+        when(file.getName()).thenReturn(name);
+        when(file.getExtension()).thenReturn(name.substring(name.lastIndexOf('.') + 1));
+        return file;
+    }
+}
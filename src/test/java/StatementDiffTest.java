@@ -0,0 +1,49 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StatementDiffTest {
+    @Test
+    void compute_IdenticalUnits() {
+        List<String> units = List.of("def f(x):", "    y = x + 1", "    return y");
+        StatementDiff diff = StatementDiff.compute(units, units);
+        assertTrue(diff.isEmpty(), "Identical versions should produce no hunks");
+    }
+
+    @Test
+    void compute_SingleChangedStatement() {
+        List<String> oldUnits = List.of("def f(x):", "    y = x + 1", "    return y");
+        List<String> newUnits = List.of("def f(x):", "    y = x + 2", "    return y");
+
+        StatementDiff diff = StatementDiff.compute(oldUnits, newUnits);
+
+        assertEquals(1, diff.getHunks().size());
+        assertEquals(List.of("    y = x + 1"), diff.getHunks().get(0).getRemoved());
+        assertEquals(List.of("    y = x + 2"), diff.getHunks().get(0).getAdded());
+    }
+
+    @Test
+    void compute_SeparateInsertions() {
+        List<String> oldUnits = List.of("def f():", "    a()", "    b()", "    c()");
+        List<String> newUnits = List.of("def f():", "    log()", "    a()", "    b()", "    c()", "    done()");
+
+        StatementDiff diff = StatementDiff.compute(oldUnits, newUnits);
+
+        assertEquals(2, diff.getHunks().size());
+        assertTrue(diff.getHunks().get(0).getRemoved().isEmpty());
+        assertEquals(List.of("    log()"), diff.getHunks().get(0).getAdded());
+        assertEquals(List.of("    done()"), diff.getHunks().get(1).getAdded());
+    }
+
+    @Test
+    void render_AnchorsHunksOnPrecedingStatement() {
+        List<String> oldUnits = List.of("def f(x):", "    return x");
+        List<String> newUnits = List.of("def f(x):", "    return -x");
+
+        String rendered = StatementDiff.compute(oldUnits, newUnits).render();
+
+        assertEquals("@@ after: def f(x):\n-     return x\n+     return -x\n", rendered);
+    }
+}
@@ -0,0 +1,88 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SummaryTreeTest {
+    private final List<String> requests = new ArrayList<>();
+
+    private String send(String request) {
+        requests.add(request);
+        if (request.startsWith(SummaryTree.SUMMARY_PROMPT)) {
+            return "final";
+        }
+        return "summary" + requests.size() + " with some encoded detail about the chunk ";
+    }
+
+    @Test
+    void summarize_SingleLevelWhenSummariesFit() throws Exception {
+        SummaryTree tree = new SummaryTree(7000);
+
+        String result = tree.summarize(List.of("chunk one", "chunk two"), this::send);
+
+        assertEquals("final", result);
+        assertEquals(3, requests.size(), "Two chunk summaries and one final summary expected");
+        assertTrue(requests.stream().noneMatch(request -> request.startsWith(SummaryTree.MERGE_PROMPT)));
+    }
+
+    @Test
+    void summarize_MergesLevelsWhenSummariesExceedLimit() throws Exception {
+        int promptTokens = CodeCompressor.estimateTokenCount(SummaryTree.MERGE_PROMPT);
+        SummaryTree tree = new SummaryTree(promptTokens + 50);
+        List<String> chunks = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            chunks.add("chunk " + i);
+        }
+
+        String result = tree.summarize(chunks, this::send);
+
+        assertEquals("final", result);
+        assertTrue(requests.stream().anyMatch(request -> request.startsWith(SummaryTree.MERGE_PROMPT)), "Summaries exceeding the limit should be merged");
+        assertTrue(requests.size() < 2 * chunks.size() + 1, "The tree should need fewer than 2n requests");
+    }
+
+    @Test
+    void summarize_OnlyRecomputesChangedChunks() throws Exception {
+        SummaryTree tree = new SummaryTree(7000);
+        tree.summarize(List.of("chunk one", "chunk two", "chunk three"), this::send);
+        requests.clear();
+
+        tree.summarize(List.of("chunk one", "chunk 2", "chunk three"), this::send);
+
+        assertEquals(2, requests.size(), "Only the changed chunk and the root should be sent again");
+        assertEquals(SummaryTree.CONTEXT_BATCH_PROMPT + "chunk 2", requests.get(0));
+    }
+
+    @Test
+    void summarize_UnchangedContextIsServedFromCache() throws Exception {
+        SummaryTree tree = new SummaryTree(7000);
+        tree.summarize(List.of("chunk one", "chunk two"), this::send);
+        requests.clear();
+
+        assertEquals("final", tree.summarize(List.of("chunk one", "chunk two"), this::send));
+        assertTrue(requests.isEmpty());
+    }
+
+    @Test
+    void summarize_AfterEditResendsOnlyChangedChunkAndAncestors() throws Exception {
+        List<String> units = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            units.add("    result_" + i + " = compute_value(argument_" + i + ", other_argument_" + i + ")");
+        }
+        int chunkTokens = CodeCompressor.estimateTokenCount(units.get(0)) * 12;
+        SummaryTree tree = new SummaryTree(7000);
+        tree.summarize(ContextChunker.pack(units, chunkTokens), this::send);
+        requests.clear();
+
+        List<String> edited = new ArrayList<>(units);
+        edited.set(3, units.get(3) + "  # now with a longer trailing comment");
+        tree.summarize(ContextChunker.pack(edited, chunkTokens), this::send);
+
+        assertEquals(2, requests.size(), "One chunk summary and the final summary expected");
+        assertTrue(requests.get(0).startsWith(SummaryTree.CONTEXT_BATCH_PROMPT));
+        assertTrue(requests.get(0).contains("longer trailing comment"));
+        assertTrue(requests.get(1).startsWith(SummaryTree.SUMMARY_PROMPT));
+    }
+}
@@ -0,0 +1,55 @@
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedStatic;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.mockito.Mockito.*;
+
+class VcsUpdateListenerTest {
+    private final Project project = mock(Project.class);
+    private final LocalFileSystem fileSystem = mock(LocalFileSystem.class);
+    private final StaleExplanationRefresher refresher = mock(StaleExplanationRefresher.class);
+    private MockedStatic<LocalFileSystem> fileSystemStatic;
+    private MockedStatic<StaleExplanationRefresher> refresherStatic;
+
+    @BeforeEach
+    void setUp() {
+        fileSystemStatic = mockStatic(LocalFileSystem.class);
+        fileSystemStatic.when(LocalFileSystem::getInstance).thenReturn(fileSystem);
+        refresherStatic = mockStatic(StaleExplanationRefresher.class);
+    }
+
+    @AfterEach
+    void tearDown() {
+        refresherStatic.close();
+        fileSystemStatic.close();
+    }
+
+    @Test
+    void consume_PassesUpdatedFilesThatExist() {
+        refresherStatic.when(() -> StaleExplanationRefresher.getIfUsed(project)).thenReturn(refresher);
+        VirtualFile module = mock(VirtualFile.class);
+        when(fileSystem.findFileByPath("/repo/module.py")).thenReturn(module);
+        when(fileSystem.findFileByPath("/repo/deleted.py")).thenReturn(null);
+
+        new VcsUpdateListener(project).consume(new LinkedHashSet<>(List.of("/repo/module.py", "/repo/deleted.py")));
+
+        verify(refresher).filesChanged(List.of(module));
+    }
+
+    @Test
+    void consume_DoesNothingInProjectsWithoutExplanations() {
+        refresherStatic.when(() -> StaleExplanationRefresher.getIfUsed(project)).thenReturn(null);
+
+        new VcsUpdateListener(project).consume(Set.of("/repo/module.py"));
+
+        verifyNoInteractions(fileSystem);
+    }
+}
@@ -0,0 +1,134 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+/**
+ * A minimal in-memory server implementing the protocol of the plugin's {@code RemoteExplanationCache}, for tests and
+ * for trying a shared cache out locally. Run it with {@code ./gradlew runCacheServer [--args=<port>]} and start the
+ * IDE with {@code -Dexplain.cache.remote=http://localhost:<port>/}.
+ */
+public class LocalCacheServer implements AutoCloseable {
+    private static final Pattern KEY_PATTERN = Pattern.compile("[0-9a-f]{64}");
+    private static final int MAX_ENTRY_BYTES = 1 << 20;
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Map<String, String> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Starts a server on the loopback interface.
+     *
+     * @param port The port to listen on, or 0 for any free port.
+     * @throws IOException If the server cannot be started.
+     */
+    public LocalCacheServer(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        server.createContext("/cas/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Gets the base URI of the server.
+     *
+     * @return The base URI.
+     */
+    public URI getUri() {
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/");
+    }
+
+    /**
+     * Gets the number of stored explanations.
+     *
+     * @return The number of entries.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String name = exchange.getRequestURI().getPath().substring("/cas/".length());
+            String method = exchange.getRequestMethod();
+            if (name.equals("batch") && method.equals("POST")) {
+                handleBatch(exchange);
+            } else if (!KEY_PATTERN.matcher(name).matches()) {
+                respond(exchange, 400, "Invalid key");
+            } else if (method.equals("GET")) {
+                String entry = entries.get(name);
+                respond(exchange, entry == null ? 404 : 200, entry == null ? "" : entry);
+            } else if (method.equals("PUT")) {
+                byte[] body = exchange.getRequestBody().readNBytes(MAX_ENTRY_BYTES + 1);
+                if (body.length > MAX_ENTRY_BYTES) {
+                    respond(exchange, 413, "Entry too large");
+                    return;
+                }
+                entries.putIfAbsent(name, new String(body, StandardCharsets.UTF_8));
+                respond(exchange, 204, null);
+            } else {
+                respond(exchange, 405, "Method not allowed");
+            }
+        }
+    }
+
+    private void handleBatch(HttpExchange exchange) throws IOException {
+        JSONObject found = new JSONObject();
+        try {
+            JSONArray keys = new JSONArray(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            for (int i = 0; i < keys.length(); i++) {
+                String entry = entries.get(keys.getString(i));
+                if (entry != null) {
+                    found.put(keys.getString(i), entry);
+                }
+            }
+        } catch (JSONException e) {
+            respond(exchange, 400, "Expected a JSON array of keys");
+            return;
+        }
+        respond(exchange, 200, found.toString());
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        if (bytes.length > 0) {
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(bytes);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Runs the server until the process is stopped.
+     *
+     * @param args The port to listen on, 8080 by default.
+     * @throws IOException If the server cannot be started.
+     */
+    public static void main(String[] args) throws IOException {
+        LocalCacheServer server = new LocalCacheServer(args.length > 0 ? Integer.parseInt(args[0]) : 8080);
+        System.out.println("Explanation cache listening on " + server.getUri());
+    }
+}